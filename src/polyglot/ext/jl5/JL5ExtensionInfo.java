@@ -132,6 +132,13 @@ public class JL5ExtensionInfo extends JLExtensionInfo {
         return outputExtensionInfo;
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        // The output extension depends on the options.
+        outputExtensionInfo = null;
+    }
+
     @Override
     public Version version() {
         return new JL5Version();
@@ -44,6 +44,7 @@ public class JL5Options extends Options {
     public boolean morePermissiveCasts;
     public boolean skip524checks;
     public boolean leaveCovariantReturns;
+    public boolean fuseVisitors;
 
     public JL5Options(ExtensionInfo extension) {
         super(extension);
@@ -95,6 +96,10 @@ public class JL5Options extends Options {
                              new String[] { "-leaveCovariantReturns",
                                      "--leaveCovariantReturns" },
                              "With removeJava5isms, does not translate away covariant returns"));
+        flags.add(new Switch(Kind.SECRET,
+                             new String[] { "-nofuse", "--nofuse" },
+                             "With removeJava5isms, run each rewriting pass in its own traversal of the AST",
+                             false));
         flags.add(new Switch(new String[] { "-morepermissiveinference",
                                      "--morepermissiveinference" },
                              "Use a more permissive algorithm for type inference. (Experimental)"));
@@ -129,6 +134,9 @@ public class JL5Options extends Options {
         else if (arg.flag().ids().contains("-leaveCovariantReturns")) {
             this.leaveCovariantReturns = (Boolean) arg.value();
         }
+        else if (arg.flag().ids().contains("-nofuse")) {
+            this.fuseVisitors = (Boolean) arg.value();
+        }
         else super.handleArg(arg);
     }
 }
@@ -51,6 +51,7 @@ import polyglot.frontend.Pass;
 import polyglot.frontend.Scheduler;
 import polyglot.frontend.goals.CodeGenerated;
 import polyglot.frontend.goals.EmptyGoal;
+import polyglot.frontend.goals.FusedVisitorGoal;
 import polyglot.frontend.goals.Goal;
 import polyglot.frontend.goals.VisitorGoal;
 import polyglot.main.Options;
@@ -129,6 +130,8 @@ public class JL5Scheduler extends JLScheduler {
     }
 
     public Goal RemoveVarArgs(Job job) {
+        if (fuseVisitors()) return Java5StatementsRemoved(job);
+
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
         Goal g = new VisitorGoal(job, new RemoveVarargVisitor(job, ts, nf));
@@ -142,6 +145,8 @@ public class JL5Scheduler extends JLScheduler {
     }
 
     public Goal SimplifyExpressionsForBoxing(Job job) {
+        if (fuseVisitors()) return Java5StatementsRemoved(job);
+
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
         Goal g = new VisitorGoal(job, new SimplifyExpressionsForBoxing(nf, ts));
@@ -155,6 +160,8 @@ public class JL5Scheduler extends JLScheduler {
     }
 
     public Goal RemoveEnums(Job job) {
+        if (fuseVisitors()) return Java5DeclarationsRemoved(job);
+
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
         Goal g = new VisitorGoal(job, new RemoveEnums(job, ts, nf));
@@ -171,6 +178,8 @@ public class JL5Scheduler extends JLScheduler {
     }
 
     public Goal RemoveVarArgsFlags(Job job) {
+        if (fuseVisitors()) return Java5DeclarationsRemoved(job);
+
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
         Goal g = new VisitorGoal(job, new RemoveVarArgsFlags(job, ts, nf));
@@ -185,6 +194,8 @@ public class JL5Scheduler extends JLScheduler {
     }
 
     public Goal RemoveExtendedFors(Job job) {
+        if (fuseVisitors()) return Java5StatementsRemoved(job);
+
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
         Goal g = new VisitorGoal(job, new RemoveExtendedFors(job, ts, nf));
@@ -199,6 +210,8 @@ public class JL5Scheduler extends JLScheduler {
     }
 
     public Goal RemoveStaticImports(Job job) {
+        if (fuseVisitors()) return Java5DeclarationsRemoved(job);
+
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
         Goal g = new VisitorGoal(job, new RemoveStaticImports(job, ts, nf));
@@ -213,6 +226,8 @@ public class JL5Scheduler extends JLScheduler {
     }
 
     public Goal RemoveAnnotations(Job job) {
+        if (fuseVisitors()) return Java5DeclarationsRemoved(job);
+
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
         Goal g = new VisitorGoal(job, new RemoveAnnotations(job, ts, nf));
@@ -227,6 +242,65 @@ public class JL5Scheduler extends JLScheduler {
 
     }
 
+    /**
+     * Should the rewriting passes of removeJava5isms that can share a
+     * traversal of the AST be run together?
+     */
+    protected boolean fuseVisitors() {
+        Options opts = extInfo.getOptions();
+        return opts instanceof JL5Options && ((JL5Options) opts).fuseVisitors;
+    }
+
+    /**
+     * The goal of removing varargs calls and extended for loops and
+     * simplifying expressions for boxing, in one traversal.  It stands for
+     * the goals {@code RemoveVarArgs}, {@code RemoveExtendedFors} and
+     * {@code SimplifyExpressionsForBoxing} when visitors are fused.
+     */
+    public Goal Java5StatementsRemoved(Job job) {
+        TypeSystem ts = extInfo.typeSystem();
+        NodeFactory nf = extInfo.nodeFactory();
+        Goal g =
+                new FusedVisitorGoal(job,
+                                     new RemoveVarargVisitor(job, ts, nf),
+                                     new RemoveExtendedFors(job, ts, nf),
+                                     new SimplifyExpressionsForBoxing(nf, ts));
+        try {
+            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
+        }
+        catch (CyclicDependencyException e) {
+            throw new InternalCompilerError(e);
+        }
+        return this.internGoal(g);
+    }
+
+    /**
+     * The goal of removing static imports, enums, varargs flags and
+     * annotations, in one traversal.  It stands for the goals
+     * {@code RemoveStaticImports}, {@code RemoveEnums},
+     * {@code RemoveVarArgsFlags} and {@code RemoveAnnotations} when visitors
+     * are fused.
+     */
+    public Goal Java5DeclarationsRemoved(Job job) {
+        TypeSystem ts = extInfo.typeSystem();
+        NodeFactory nf = extInfo.nodeFactory();
+        Goal g =
+                new FusedVisitorGoal(job,
+                                     new RemoveStaticImports(job, ts, nf),
+                                     new RemoveEnums(job, ts, nf),
+                                     new RemoveVarArgsFlags(job, ts, nf),
+                                     new RemoveAnnotations(job, ts, nf));
+        try {
+            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
+            g.addPrerequisiteGoal(Java5StatementsRemoved(job), this);
+            g.addPrerequisiteGoal(AutoBoxing(job), this);
+        }
+        catch (CyclicDependencyException e) {
+            throw new InternalCompilerError(e);
+        }
+        return this.internGoal(g);
+    }
+
     public Goal PreRemoveJava5isms(Job job) {
         Goal g = new EmptyGoal(job, "PreRemoveJava5isms");
         try {
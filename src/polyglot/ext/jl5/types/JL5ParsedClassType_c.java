@@ -309,6 +309,13 @@ public class JL5ParsedClassType_c extends ParsedClassType_c implements
         return super.translate(c);
     }
 
+    @Override
+    protected boolean hasExactAncestors() {
+        // A generic class is also a subtype of the supertypes of its raw
+        // class.
+        return super.hasExactAncestors() && typeVariables().isEmpty();
+    }
+
     @Override
     public boolean descendsFromImpl(Type ancestor) {
         if (super.descendsFromImpl(ancestor)) {
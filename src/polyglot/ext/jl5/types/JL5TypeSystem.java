@@ -317,6 +317,14 @@ public interface JL5TypeSystem extends
      */
     RawClass rawClass(JL5ParsedClassType base);
 
+    /**
+     * The erasure of the parameterized class {@code base}, that is, {@code base}
+     * with each of its type variables, and those of its enclosing classes,
+     * replaced by its erasure.  Return null if neither {@code base} nor its
+     * enclosing classes have type variables.
+     */
+    JL5SubstClassType erasedClass(JL5ParsedClassType base);
+
     /**
      * @param type
      * @return true of the type can be a raw class.
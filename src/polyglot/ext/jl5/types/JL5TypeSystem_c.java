@@ -38,6 +38,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import polyglot.ast.ClassLit;
 import polyglot.ast.Expr;
@@ -79,9 +80,11 @@ import polyglot.types.ProcedureInstance;
 import polyglot.types.ReferenceType;
 import polyglot.types.SemanticException;
 import polyglot.types.Type;
+import polyglot.types.TypeObject;
 import polyglot.types.reflect.ClassFile;
 import polyglot.types.reflect.ClassFileLazyClassInitializer;
 import polyglot.util.InternalCompilerError;
+import polyglot.util.LRUMap;
 import polyglot.util.Position;
 
 public class JL5TypeSystem_c extends
@@ -536,6 +539,11 @@ public class JL5TypeSystem_c extends
         return new JL5ClassFileLazyClassInitializer(clazz, this);
     }
 
+    @Override
+    public boolean typeEncoderSharesIdentity(TypeObject o) {
+        return super.typeEncoderSharesIdentity(o) || o instanceof TypeVariable;
+    }
+
     @Override
     public ImportTable importTable(String sourceName, polyglot.types.Package pkg) {
         assert_(pkg);
@@ -567,14 +575,15 @@ public class JL5TypeSystem_c extends
         return new JL5ArrayType_c(this, pos, type, false);
     }
 
-    Map<Type, ArrayType> varargsArrayTypeCache = new HashMap<>();
+    Map<Type, ArrayType> varargsArrayTypeCache = new ConcurrentHashMap<>();
 
     protected ArrayType arrayType(Position pos, Type type, boolean isVarargs) {
         if (isVarargs) {
             ArrayType t = varargsArrayTypeCache.get(type);
             if (t == null) {
                 t = createArrayType(pos, type, isVarargs);
-                varargsArrayTypeCache.put(type, t);
+                ArrayType prev = varargsArrayTypeCache.putIfAbsent(type, t);
+                if (prev != null) t = prev;
             }
             return t;
         }
@@ -991,9 +1000,47 @@ public class JL5TypeSystem_c extends
         if (allNull) {
             return clazz;
         }
-        return super.instantiate(pos, clazz.pclass(), actuals);
+
+        List<Object> key = new ArrayList<>(actuals.size() + 1);
+        key.add(clazz);
+        key.addAll(actuals);
+        ClassType ct;
+        synchronized (instantiations) {
+            ct = instantiations.get(key);
+        }
+        if (Report.should_report(Report.time, 1)) {
+            extInfo.getStats().accumPassTimes(ct != null
+                    ? "instantiate cache hits" : "instantiate cache misses",
+                                              1,
+                                              1);
+        }
+        if (ct != null) {
+            return ct;
+        }
+
+        ct = super.instantiate(pos, clazz.pclass(), actuals);
+        synchronized (instantiations) {
+            instantiations.put(key, ct);
+        }
+        return ct;
     }
 
+    /**
+     * The maximum number of instantiations kept in {@code instantiations}.
+     */
+    protected static final int MAX_INSTANTIATIONS = 1 << 14;
+
+    /**
+     * Canonical instantiations of parameterized classes, keyed by the class
+     * followed by its actual type arguments.  Equal instantiations are thus
+     * the same object, and most type comparisons between them succeed on the
+     * identity test.  The least recently used entries are dropped once the
+     * table is full; an instantiation created after its entry was dropped is
+     * equal to, but not identical with, the earlier one.
+     */
+    protected Map<List<Object>, ClassType> instantiations =
+            new LRUMap<>(MAX_INSTANTIATIONS);
+
     @Override
     public JL5ProcedureInstance instantiate(Position pos,
             JL5ProcedureInstance mi, List<? extends ReferenceType> actuals) {
@@ -2357,6 +2404,64 @@ public class JL5TypeSystem_c extends
         if (bounds == null || bounds.isEmpty()) {
             return Object();
         }
+        if (!performIntersectionCheck) {
+            // The bounds may be type variables of a capture conversion
+            // whose own bounds are still being computed.
+            return glbImpl(pos, bounds, false);
+        }
+
+        // Only the check of the bounds is memoized, so that the intersection
+        // type is at the caller's position.
+        List<ReferenceType> key = new ArrayList<>(bounds);
+        CachedResult<Boolean> cached;
+        int changes;
+        synchronized (glbs) {
+            cached = glbs.get(key);
+            changes = classChanges;
+        }
+        if (Report.should_report(Report.time, 1)) {
+            extInfo.getStats().accumPassTimes(cached != null
+                    ? "glb cache hits" : "glb cache misses", 1, 1);
+        }
+        if (cached == null) {
+            boolean valid;
+            try {
+                valid = checkIntersectionBounds(key, true);
+            }
+            catch (SemanticException e) {
+                valid = false;
+            }
+            cached = new CachedResult<>(valid, classDependencies(key));
+            synchronized (glbs) {
+                // Don't keep the result if a class changed while checking.
+                if (changes == classChanges) {
+                    glbs.put(key, cached);
+                }
+            }
+        }
+
+        if (!cached.value()) {
+            return Object();
+        }
+        return intersectionType(pos, key);
+    }
+
+    /**
+     * The maximum number of entries kept in each of {@code lubs} and
+     * {@code glbs}.
+     */
+    protected static final int MAX_BOUNDS = 1 << 12;
+
+    /**
+     * Whether the bounds given to {@code glb} are valid bounds of an
+     * intersection type, keyed by the list of bounds.  Results are discarded
+     * when a class they depend on changes.
+     */
+    protected Map<List<ReferenceType>, CachedResult<Boolean>> glbs =
+            new LRUMap<>(MAX_BOUNDS);
+
+    protected ReferenceType glbImpl(Position pos, List<ReferenceType> bounds,
+            boolean performIntersectionCheck) {
         try {
             // XXX also need to check that does not have two classes that are not in a subclass relation?
             if (performIntersectionCheck
@@ -2393,6 +2498,34 @@ public class JL5TypeSystem_c extends
         return new RawClass_c(base, pos);
     }
 
+    /**
+     * The maximum number of erasures kept in {@code erasedClasses}.
+     */
+    protected static final int MAX_ERASED_CLASSES = 1 << 12;
+
+    /**
+     * The erasures of parameterized classes, shared by the raw classes with
+     * the same base.  An erasure is discarded when its base changes.
+     */
+    protected Map<JL5ParsedClassType, JL5SubstClassType> erasedClasses =
+            new LRUMap<>(MAX_ERASED_CLASSES);
+
+    @Override
+    public JL5SubstClassType erasedClass(JL5ParsedClassType base) {
+        synchronized (erasedClasses) {
+            JL5SubstClassType ct = erasedClasses.get(base);
+            if (ct == null) {
+                JL5Subst es = erasureSubst(base);
+                if (es == null) {
+                    return null;
+                }
+                ct = new JL5SubstClassType_c(this, base.position(), base, es);
+                erasedClasses.put(base, ct);
+            }
+            return ct;
+        }
+    }
+
     @Override
     public boolean canBeRaw(Type type) {
         if (type instanceof JL5ParsedClassType) {
@@ -2479,9 +2612,98 @@ public class JL5TypeSystem_c extends
         return t;
     }
 
+    /**
+     * The results of {@code lub}, keyed by the list of types.  Results are
+     * discarded when a class they depend on changes.
+     */
+    protected Map<List<ReferenceType>, CachedResult<LubType>> lubs =
+            new LRUMap<>(MAX_BOUNDS);
+
     @Override
     public LubType lub(Position pos, List<ReferenceType> us) {
-        return new LubType_c(this, pos, us);
+        List<ReferenceType> key = new ArrayList<>(us);
+        CachedResult<LubType> cached;
+        int changes;
+        synchronized (lubs) {
+            cached = lubs.get(key);
+            changes = classChanges;
+        }
+        if (Report.should_report(Report.time, 1)) {
+            extInfo.getStats().accumPassTimes(cached != null
+                    ? "lub cache hits" : "lub cache misses", 1, 1);
+        }
+        if (cached != null) {
+            // Don't share the LubType itself, which has the position of its
+            // first caller; share only the calculation of the bound.
+            return new LubType_c(this, pos, cached.value());
+        }
+
+        LubType t = new LubType_c(this, pos, key);
+        synchronized (lubs) {
+            // Don't keep the result if a class changed in the meantime.
+            if (changes == classChanges) {
+                lubs.put(key, new CachedResult<>(t, classDependencies(key)));
+            }
+        }
+        return t;
+    }
+
+    @Override
+    public void classChanged(ClassType ct) {
+        super.classChanged(ct);
+        synchronized (lubs) {
+            discardDependents(lubs, ct);
+        }
+        synchronized (glbs) {
+            discardDependents(glbs, ct);
+        }
+        synchronized (erasedClasses) {
+            erasedClasses.remove(ct);
+        }
+    }
+
+    @Override
+    protected boolean addClassDependencies(Type t, Set<Type> deps) {
+        if (t instanceof JL5SubstClassType) {
+            if (!deps.add(t)) {
+                return true;
+            }
+            // The ancestors of the base class are parameterized by its type
+            // variables, so the base and the actuals cover the ancestors of
+            // t.
+            JL5SubstClassType sct = (JL5SubstClassType) t;
+            return addClassDependencies(sct.base(), deps)
+                    && addAllClassDependencies(sct.subst()
+                                                  .substitutions()
+                                                  .values(), deps);
+        }
+        if (t instanceof RawClass) {
+            return addClassDependencies(((RawClass) t).base(), deps);
+        }
+        if (t instanceof TypeVariable) {
+            if (!deps.add(t)) {
+                return true;
+            }
+            TypeVariable tv = (TypeVariable) t;
+            return addClassDependencies(tv.upperBound(), deps)
+                    && (!tv.hasLowerBound()
+                            || addClassDependencies(tv.lowerBound(), deps));
+        }
+        if (t instanceof WildCardType) {
+            WildCardType w = (WildCardType) t;
+            return (w.upperBound() == null
+                    || addClassDependencies(w.upperBound(), deps))
+                    && (w.lowerBound() == null
+                            || addClassDependencies(w.lowerBound(), deps));
+        }
+        if (t instanceof IntersectionType) {
+            return addAllClassDependencies(((IntersectionType) t).bounds(),
+                                           deps);
+        }
+        if (t instanceof LubType) {
+            return addAllClassDependencies(((LubType) t).lubElements(), deps);
+        }
+        return super.addClassDependencies(t, deps);
     }
 
     @Override
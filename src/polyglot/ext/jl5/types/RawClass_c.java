@@ -71,14 +71,13 @@ public class RawClass_c extends JL5ClassType_c implements RawClass {
     public JL5SubstClassType erased() {
         if (erased == null) {
             JL5TypeSystem ts = (JL5TypeSystem) this.ts;
-            JL5Subst es = ts.erasureSubst(base);
-            if (es == null) {
+            erased = ts.erasedClass(base);
+            if (erased == null) {
                 throw new InternalCompilerError("Can't have a raw class for "
                                                         + base
                                                         + " unless it, or a container, has a type variable!",
                                                 position());
             }
-            erased = new JL5SubstClassType_c(ts, base.position(), base, es);
         }
         return erased;
     }
@@ -54,6 +54,7 @@ import polyglot.types.ReferenceType;
 import polyglot.types.Resolver;
 import polyglot.types.SemanticException;
 import polyglot.types.Type;
+import polyglot.types.TypeObject;
 import polyglot.types.TypeSystem;
 import polyglot.util.CollectionUtil;
 import polyglot.util.InternalCompilerError;
@@ -65,11 +66,26 @@ public class LubType_c extends ClassType_c implements LubType {
 
     protected List<ReferenceType> lubElems;
 
+    /**
+     * The lub of the same types whose calculation this one shares, or null.
+     */
+    protected transient LubType shared;
+
     public LubType_c(TypeSystem ts, Position pos, List<ReferenceType> lubElems) {
         super(ts, pos);
         this.lubElems = lubElems;
     }
 
+    /**
+     * Create a lub of the same types as {@code shared}, at position
+     * {@code pos}, that calculates the least upper bound only once, through
+     * {@code shared}.
+     */
+    public LubType_c(TypeSystem ts, Position pos, LubType shared) {
+        this(ts, pos, shared.lubElements());
+        this.shared = shared;
+    }
+
     @Override
     public List<ReferenceType> lubElements() {
         return lubElems;
@@ -80,7 +96,10 @@ public class LubType_c extends ClassType_c implements LubType {
     @Override
     public ReferenceType calculateLub() {
         if (lubCalculated == null) {
-            lubCalculated = lub_force();
+            lubCalculated =
+                    shared != null
+                            ? (ReferenceType) shared.calculateLub()
+                            : lub_force();
         }
         return lubCalculated;
     }
@@ -298,6 +317,49 @@ public class LubType_c extends ClassType_c implements LubType {
         }
     }
 
+    /*
+     * A lub is determined by its elements, so lubs of the same elements are
+     * equal.  This lets lubs of the same types, which the type system
+     * creates for each caller, be used as elements of other lubs and
+     * instantiations interchangeably.
+     */
+
+    @Override
+    public boolean equalsImpl(TypeObject t) {
+        if (t == this) {
+            return true;
+        }
+        if (t instanceof LubType) {
+            return lubElems.equals(((LubType) t).lubElements());
+        }
+        return false;
+    }
+
+    @Override
+    public boolean typeEqualsImpl(Type t) {
+        if (t == this) {
+            return true;
+        }
+        if (t instanceof LubType) {
+            List<ReferenceType> l = ((LubType) t).lubElements();
+            if (l.size() != lubElems.size()) {
+                return false;
+            }
+            for (int i = 0; i < l.size(); i++) {
+                if (!ts.typeEquals(lubElems.get(i), l.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return lubElems.hashCode();
+    }
+
     @Override
     public String toString() {
         StringBuffer sb = new StringBuffer("lub(");
@@ -103,7 +103,7 @@ public class Annotations extends Attribute {
                 new LinkedHashMap<>();
         for (Annotation a : this.annotations) {
             String typeString =
-                    (String) (cls.getConstants()[a.typeIndex]).value();
+                    (String) cls.getConstant(a.typeIndex).value();
             Type type = init.typeForString(typeString);
 
             m.put(type, a.createAnnotationElementValues(init, ts, pos));
@@ -129,7 +129,7 @@ public class Annotations extends Attribute {
                 int elementNameIndex = in.readUnsignedShort();
                 ElementValue val = readElementValue(clazz, in);
                 String elementName =
-                        (String) clazz.getConstants()[elementNameIndex].value();
+                        (String) clazz.getConstant(elementNameIndex).value();
                 elementValuePairs.put(elementName, val);
             }
         }
@@ -201,7 +201,7 @@ public class Annotations extends Attribute {
         public AnnotationElementValue toAnnotationElementValue(
                 JL5ClassFileLazyClassInitializer init, JL5TypeSystem ts,
                 Position pos) {
-            String typeName = (String) cls.getConstants()[typeIndex].value();
+            String typeName = (String) cls.getConstant(typeIndex).value();
             Type type = init.typeForString(typeName);
             if (!type.isClass()) {
                 throw new InternalCompilerError("Type " + type + " ("
@@ -236,7 +236,7 @@ public class Annotations extends Attribute {
                 Position pos) {
             return ts.AnnotationElementValueConstant(pos,
                                                      init.typeForString(String.valueOf(type)),
-                                                     cls.getConstants()[constValueIndex].value());
+                                                     cls.getConstant(constValueIndex).value());
         }
     }
 
@@ -253,9 +253,9 @@ public class Annotations extends Attribute {
         public AnnotationElementValue toAnnotationElementValue(
                 JL5ClassFileLazyClassInitializer init, JL5TypeSystem ts,
                 Position pos) {
-            String typeName = (String) cls.getConstants()[typeIndex].value();
+            String typeName = (String) cls.getConstant(typeIndex).value();
             String constName =
-                    (String) cls.getConstants()[constNameIndex].value();
+                    (String) cls.getConstant(constNameIndex).value();
             Type type = init.typeForString(typeName);
             if (!type.isClass()) {
                 throw new InternalCompilerError("Type " + type + " ("
@@ -288,7 +288,7 @@ public class Annotations extends Attribute {
                 Position pos) {
             return ts.AnnotationElementValueConstant(pos,
                                                      ts.Class(),
-                                                     init.typeForString((String) cls.getConstants()[classInfo].value()));
+                                                     init.typeForString((String) cls.getConstant(classInfo).value()));
         }
     }
 
@@ -166,9 +166,8 @@ public class JL5ClassFileLazyClassInitializer extends
     @Override
     protected MethodInstance methodInstance(Method method_, ClassType ct) {
         JL5Method method = (JL5Method) method_;
-        Constant[] constants = clazz.getConstants();
-        String name = (String) constants[method.getName()].value();
-        String type = (String) constants[method.getType()].value();
+        String name = (String) clazz.getConstant(method.getName()).value();
+        String type = (String) clazz.getConstant(method.getType()).value();
         JL5Signature signature = method.getSignature();
 
         List<ReferenceType> excTypes = new ArrayList<>();
@@ -319,9 +318,8 @@ public class JL5ClassFileLazyClassInitializer extends
     @Override
     protected FieldInstance fieldInstance(Field field_, ClassType ct) {
         JL5Field field = (JL5Field) field_;
-        Constant[] constants = clazz.getConstants();
-        String name = (String) constants[field.getName()].value();
-        String type = (String) constants[field.getType()].value();
+        String name = (String) clazz.getConstant(field.getName()).value();
+        String type = (String) clazz.getConstant(field.getType()).value();
 
         JL5TypeSystem ts = ((JL5TypeSystem) this.ts);
 
@@ -401,96 +399,101 @@ public class JL5ClassFileLazyClassInitializer extends
 
     @Override
     public void initEnumConstants() {
-        if (enumConstantsInitialized) {
-            return;
-        }
-        // initialize fields first
-        initFields();
-        List<EnumInstance> enumInstances = new ArrayList<>();
-        for (FieldInstance fi : this.ct.fields()) {
-            if (JL5Flags.isEnum(fi.flags())) {
-                EnumInstance ei = (EnumInstance) fi;
-                enumInstances.add(ei);
-                ((JL5ParsedClassType) ct).addEnumConstant(ei);
+        synchronized (ts) {
+            if (enumConstantsInitialized) {
+                return;
+            }
+            // initialize fields first
+            initFields();
+            List<EnumInstance> enumInstances = new ArrayList<>();
+            for (FieldInstance fi : this.ct.fields()) {
+                if (JL5Flags.isEnum(fi.flags())) {
+                    EnumInstance ei = (EnumInstance) fi;
+                    enumInstances.add(ei);
+                    ((JL5ParsedClassType) ct).addEnumConstant(ei);
+                }
             }
-        }
 
-        // if we added enums, we need to set their ordinals.
-        // TODO: XXX This is currently a hack. There is probably a better way to get the
-        // ordinals for the enum instances.
-        long ordinal = 0;
-        for (EnumInstance ei : enumInstances) {
-            ei.setOrdinal(ordinal);
-            ordinal++;
-        }
+            // if we added enums, we need to set their ordinals.
+            // TODO: XXX This is currently a hack. There is probably a better way to get the
+            // ordinals for the enum instances.
+            long ordinal = 0;
+            for (EnumInstance ei : enumInstances) {
+                ei.setOrdinal(ordinal);
+                ordinal++;
+            }
 
-        enumConstantsInitialized = true;
-        if (initialized()) {
-            clazz = null;
+            enumConstantsInitialized = true;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
     @Override
     public void initAnnotations() {
-        if (annotationsInitialized) {
-            return;
-        }
-        JL5TypeSystem ts = (JL5TypeSystem) this.ts;
-        Map<Type, Map<String, AnnotationElementValue>> annotationElems =
-                new LinkedHashMap<>();
-        JL5ClassFile cls = (JL5ClassFile) clazz;
-        if (cls.getRuntimeVisibleAnnotations() != null) {
-            annotationElems.putAll(cls.getRuntimeVisibleAnnotations()
-                                      .toAnnotationElems(this, ts));
-        }
-        if (cls.getRuntimeInvisibleAnnotations() != null) {
-            annotationElems.putAll(cls.getRuntimeInvisibleAnnotations()
-                                      .toAnnotationElems(this, ts));
-        }
+        synchronized (ts) {
+            if (annotationsInitialized) {
+                return;
+            }
+            JL5TypeSystem ts = (JL5TypeSystem) this.ts;
+            Map<Type, Map<String, AnnotationElementValue>> annotationElems =
+                    new LinkedHashMap<>();
+            JL5ClassFile cls = (JL5ClassFile) clazz;
+            if (cls.getRuntimeVisibleAnnotations() != null) {
+                annotationElems.putAll(cls.getRuntimeVisibleAnnotations()
+                                          .toAnnotationElems(this, ts));
+            }
+            if (cls.getRuntimeInvisibleAnnotations() != null) {
+                annotationElems.putAll(cls.getRuntimeInvisibleAnnotations()
+                                          .toAnnotationElems(this, ts));
+            }
 
-        Annotations retAnn =
-                ts.createAnnotations(annotationElems, ct.position());
-        ((JL5ParsedClassType) ct).setAnnotations(retAnn);
+            Annotations retAnn =
+                    ts.createAnnotations(annotationElems, ct.position());
+            ((JL5ParsedClassType) ct).setAnnotations(retAnn);
 
-        annotationsInitialized = true;
-        if (initialized()) {
-            clazz = null;
+            annotationsInitialized = true;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
     @Override
     public void initAnnotationElems() {
-        if (annotationElemsInitialized) {
-            return;
-        }
+        synchronized (ts) {
+            if (annotationElemsInitialized) {
+                return;
+            }
 
-        Method[] methods = clazz.getMethods();
-        for (int i = 0; i < methods.length; i++) {
-            if (!methods[i].name().equals("<init>")
-                    && !methods[i].name().equals("<clinit>")
-                    && !methods[i].isSynthetic()) {
-                AnnotationTypeElemInstance mi =
-                        this.annotationElemInstance((JL5Method) methods[i],
-                                                    ct,
-                                                    ((JL5Method) methods[i]).hasDefaultVal());
-                if (Report.should_report(verbose, 3))
-                    Report.report(3, "adding " + mi + " to " + ct);
-                ((JL5ParsedClassType) ct).addAnnotationElem(mi);
+            Method[] methods = clazz.getMethods();
+            for (int i = 0; i < methods.length; i++) {
+                if (!methods[i].name().equals("<init>")
+                        && !methods[i].name().equals("<clinit>")
+                        && !methods[i].isSynthetic()) {
+                    AnnotationTypeElemInstance mi =
+                            this.annotationElemInstance((JL5Method) methods[i],
+                                                        ct,
+                                                        ((JL5Method) methods[i]).hasDefaultVal());
+                    if (Report.should_report(verbose, 3))
+                        Report.report(3, "adding " + mi + " to " + ct);
+                    ((JL5ParsedClassType) ct).addAnnotationElem(mi);
+                }
             }
-        }
 
-        annotationElemsInitialized = true;
+            annotationElemsInitialized = true;
 
-        if (initialized()) {
-            clazz = null;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
     private AnnotationTypeElemInstance annotationElemInstance(JL5Method annot,
             ParsedClassType ct, boolean hasDefault) {
-        Constant[] constants = clazz.getConstants();
-        String name = (String) constants[annot.getName()].value();
-        String type = (String) constants[annot.getType()].value();
+        String name = (String) clazz.getConstant(annot.getName()).value();
+        String type = (String) clazz.getConstant(annot.getType()).value();
         if (type.charAt(0) != '(') {
             throw new ClassFormatError("Bad annotation type descriptor.");
         }
@@ -31,12 +31,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import polyglot.main.Report;
 import polyglot.types.ClassType;
 import polyglot.types.SemanticException;
 import polyglot.types.Type;
 import polyglot.types.TypeObject;
 import polyglot.types.TypeSystem_c;
 import polyglot.util.InternalCompilerError;
+import polyglot.util.LRUMap;
 import polyglot.util.Position;
 
 /**
@@ -44,8 +46,58 @@ import polyglot.util.Position;
  */
 public abstract class ParamTypeSystem_c<Formal extends Param, Actual extends TypeObject>
         extends TypeSystem_c implements ParamTypeSystem<Formal, Actual> {
-    protected Map<Map<Formal, ? extends Actual>, Subst<Formal, Actual>> substCache =
-            new HashMap<>();
+    /**
+     * The maximum number of substitutions kept in {@code substCache}.
+     */
+    protected static final int MAX_SUBSTS = 1 << 14;
+
+    /**
+     * Canonical substitutions, keyed by their substitution maps.  The least
+     * recently used entries are dropped once the cache is full.
+     */
+    protected Map<SubstKey, Subst<Formal, Actual>> substCache =
+            new LRUMap<>(MAX_SUBSTS);
+
+    /**
+     * A key of {@code substCache}: a substitution map with its hash code
+     * computed once.  Keys stored in the cache hold a copy of the map, since
+     * the caller may go on to modify it.  Computing the hash code of a map is
+     * cheap when its actuals mention only canonical substitutions, whose
+     * hash codes are recorded in them.
+     */
+    protected static class SubstKey {
+        protected final Map<?, ?> map;
+        protected final int hash;
+
+        protected SubstKey(Map<?, ?> map) {
+            this(map, map.hashCode());
+        }
+
+        protected SubstKey(Map<?, ?> map, int hash) {
+            this.map = map;
+            this.hash = hash;
+        }
+
+        /** Return a key that does not share its map with this one. */
+        protected SubstKey copy() {
+            return new SubstKey(new HashMap<>(map), hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o instanceof SubstKey) {
+                SubstKey that = (SubstKey) o;
+                return hash == that.hash && map.equals(that.map);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 
     @Override
     public MuPClass<Formal, Actual> mutablePClass(Position pos) {
@@ -122,10 +174,31 @@ public abstract class ParamTypeSystem_c<Formal extends Param, Actual extends Typ
     @Override
     public final Subst<Formal, Actual> subst(
             Map<Formal, ? extends Actual> substMap) {
-        Subst<Formal, Actual> subst = substCache.get(substMap);
-        if (subst == null) {
-            subst = substImpl(substMap);
-            substCache.put(substMap, subst);
+        SubstKey key = new SubstKey(substMap);
+        Subst<Formal, Actual> subst;
+        synchronized (substCache) {
+            subst = substCache.get(key);
+        }
+        if (Report.should_report(Report.time, 1)) {
+            extInfo.getStats().accumPassTimes(subst != null
+                    ? "subst cache hits" : "subst cache misses", 1, 1);
+        }
+        if (subst != null) {
+            return subst;
+        }
+
+        subst = substImpl(substMap);
+        if (subst instanceof Subst_c) {
+            // The map is copied into the substitution unchanged, so it has
+            // the same hash code.  Recording it keeps hashing the actuals,
+            // and with them the next key, shallow.
+            ((Subst_c<Formal, Actual>) subst).recordHashCode(key.hash);
+        }
+        synchronized (substCache) {
+            // Keep the substitution of another thread that got here first.
+            Subst<Formal, Actual> prev = substCache.get(key);
+            if (prev != null) return prev;
+            substCache.put(key.copy(), subst);
         }
         return subst;
     }
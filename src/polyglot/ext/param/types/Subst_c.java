@@ -69,6 +69,14 @@ public class Subst_c<Formal extends Param, Actual extends TypeObject>
 
     protected transient ParamTypeSystem<Formal, Actual> ts;
 
+    /**
+     * The hash code of {@code subst}, or 0 if it has not been recorded.  The
+     * type system records it when it makes this substitution canonical, so
+     * that hashing a type that mentions this substitution does not rehash
+     * the whole map.
+     */
+    protected transient int hash;
+
     public Subst_c(ParamTypeSystem<Formal, Actual> ts,
             Map<Formal, ? extends Actual> subst) {
         this.ts = ts;
@@ -367,6 +375,10 @@ public class Subst_c<Formal extends Param, Actual extends TypeObject>
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
         if (o instanceof Subst) {
             return subst.equals(((Subst<?, ?>) o).substitutions());
         }
@@ -376,7 +388,13 @@ public class Subst_c<Formal extends Param, Actual extends TypeObject>
 
     @Override
     public int hashCode() {
-        return subst.hashCode();
+        int h = hash;
+        return h != 0 ? h : subst.hashCode();
+    }
+
+    /** Record the hash code of the substitution map, computed by the caller. */
+    protected void recordHashCode(int hash) {
+        this.hash = hash;
     }
 
     ////////////////////////////////////////////////////////////////
@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.filemanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import polyglot.main.Report;
+
+/**
+ * A cache of the archives (jar and zip files) on the class path.  For each
+ * archive, the cache records the packages the archive contains, and keeps
+ * the archive open so that it need not be reopened for the next lookup.
+ *
+ * At most {@code maxOpen} archives are kept open; when another one is
+ * opened, the least recently used one that is not in use is closed.  The
+ * packages of a closed archive stay cached.  An archive handed out by
+ * {@link #acquire(File)} is in use until it is given back to
+ * {@link #release(File, ZipFile)}; it is not closed before then, even if it
+ * is dropped from the cache.
+ *
+ * A cache is owned by whoever created it, usually a file manager, which
+ * closes it with {@link #close()}.  Since the contents of an archive do not
+ * depend on the compilation that looks at it, the owner may pass the cache
+ * to several file managers, for instance to the successive compilations of
+ * a compiler daemon; {@link #refresh()} drops the archives modified since
+ * they were opened.
+ *
+ * The cache is safe for concurrent use.  Entries are read outside the lock
+ * of the cache, while the archive is acquired, and package lookups of
+ * archives already read do not lock the cache at all.
+ */
+public class ArchiveCache {
+    public static final int DEFAULT_MAX_OPEN = 64;
+
+    /** An archive in the cache. */
+    protected static class Archive {
+        protected final boolean exists;
+        /** The modification time of the archive when it was read. */
+        protected final long stamp;
+        /** The archive, or null if it is not open or does not exist. */
+        protected ZipFile zip;
+        /** The number of times {@code zip} was acquired and not released. */
+        protected int users;
+        /**
+         * The packages in the archive, as '/'-separated names.  Empty if the
+         * archive does not exist.
+         */
+        protected final Set<String> packages;
+
+        protected Archive(boolean exists, long stamp, ZipFile zip,
+                Set<String> packages) {
+            this.exists = exists;
+            this.stamp = stamp;
+            this.zip = zip;
+            this.packages = packages;
+        }
+    }
+
+    protected final int maxOpen;
+
+    /** The archives read, from least to most recently used. */
+    protected final LinkedHashMap<File, Archive> archives;
+
+    /**
+     * The archives that were dropped from the cache while they were in use,
+     * by their open file.  Each is closed when it is last released.
+     */
+    protected final Map<ZipFile, Archive> inUse;
+
+    /**
+     * The packages of the archives in {@code archives}, for lookups that do
+     * not take the lock of the cache.
+     */
+    protected final ConcurrentHashMap<File, Set<String>> packages;
+
+    /** The number of open archives, including those in {@code inUse}. */
+    protected int open;
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    public ArchiveCache(int maxOpen) {
+        this.maxOpen = maxOpen;
+        this.archives = new LinkedHashMap<>(16, 0.75f, true);
+        this.inUse = new HashMap<>();
+        this.packages = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Return the archive {@code f}, opening it if needed, or null if it does
+     * not exist.  A non-null result stays open until it is passed to
+     * {@link #release(File, ZipFile)}.
+     */
+    public synchronized ZipFile acquire(File f) throws IOException {
+        Archive a = archive(f);
+        ZipFile zip = zipFile(f, a);
+        if (zip != null) a.users++;
+        return zip;
+    }
+
+    /**
+     * Give back the archive {@code zip}, returned by {@link #acquire(File)}
+     * for {@code f}.  The archive is closed if it was dropped from the cache
+     * or evicted while it was in use.
+     */
+    public synchronized void release(File f, ZipFile zip) {
+        Archive a = archives.get(f);
+        if (a != null && a.zip == zip) {
+            a.users--;
+            if (a.users == 0 && open > maxOpen) {
+                close(a);
+                evictions.incrementAndGet();
+            }
+            return;
+        }
+
+        // The archive was dropped or evicted since it was acquired.
+        Archive dropped = inUse.get(zip);
+        if (dropped != null && --dropped.users == 0) {
+            inUse.remove(zip);
+            closeZip(zip);
+            open--;
+        }
+    }
+
+    protected ZipFile zipFile(File f, Archive a) throws IOException {
+        if (a.zip == null && a.exists) {
+            // The archive was closed to make room for others.
+            misses.incrementAndGet();
+            a.zip = open(f);
+        }
+        return a.zip;
+    }
+
+    /**
+     * Return the contents of the entry {@code entryName} of the archive
+     * {@code f}, or null if there is no such entry.  The archive is acquired
+     * for the read, so that reads of the same or other archives by other
+     * threads proceed at the same time.
+     */
+    public byte[] read(File f, String entryName) throws IOException {
+        ZipFile zip = acquire(f);
+        if (zip == null) return null;
+        try {
+            ZipEntry e = zip.getEntry(entryName);
+            if (e == null) return null;
+            try (InputStream in = zip.getInputStream(e)) {
+                return readFully(in, e.getSize());
+            }
+        }
+        finally {
+            release(f, zip);
+        }
+    }
+
+    /**
+     * Read all of {@code in}, which holds {@code size} bytes, or an unknown
+     * number of bytes if {@code size} is negative.
+     */
+    protected static byte[] readFully(InputStream in, long size)
+            throws IOException {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+
+        byte[] b = new byte[(int) size];
+        int off = 0;
+        while (off < b.length) {
+            int n = in.read(b, off, b.length - off);
+            if (n < 0) throw new EOFException();
+            off += n;
+        }
+        return b;
+    }
+
+    /**
+     * Return true if the archive {@code f} contains the package
+     * {@code entryName}, a '/'-separated name.
+     */
+    public boolean containsPackage(File f, String entryName)
+            throws IOException {
+        Set<String> p = packages.get(f);
+        if (p != null) {
+            hits.incrementAndGet();
+            return p.contains(entryName);
+        }
+        synchronized (this) {
+            return archive(f).packages.contains(entryName);
+        }
+    }
+
+    /** Return the cache entry for {@code f}, reading the archive if needed. */
+    protected Archive archive(File f) throws IOException {
+        Archive a = archives.get(f);
+        if (a != null) {
+            hits.incrementAndGet();
+            return a;
+        }
+
+        misses.incrementAndGet();
+        if (!f.exists()) {
+            a = new Archive(false, 0, null, Collections.<String> emptySet());
+        }
+        else {
+            long stamp = f.lastModified();
+            ZipFile zip = open(f);
+            a = new Archive(true, stamp, zip, packages(zip));
+        }
+        archives.put(f, a);
+        packages.put(f, a.packages);
+        return a;
+    }
+
+    /**
+     * Open {@code f}, closing the least recently used archive that is not in
+     * use if needed.  If all the open archives are in use, one more archive
+     * is opened; the extra one is closed when it is released.
+     */
+    protected ZipFile open(File f) throws IOException {
+        if (open >= maxOpen) {
+            for (Archive a : archives.values()) {
+                if (a.zip != null && a.users == 0) {
+                    close(a);
+                    evictions.incrementAndGet();
+                    break;
+                }
+            }
+        }
+
+        if (Report.should_report(ExtFileManager.verbose, 2))
+            Report.report(2, "Opening zip " + f);
+
+        ZipFile zip = f.getName().endsWith(".jar") ? new JarFile(f)
+                : new ZipFile(f);
+        open++;
+        return zip;
+    }
+
+    /** Return the packages in {@code zip}. */
+    protected static Set<String> packages(ZipFile zip) {
+        Set<String> packages = new HashSet<>();
+        Enumeration<? extends ZipEntry> i = zip.entries();
+        while (i.hasMoreElements()) {
+            String n = i.nextElement().getName();
+            int index = n.indexOf('/');
+            while (index >= 0) {
+                packages.add(n.substring(0, index));
+                index = n.indexOf('/', index + 1);
+            }
+        }
+        return packages;
+    }
+
+    /**
+     * Close the archive of {@code a}, or, if it is in use, leave it to be
+     * closed by its last release.  An archive left open still counts as open
+     * until then.
+     */
+    protected void close(Archive a) {
+        if (a.zip == null) return;
+        if (a.users > 0) {
+            Archive dropped =
+                    new Archive(a.exists, a.stamp, a.zip, a.packages);
+            dropped.users = a.users;
+            inUse.put(a.zip, dropped);
+            a.users = 0;
+        }
+        else {
+            closeZip(a.zip);
+            open--;
+        }
+        a.zip = null;
+    }
+
+    protected static void closeZip(ZipFile zip) {
+        try {
+            zip.close();
+        }
+        catch (IOException e) {
+            // The archive is no longer used.
+        }
+    }
+
+    /**
+     * Drop the archives that were modified, created, or deleted since they
+     * were read.
+     */
+    public synchronized void refresh() {
+        for (Iterator<Map.Entry<File, Archive>> i =
+                archives.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<File, Archive> e = i.next();
+            Archive a = e.getValue();
+            File f = e.getKey();
+            if (a.exists != f.exists() || a.stamp != f.lastModified()) {
+                close(a);
+                i.remove();
+                packages.remove(f);
+            }
+        }
+    }
+
+    /**
+     * Close all open archives and empty the cache.  The archives in use are
+     * closed when they are released.
+     */
+    public synchronized void close() {
+        for (Archive a : archives.values()) {
+            close(a);
+        }
+        archives.clear();
+        packages.clear();
+    }
+
+    /** The number of lookups answered from the cache. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** The number of lookups that had to open an archive. */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** The number of archives closed to make room for others. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /** The number of archives currently open. */
+    public synchronized int openArchives() {
+        return open;
+    }
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.filemanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * A class file in an archive, read through an {@link ArchiveCache}.
+ */
+public class ArchiveEntryFileObject extends SimpleJavaFileObject {
+    protected final ArchiveCache archives;
+    protected final File archive;
+    protected final String entryName;
+    protected final URI uri;
+
+    public ArchiveEntryFileObject(ArchiveCache archives, File archive,
+            String entryName) {
+        // SimpleJavaFileObject requires a hierarchical URI, which a jar URI
+        // is not.
+        super(new File(archive, entryName).toURI(), Kind.CLASS);
+        this.archives = archives;
+        this.archive = archive;
+        this.entryName = entryName;
+        this.uri = URI.create("jar:" + archive.toURI() + "!/" + entryName);
+    }
+
+    @Override
+    public URI toUri() {
+        return uri;
+    }
+
+    @Override
+    public String getName() {
+        return archive.getPath() + "(" + entryName + ")";
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+        byte[] b = archives.read(archive, entryName);
+        if (b == null) throw new FileNotFoundException(getName());
+        return new ByteArrayInputStream(b);
+    }
+
+    @Override
+    public long getLastModified() {
+        return archive.lastModified();
+    }
+}
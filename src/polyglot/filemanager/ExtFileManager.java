@@ -33,16 +33,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
 import java.util.Collection;
-import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
@@ -75,13 +73,13 @@ public class ExtFileManager extends
     /** Map of sources already loaded */
     protected final Map<String, FileSource> loadedSources;
     /** A cache for package look ups */
-    protected static final Map<String, Boolean> packageCache = new HashMap<>();
+    protected final Map<String, Boolean> packageCache;
     /** A cache for the class files that don't exist */
-    protected static final Set<String> nocache = new HashSet<>();
-
-    protected static final Map<File, Object> zipCache = new HashMap<>();
-
-    protected static final Object not_found = new Object();
+    protected final Set<String> nocache;
+    /** The archives on the class path */
+    protected final ArchiveCache archives;
+    /** Whether this file manager created, and hence closes, {@code archives} */
+    protected final boolean ownsArchives;
 
     protected static final int BUF_SIZE = 1024 * 8;
 
@@ -116,25 +114,60 @@ public class ExtFileManager extends
      */
     protected final boolean inMemory;
 
-    protected static List<Location> default_locations;
+    protected final List<Location> default_locations;
 
     public ExtFileManager(ExtensionInfo extInfo) {
+        this(extInfo, null);
+    }
+
+    /**
+     * Create a file manager reading archives through {@code archives}, which
+     * stays owned by the caller, or through a cache of its own if
+     * {@code archives} is null.
+     */
+    public ExtFileManager(ExtensionInfo extInfo, ArchiveCache archives) {
         super(javaCompiler.getStandardFileManager(null, null, null));
         this.extInfo = extInfo;
-        loadedSources = new HashMap<>();
-        objectMap = new HashMap<>();
+        loadedSources = new ConcurrentHashMap<>();
+        objectMap = new ConcurrentHashMap<>();
+        packageCache = new ConcurrentHashMap<>();
+        nocache =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        ownsArchives = archives == null;
+        this.archives = ownsArchives ? createArchiveCache() : archives;
         inMemory = extInfo.getOptions().noOutputToFS;
-        List<Location> defaultLocations = extInfo.defaultLocations();
-        if (!defaultLocations.equals(default_locations)) {
-            default_locations = defaultLocations;
-            clearCache();
-        }
+        default_locations = extInfo.defaultLocations();
     }
 
+    /**
+     * Return the cache of archives owned by this file manager, closed when
+     * the file manager is.
+     */
+    protected ArchiveCache createArchiveCache() {
+        return new ArchiveCache(ArchiveCache.DEFAULT_MAX_OPEN);
+    }
+
+    /** Discard the cached lookups of this file manager. */
     protected void clearCache() {
         packageCache.clear();
         nocache.clear();
-        zipCache.clear();
+    }
+
+    /**
+     * Release the resources held by this file manager, and close its archive
+     * cache if it owns it.  An archive cache passed in by the caller stays
+     * open for later compilations; files kept in memory remain available.
+     */
+    @Override
+    public void close() throws IOException {
+        if (Report.should_report(verbose, 1))
+            Report.report(1, "Archive cache: " + archives.hits() + " hits, "
+                    + archives.misses() + " misses, " + archives.evictions()
+                    + " evictions, " + archives.openArchives() + " open");
+        clearCache();
+        loadedSources.clear();
+        if (ownsArchives) archives.close();
+        super.close();
     }
 
     @Override
@@ -182,8 +215,10 @@ public class ExtFileManager extends
                     new ExtFileObject(src, kindFromExtension(relativeName));
             Map<String, JavaFileObject> locMap = objectMap.get(location);
             if (locMap == null) {
-                locMap = new HashMap<>();
-                objectMap.put(location, locMap);
+                locMap = new ConcurrentHashMap<>();
+                Map<String, JavaFileObject> old =
+                        objectMap.putIfAbsent(location, locMap);
+                if (old != null) locMap = old;
             }
             locMap.put(key, jfo);
             return jfo;
@@ -288,7 +323,8 @@ public class ExtFileManager extends
 
     @Override
     public boolean packageExists(String name) {
-        if (packageCache.containsKey(name)) return packageCache.get(name);
+        Boolean cached = packageCache.get(name);
+        if (cached != null) return cached;
         boolean exists = false;
         for (int i = default_locations.size() - 1; !exists && i >= 0; i--)
             exists = packageExists(default_locations.get(i), name);
@@ -298,50 +334,6 @@ public class ExtFileManager extends
         return exists;
     }
 
-    protected static ZipFile loadZip(File dir) throws IOException {
-        Object o = zipCache.get(dir);
-        if (o != not_found) {
-            ZipFile zip = (ZipFile) o;
-            if (zip != null) {
-                return zip;
-            }
-            else {
-                // the zip is not in the cache.
-                // try to get it.
-                if (!dir.exists()) {
-                    // record that the file does not exist,
-                    zipCache.put(dir, not_found);
-                }
-                else {
-                    // get the zip and put it in the cache.
-                    if (Report.should_report(verbose, 2))
-                        Report.report(2, "Opening zip " + dir);
-                    if (dir.getName().endsWith(".jar")) {
-                        zip = new JarFile(dir);
-                    }
-                    else {
-                        zip = new ZipFile(dir);
-                    }
-                    zipCache.put(dir, zip);
-
-                    // Load the package cache
-                    Enumeration<? extends ZipEntry> i = zip.entries();
-                    while (i.hasMoreElements()) {
-                        ZipEntry ei = i.nextElement();
-                        String n = ei.getName();
-                        int index = n.indexOf('/');
-                        while (index >= 0) {
-                            packageCache.put(n.substring(0, index), true);
-                            index = n.indexOf('/', index + 1);
-                        }
-                    }
-                    return zip;
-                }
-            }
-        }
-        return null;
-    }
-
     @Override
     public boolean packageExists(Location location, String name) {
         Iterable<? extends File> files = getLocation(location);
@@ -351,13 +343,11 @@ public class ExtFileManager extends
             if (fileName.endsWith(".jar") || fileName.endsWith(".zip")) {
                 String entryName = name.replace('.', '/');
                 try {
-                    loadZip(f);
+                    if (archives.containsPackage(f, entryName)) return true;
                 }
                 catch (IOException e) {
                     throw new InternalCompilerError(e);
                 }
-                Boolean contains = packageCache.get(entryName);
-                if (contains != null && contains) return true;
             }
             else {
                 String filePath = name.replace('.', File.separatorChar);
@@ -399,13 +389,31 @@ public class ExtFileManager extends
 
         try {
             JavaFileObject jfo = null;
-            try {
-                jfo = getJavaFileForInput(location, name, Kind.CLASS);
+            byte[] code = null;
+            Iterable<? extends File> path =
+                    inMemory || caseInsensitive() ? null
+                            : getLocation(location);
+            if (path != null) {
+                String entryName =
+                        name.replace('.', '/') + Kind.CLASS.extension;
+                for (File f : path) {
+                    code = readClassFile(f, entryName);
+                    if (code != null) {
+                        jfo = classFileObject(f, entryName);
+                        break;
+                    }
+                }
             }
-            catch (IOException e) {
-                throw new InternalCompilerError("Error while checking for class file "
-                                                        + name,
-                                                e);
+            else {
+                try {
+                    jfo = getJavaFileForInput(location, name, Kind.CLASS);
+                }
+                catch (IOException e) {
+                    throw new InternalCompilerError("Error while checking for class file "
+                                                            + name,
+                                                    e);
+                }
+                if (jfo != null) code = getBytes(jfo);
             }
             if (jfo != null) {
                 if (Report.should_report(report_topics, 4)) {
@@ -421,7 +429,7 @@ public class ExtFileManager extends
             }
 
             if (jfo != null) {
-                return extInfo.createClassFile(jfo, getBytes(jfo));
+                return extInfo.createClassFile(jfo, code);
             }
         }
         catch (ClassFormatError e) {
@@ -435,6 +443,37 @@ public class ExtFileManager extends
         return null;
     }
 
+    /**
+     * Read the class file {@code entryName}, a '/'-separated relative file
+     * name, from the class path entry {@code f}, which is a directory or an
+     * archive.  Return null if {@code f} has no such file.
+     */
+    protected byte[] readClassFile(File f, String entryName)
+            throws IOException {
+        String fileName = f.getName();
+        if (fileName.endsWith(".jar") || fileName.endsWith(".zip")) {
+            return archives.read(f, entryName);
+        }
+
+        File file = new File(f, entryName.replace('/', separatorChar));
+        if (!file.isFile()) return null;
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Return a file object for the class file {@code entryName} of the class
+     * path entry {@code f}.
+     */
+    protected JavaFileObject classFileObject(File f, String entryName) {
+        String fileName = f.getName();
+        if (fileName.endsWith(".jar") || fileName.endsWith(".zip")) {
+            return new ArchiveEntryFileObject(archives, f, entryName);
+        }
+
+        File file = new File(f, entryName.replace('/', separatorChar));
+        return fileManager.getJavaFileObjects(file).iterator().next();
+    }
+
     @Override
     public FileSource fileSource(String fileName) throws IOException {
         return fileSource(extInfo.getOptions().source_path,
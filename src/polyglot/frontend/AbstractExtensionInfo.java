@@ -39,6 +39,7 @@ import javax.tools.StandardLocation;
 
 import polyglot.ast.Node;
 import polyglot.ast.NodeFactory;
+import polyglot.filemanager.ArchiveCache;
 import polyglot.filemanager.ExtFileManager;
 import polyglot.filemanager.FileManager;
 import polyglot.frontend.Source.Kind;
@@ -67,6 +68,8 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
     protected Stats stats;
     protected Scheduler scheduler;
     protected FileManager extFM;
+    /** The archive cache passed to the file manager, or null for its own. */
+    protected ArchiveCache archiveCache;
     protected ClassFileLoader classFileLoader;
     protected List<Location> default_locations;
 
@@ -248,8 +251,19 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
         return extFM;
     }
 
+    /**
+     * Make the file manager read archives through {@code archives}, which
+     * stays owned by the caller, instead of a cache of its own.  Must be
+     * called before the file manager is created.
+     */
+    public void setArchiveCache(ArchiveCache archives) {
+        if (extFM != null)
+            throw new InternalCompilerError("The file manager already exists.");
+        archiveCache = archives;
+    }
+
     protected FileManager createFileManager() {
-        return new ExtFileManager(this);
+        return new ExtFileManager(this, archiveCache);
     }
 
     protected void configureFileManager() throws IOException {
@@ -317,6 +331,24 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
         ts = null;
     }
 
+    /**
+     * Forget the compiler, options, scheduler and file manager of the last
+     * compilation, so that this extension can run another compilation with
+     * new options.  The type system and node factory are kept, and so are
+     * the types the type system has loaded; the system resolver is replaced
+     * when the next compiler is initialized.
+     */
+    public void reset() {
+        compiler = null;
+        options = null;
+        target_factory = null;
+        stats = null;
+        scheduler = null;
+        extFM = null;
+        classFileLoader = null;
+        default_locations = null;
+    }
+
     @Override
     public List<Location> defaultLocations() {
         if (default_locations == null) {
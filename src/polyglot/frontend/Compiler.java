@@ -26,20 +26,26 @@
 
 package polyglot.frontend;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.tools.JavaFileObject;
 
+import polyglot.ast.SourceFile;
+import polyglot.ast.TopLevelDecl;
 import polyglot.frontend.Source.Kind;
 import polyglot.frontend.goals.Goal;
 import polyglot.main.Options;
+import polyglot.main.PostCompilerPipeline;
 import polyglot.types.reflect.ClassFileLoader;
 import polyglot.util.CodeWriter;
 import polyglot.util.ErrorInfo;
@@ -82,6 +88,18 @@ public class Compiler {
      */
     private List<Job> jobs = new ArrayList<>();
 
+    /**
+     * The index used to find out-of-date sources, or null if every source is
+     * compiled.
+     */
+    private DependencyIndex dependencyIndex;
+
+    /**
+     * The pipeline that compiles output files as they are written, or null if
+     * the output files are compiled after translation.
+     */
+    private PostCompilerPipeline postCompilerPipeline;
+
     /**
      * Initialize the compiler.
      *
@@ -110,11 +128,34 @@ public class Compiler {
         extensionInfo.initCompiler(this);
     }
 
+    /**
+     * Return the dependency index used for incremental compilation, or null if
+     * incremental compilation is not enabled.
+     */
+    public DependencyIndex dependencyIndex() {
+        return dependencyIndex;
+    }
+
     /** Return a set of output filenames resulting from a compilation. */
     public Collection<JavaFileObject> outputFiles() {
         return outputFiles;
     }
 
+    /** Set the pipeline that compiles output files as they are written. */
+    public void setPostCompilerPipeline(PostCompilerPipeline pipeline) {
+        postCompilerPipeline = pipeline;
+    }
+
+    /**
+     * Record that the output file {@code f}, one of {@code outputFiles()},
+     * has been completely written.
+     */
+    public void outputWritten(JavaFileObject f) {
+        if (postCompilerPipeline != null) {
+            postCompilerPipeline.outputWritten(f);
+        }
+    }
+
     /**
      * Compile all the files listed in the set of strings {@code source}.
      * Return true on success. The method {@code outputFiles} can be
@@ -212,6 +253,59 @@ public class Compiler {
         Goal getGoal(Job job);
     }
 
+    /**
+     * Parse the jobs for the new and changed sources to find the top-level
+     * names they declare, and add jobs for the sources in {@code sources}
+     * that must be compiled again because of those names.  Return false if
+     * parsing failed.
+     */
+    private boolean addDependents(Collection<? extends Source> sources,
+            GoalFactory goalFactory) {
+        // Nothing more to add if every source is compiled already.
+        if (jobs.size() == sources.size()) {
+            return true;
+        }
+
+        Scheduler scheduler = sourceExtension().scheduler();
+
+        List<Job> changed = new ArrayList<>();
+        for (Job job : jobs) {
+            if (dependencyIndex.isChanged(job.source())) {
+                changed.add(job);
+            }
+        }
+
+        if (!scheduler.parseAhead(changed)) {
+            return false;
+        }
+
+        Set<String> names = new HashSet<>();
+        for (Job job : changed) {
+            if (!(job.ast() instanceof SourceFile)) {
+                // Without a source file, the declared names are unknown.
+                names = null;
+                break;
+            }
+
+            SourceFile sf = (SourceFile) job.ast();
+            String pkg = "";
+            if (sf.package_() != null) {
+                pkg = sf.package_().package_().fullName() + ".";
+            }
+            for (TopLevelDecl decl : sf.decls()) {
+                names.add(pkg + decl.name());
+            }
+        }
+
+        for (Source source : dependencyIndex.dependents(sources, names)) {
+            Job job = scheduler.addJob(source);
+            jobs.add(job);
+            scheduler.addGoal(goalFactory.getGoal(job));
+        }
+
+        return true;
+    }
+
     private boolean runToGoal(Collection<? extends Source> sources,
             GoalFactory goalFactory) {
         boolean okay = false;
@@ -220,6 +314,31 @@ public class Compiler {
             try {
                 Scheduler scheduler = sourceExtension().scheduler();
 
+                // With a dependency index, compile only the sources that are
+                // out of date.
+                Collection<? extends Source> allSources = sources;
+                Options options = extensionInfo.getOptions();
+                File indexFile = options.dependency_index;
+                if (indexFile != null) {
+                    List<File> classpath = new ArrayList<>();
+                    classpath.addAll(options.bootclasspathDirectories());
+                    classpath.addAll(options.classpathDirectories());
+                    List<File> outputs = new ArrayList<>();
+                    outputs.add(options.classOutputDirectory());
+                    outputs.add(options.sourceOutputDirectory());
+                    dependencyIndex =
+                            new DependencyIndex(indexFile, classpath, outputs);
+                    try {
+                        dependencyIndex.load();
+                        sources = dependencyIndex.outOfDate(sources);
+                    }
+                    catch (IOException e) {
+                        eq.enqueue(ErrorInfo.IO_ERROR, e.getMessage());
+                        eq.flush();
+                        return false;
+                    }
+                }
+
                 // First, create a goal to compile every source file.
                 for (Source source : sources) {
                     // Add a new SourceJob for the given source. If a Job for the source
@@ -231,10 +350,34 @@ public class Compiler {
                     scheduler.addGoal(goalFactory.getGoal(job));
                 }
 
+                // Parse the new and changed files first to find the names
+                // they declare, and compile the files that looked up those
+                // names too.
+                okay = dependencyIndex == null
+                        || addDependents(allSources, goalFactory);
+
                 scheduler.setCommandLineJobs(jobs);
 
+                // Parse all the files up front if asked to; the goals
+                // below will then find their ASTs already in place.  Stop
+                // if any of them failed to parse.
+                okay = okay
+                        && (!options.parse_ahead || scheduler.parseAhead(jobs));
+
                 // Then, compile the files to completion.
-                okay = scheduler.runToCompletion();
+                okay = okay && scheduler.runToCompletion();
+
+                if (okay && dependencyIndex != null) {
+                    try {
+                        dependencyIndex.save();
+                    }
+                    catch (IOException e) {
+                        eq.enqueue(ErrorInfo.WARNING,
+                                   "Could not write dependency index "
+                                           + dependencyIndex.file() + ": "
+                                           + e.getMessage());
+                    }
+                }
             }
             catch (InternalCompilerError e) {
                 // Report it like other errors, but rethrow to get the stack trace.
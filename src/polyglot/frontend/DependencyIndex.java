@@ -0,0 +1,485 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.frontend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import polyglot.main.Report;
+import polyglot.util.InternalCompilerError;
+import polyglot.util.StringUtil;
+
+/**
+ * An on-disk index used for incremental compilation.  For each source file
+ * compiled, the index records a hash of the file contents, the names of the
+ * types the file declares, and the names the file looked up in the type
+ * system while it was compiled: every type lookup through the system
+ * resolver, which also serves as the parsed resolver and resolves imports,
+ * whether or not a type was found, and every lookup of a package that did
+ * not exist.  The index also records a stamp of each classpath entry.
+ *
+ * On the next compilation, a source file is out of date if its contents
+ * changed, or if it looked up a name declared by a file that is out of date
+ * or no longer exists.  New and changed files may declare names that other
+ * files looked up elsewhere or did not find; once they are parsed, the
+ * compiler passes those names to {@link #dependents(Collection, Collection)}
+ * to find the files that must be compiled again because of them.  If the
+ * classpath changed, every file is out of date.  Only out-of-date files
+ * need to be compiled again; the types of the others are loaded from their
+ * class files or sources as usual.
+ */
+public class DependencyIndex {
+    protected static final String CLASSPATH = "C";
+    protected static final String SOURCE = "S";
+    protected static final String DECLARES = "D";
+    protected static final String USES = "U";
+
+    /** Information recorded for one source file. */
+    protected static class Entry {
+        protected String hash;
+        protected Set<String> declared = new TreeSet<>();
+        protected Set<String> used = new TreeSet<>();
+
+        protected Entry(String hash) {
+            this.hash = hash;
+        }
+    }
+
+    protected File file;
+
+    /** The classpath entries to stamp. */
+    protected List<File> classpath;
+
+    /** Directories whose class files are not stamped. */
+    protected Set<File> excluded;
+
+    /** Stamps of the classpath entries read from the index file. */
+    protected Map<String, String> stamps = new LinkedHashMap<>();
+
+    /** Entries read from the index file, keyed by source path. */
+    protected Map<String, Entry> entries = new TreeMap<>();
+
+    /** Entries for the sources compiled in this run, keyed by source path. */
+    protected Map<String, Entry> compiled = new HashMap<>();
+
+    /** Hashes of the sources given to {@link #outOfDate(Collection)}. */
+    protected Map<String, String> hashes = new HashMap<>();
+
+    /** Paths of the sources that are new or changed. */
+    protected Set<String> changed = new HashSet<>();
+
+    /** Paths of the sources that are out of date. */
+    protected Set<String> stale = new HashSet<>();
+
+    /** Names declared by sources that are out of date or removed. */
+    protected Set<String> staleNames = new HashSet<>();
+
+    /**
+     * Create an index stored in {@code file}.  Class files in the
+     * directories {@code excluded}, typically the output directories of the
+     * compilation, are not stamped, since compiling changes them.
+     */
+    public DependencyIndex(File file, List<File> classpath,
+            Collection<File> excluded) {
+        this.file = file;
+        this.classpath = classpath;
+        this.excluded = new HashSet<>();
+        for (File f : excluded) {
+            this.excluded.add(f.getAbsoluteFile());
+        }
+    }
+
+    /** The file this index is stored in. */
+    public File file() {
+        return file;
+    }
+
+    /**
+     * Read the index from its file.  A missing file yields an empty index,
+     * so every source is out of date.
+     */
+    public void load() throws IOException {
+        stamps.clear();
+        entries.clear();
+
+        if (!file.exists()) return;
+
+        try (BufferedReader r =
+                new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                                                         "UTF-8"))) {
+            Entry entry = null;
+            String line;
+            while ((line = r.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) continue;
+                String kind = line.substring(0, tab);
+                String rest = line.substring(tab + 1);
+
+                if (kind.equals(CLASSPATH) || kind.equals(SOURCE)) {
+                    int tab2 = rest.lastIndexOf('\t');
+                    if (tab2 < 0) {
+                        throw new IOException("Malformed dependency index "
+                                + file);
+                    }
+                    String key = rest.substring(0, tab2);
+                    String value = rest.substring(tab2 + 1);
+                    if (kind.equals(CLASSPATH)) {
+                        stamps.put(key, value);
+                    }
+                    else {
+                        entry = new Entry(value);
+                        entries.put(key, entry);
+                    }
+                }
+                else if (entry == null) {
+                    throw new IOException("Malformed dependency index " + file);
+                }
+                else if (kind.equals(DECLARES)) {
+                    entry.declared.add(rest);
+                }
+                else if (kind.equals(USES)) {
+                    entry.used.add(rest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the index to its file, replacing the entries of the sources
+     * compiled in this run.
+     */
+    public void save() throws IOException {
+        synchronized (this) {
+            entries.putAll(compiled);
+            compiled.clear();
+        }
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+
+        try (Writer w =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                                                          "UTF-8"))) {
+            for (Map.Entry<String, String> e : classpathStamps().entrySet()) {
+                w.write(CLASSPATH + "\t" + e.getKey() + "\t" + e.getValue()
+                        + "\n");
+            }
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                w.write(SOURCE + "\t" + e.getKey() + "\t" + entry.hash + "\n");
+                for (String name : entry.declared) {
+                    w.write(DECLARES + "\t" + name + "\n");
+                }
+                for (String name : entry.used) {
+                    w.write(USES + "\t" + name + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the sources in {@code sources} that must be compiled: those that
+     * are new or changed, and those that depend, directly or transitively, on
+     * a changed or removed source.  If the classpath changed, all of
+     * {@code sources} must be compiled.
+     */
+    public <S extends Source> List<S> outOfDate(Collection<S> sources)
+            throws IOException {
+        if (!entries.isEmpty() && !stamps.equals(classpathStamps())) {
+            if (Report.should_report(Report.frontend, 1))
+                Report.report(1, "The classpath changed; compiling every"
+                        + " source file");
+            entries.clear();
+        }
+
+        for (Source source : sources) {
+            String hash = hash(source);
+            hashes.put(source.path(), hash);
+            synchronized (this) {
+                compiled.put(source.path(), new Entry(hash));
+            }
+        }
+
+        // Find the sources that are new, changed, or went away, and the
+        // names they declared.
+        for (Source source : sources) {
+            if (!entries.containsKey(source.path())) {
+                changed.add(source.path());
+            }
+        }
+        for (Iterator<Map.Entry<String, Entry>> i =
+                entries.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, Entry> e = i.next();
+            String path = e.getKey();
+            String hash = hashes.get(path);
+            if (hash == null && !new File(path).exists()) {
+                staleNames.addAll(e.getValue().declared);
+                i.remove();
+            }
+            else if (hash != null && !hash.equals(e.getValue().hash)) {
+                changed.add(path);
+                stale.add(path);
+                staleNames.addAll(e.getValue().declared);
+            }
+        }
+
+        propagate(Collections.<String> emptySet());
+
+        List<S> result = new ArrayList<>();
+        for (S source : sources) {
+            String path = source.path();
+            if (changed.contains(path) || stale.contains(path)) {
+                result.add(source);
+            }
+            else {
+                // The source is not compiled in this run; keep its entry.
+                synchronized (this) {
+                    compiled.remove(path);
+                }
+            }
+        }
+
+        if (Report.should_report(Report.frontend, 1))
+            Report.report(1, result.size() + " of " + sources.size()
+                    + " source files are out of date");
+
+        return result;
+    }
+
+    /**
+     * Return true if {@code source}, one of the sources given to
+     * {@link #outOfDate(Collection)}, is new or changed.
+     */
+    public boolean isChanged(Source source) {
+        return changed.contains(source.path());
+    }
+
+    /**
+     * Return the sources in {@code sources} not yet out of date that must be
+     * compiled because new or changed sources declare {@code names}: those
+     * that looked up one of the names, or a package containing one of them
+     * that did not exist, and those that depend on them in turn.  If
+     * {@code names} is null, the names are unknown, and every source not yet
+     * out of date is returned.
+     */
+    public <S extends Source> List<S> dependents(Collection<S> sources,
+            Collection<String> names) {
+        Set<String> packages = new HashSet<>();
+        if (names != null) {
+            staleNames.addAll(names);
+            for (String name : names) {
+                String p = StringUtil.getPackageComponent(name);
+                while (!p.equals("")) {
+                    packages.add(p);
+                    p = StringUtil.getPackageComponent(p);
+                }
+            }
+        }
+        else {
+            stale.addAll(entries.keySet());
+        }
+
+        propagate(packages);
+
+        List<S> result = new ArrayList<>();
+        for (S source : sources) {
+            String path = source.path();
+            if (stale.contains(path) && !compiledInThisRun(path)) {
+                result.add(source);
+                synchronized (this) {
+                    compiled.put(path, new Entry(hashes.get(path)));
+                }
+            }
+        }
+
+        if (Report.should_report(Report.frontend, 1) && !result.isEmpty())
+            Report.report(1, result.size()
+                    + " more source files depend on names declared by new"
+                    + " or changed source files");
+
+        return result;
+    }
+
+    protected synchronized boolean compiledInThisRun(String path) {
+        return compiled.containsKey(path);
+    }
+
+    /**
+     * Propagate staleness to the sources that used a stale name, or one of
+     * the packages {@code packages}, until nothing changes.
+     */
+    protected void propagate(Set<String> packages) {
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (stale.contains(e.getKey())) continue;
+                Entry entry = e.getValue();
+                if (usesAny(entry, staleNames)
+                        || !Collections.disjoint(entry.used, packages)) {
+                    stale.add(e.getKey());
+                    staleNames.addAll(entry.declared);
+                    more = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if {@code entry} used one of {@code names}, or a member of
+     * one of them.
+     */
+    protected boolean usesAny(Entry entry, Set<String> names) {
+        for (String name : entry.used) {
+            for (String prefix = name; prefix != null; prefix =
+                    outerName(prefix)) {
+                if (names.contains(prefix)) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Strip the last component of a qualified name, or return null. */
+    protected static String outerName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? null : name.substring(0, dot);
+    }
+
+    /** Record that {@code source}, being compiled, looked up {@code name}. */
+    public synchronized void addUse(Source source, String name) {
+        Entry entry = compiled.get(source.path());
+        if (entry != null) entry.used.add(name);
+    }
+
+    /** Record that {@code source}, being compiled, declares {@code name}. */
+    public synchronized void addDeclaration(Source source, String name) {
+        Entry entry = compiled.get(source.path());
+        if (entry != null) entry.declared.add(name);
+    }
+
+    /** Return a hash of the contents of {@code source}. */
+    protected String hash(Source source) throws IOException {
+        MessageDigest md = digest();
+        byte[] buf = new byte[8192];
+        try (InputStream in = source.openInputStream()) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        }
+        return hex(md.digest());
+    }
+
+    /** Return the stamps of the classpath entries, keyed by path. */
+    protected Map<String, String> classpathStamps() {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (File f : classpath) {
+            result.put(f.getPath(), stamp(f));
+        }
+        return result;
+    }
+
+    /**
+     * Return a stamp of the classpath entry {@code f} that changes when the
+     * entry does: the size and modification time of an archive, or a hash of
+     * the names, sizes, and modification times of the class files in a
+     * directory.
+     */
+    protected String stamp(File f) {
+        if (f.isDirectory()) {
+            MessageDigest md = digest();
+            stamp(f.getAbsoluteFile(), "", md);
+            return hex(md.digest());
+        }
+        if (f.exists()) {
+            return f.length() + ":" + f.lastModified();
+        }
+        return "-";
+    }
+
+    protected void stamp(File dir, String prefix, MessageDigest md) {
+        if (excluded.contains(dir)) return;
+
+        String[] names = dir.list();
+        if (names == null) return;
+        Arrays.sort(names);
+
+        for (String name : names) {
+            File f = new File(dir, name);
+            if (f.isDirectory()) {
+                stamp(f, prefix + name + "/", md);
+            }
+            else if (name.endsWith(".class")) {
+                String s =
+                        prefix + name + "\t" + f.length() + "\t"
+                                + f.lastModified() + "\n";
+                md.update(s.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    protected static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new InternalCompilerError(e);
+        }
+    }
+
+    protected static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
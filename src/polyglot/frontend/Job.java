@@ -28,6 +28,7 @@ package polyglot.frontend;
 
 import polyglot.ast.Node;
 import polyglot.util.CodeWriter;
+import polyglot.visit.CFGCache;
 
 /**
  * A {@code Job} encapsulates work done by the compiler for a single
@@ -62,6 +63,9 @@ public class Job {
     /** The {@code Source} that this {@code Job} represents. */
     protected Source source;
 
+    /** Control-flow graphs built for the code of this job, or null. */
+    protected CFGCache cfgCache;
+
     /**
      * Global constant representing a job that has been completed.
      */
@@ -118,9 +122,16 @@ public class Job {
 
     /** Set the state's AST. */
     public void ast(Node ast) {
+        if (ast != this.ast && cfgCache != null) cfgCache.astChanged();
         this.ast = ast;
     }
 
+    /** The cache of control-flow graphs built for the code of this job. */
+    public CFGCache cfgCache() {
+        if (cfgCache == null) cfgCache = new CFGCache();
+        return cfgCache;
+    }
+
     /** True if some pass reported an error. */
     public boolean reportedErrors() {
         return reportedErrors;
@@ -36,6 +36,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import polyglot.ast.Lang;
 import polyglot.ast.Node;
@@ -74,6 +80,16 @@ import polyglot.util.StringUtil;
  * on this run so that it will be added back to the worklist; the pass
  * must also add any missing dependencies.
  *
+ * If more than one thread is requested with the {@code -threads} option,
+ * goals whose passes may run concurrently (see
+ * {@link Goal#runsConcurrently()}) are not run as soon as they are found
+ * ready.  Instead, they are collected while sweeping the worklist and then
+ * run as a batch on a pool of worker threads, at most one goal per job at a
+ * time.  All other goals are run on the thread that called
+ * {@code runToCompletion}.  The {@code -parseahead} option also parses
+ * all the command-line files on the worker threads before any other goal
+ * is attempted; see {@link #parseAhead(Collection)}.
+ *
  * @author nystrom
  */
 public abstract class Scheduler {
@@ -105,8 +121,26 @@ public abstract class Scheduler {
     /** True if any pass has failed. */
     protected boolean failed;
 
-    /** The currently running pass, or null if no pass is running. */
-    protected Pass currentPass;
+    /**
+     * The pass currently running on each thread, or null if no pass is
+     * running on that thread.
+     */
+    protected ThreadLocal<Pass> currentPass;
+
+    /**
+     * Goals found ready during the current sweep of the worklist whose passes
+     * will be run on the worker threads.
+     */
+    protected Set<Goal> deferred;
+
+    /**
+     * Goals found waiting on a deferred goal during the current sweep.  They
+     * are not attempted again until the deferred goals have been run.
+     */
+    protected Set<Goal> blocked;
+
+    /** The worker threads, or null if they have not been started. */
+    protected ExecutorService workers;
 
     public Scheduler(ExtensionInfo extInfo) {
         this.extInfo = extInfo;
@@ -116,7 +150,9 @@ public abstract class Scheduler {
         runCount = new LinkedHashMap<>();
         inWorklist = new LinkedHashSet<>();
         worklist = new LinkedList<>();
-        currentPass = null;
+        currentPass = new ThreadLocal<>();
+        deferred = new LinkedHashSet<>();
+        blocked = new HashSet<>();
     }
 
     public Collection<Job> commandLineJobs() {
@@ -327,8 +363,20 @@ public abstract class Scheduler {
 
         boolean okay = true;
 
-        while (okay && !reached(theEnd)) {
-            okay = attemptGoal(theEnd);
+        try {
+            while (okay && !reached(theEnd)) {
+                blocked.clear();
+                okay = attemptGoal(theEnd);
+
+                if (okay && !deferred.isEmpty()) {
+                    okay = runDeferredGoals();
+                }
+            }
+        }
+        finally {
+            deferred.clear();
+            blocked.clear();
+            shutdownWorkers();
         }
 
         if (Report.should_report(Report.frontend, 1))
@@ -339,6 +387,41 @@ public abstract class Scheduler {
         return okay;
     }
 
+    /**
+     * Parse the sources of {@code jobs} on the worker threads, storing each
+     * AST in its job and marking its {@code Parsed} goal reached.  This is
+     * used by the {@code -parseahead} option to parse all the command-line
+     * files before the rest of the goal graph is attempted.
+     *
+     * @return false if any of the files failed to parse.
+     */
+    public boolean parseAhead(Collection<Job> jobs) {
+        Set<Goal> goals = new LinkedHashSet<>();
+        for (Job job : jobs) {
+            if (job == null) continue;
+            Goal goal = Parsed(job);
+            if (!reached(goal)) {
+                goals.add(goal);
+            }
+        }
+
+        if (goals.isEmpty()) return true;
+
+        if (Report.should_report(Report.frontend, 2))
+            Report.report(2, "Parsing " + goals.size()
+                    + " files on worker threads");
+
+        boolean okay = false;
+        try {
+            okay = runGoals(new ArrayList<>(goals));
+            return okay;
+        }
+        finally {
+            // runToCompletion will not be called if parsing failed.
+            if (!okay) shutdownWorkers();
+        }
+    }
+
     /**
      * Load a source file and create a job for it.  Optionally add a goal
      * to compile the job to Java.
@@ -376,15 +459,138 @@ public abstract class Scheduler {
     }
 
     public Job currentJob() {
-        return currentPass != null ? currentPass.goal().job() : null;
+        Pass pass = currentPass.get();
+        return pass != null ? pass.goal().job() : null;
     }
 
     public Pass currentPass() {
-        return currentPass;
+        return currentPass.get();
     }
 
     public Goal currentGoal() {
-        return currentPass != null ? currentPass.goal() : null;
+        Pass pass = currentPass.get();
+        return pass != null ? pass.goal() : null;
+    }
+
+    /** The number of threads to use for running concurrent goals. */
+    protected int threadCount() {
+        return extInfo.getOptions().thread_count;
+    }
+
+    /**
+     * Return true if {@code goal} should be left for the worker threads
+     * rather than run now.  Only goals found by the scheduler itself are
+     * deferred; goals attempted from within a running pass are run at once.
+     */
+    protected boolean shouldDefer(Goal goal) {
+        return threadCount() > 1 && currentPass.get() == null
+                && goal.job() != null && goal.runsConcurrently();
+    }
+
+    /**
+     * Run the passes of the deferred goals on the worker threads and wait for
+     * them to finish.  Goals of the same job conflict with each other, so only
+     * one goal per job is run; the others are found again on the next sweep.
+     *
+     * @return false if any of the passes failed.
+     */
+    protected boolean runDeferredGoals() {
+        List<Goal> batch = new ArrayList<>(deferred.size());
+        Set<Job> busy = new HashSet<>();
+        for (Goal goal : deferred) {
+            if (busy.add(goal.job())) {
+                batch.add(goal);
+            }
+        }
+        deferred.clear();
+
+        if (Report.should_report(Report.frontend, 2))
+            Report.report(2, "Running " + batch.size()
+                    + " goals on worker threads");
+
+        boolean okay = runGoals(batch);
+
+        for (Goal goal : batch) {
+            if (reached(goal) && goal instanceof EndGoal) {
+                completeJob(goal.job());
+            }
+        }
+
+        return okay;
+    }
+
+    /**
+     * Run the passes of {@code goals}, which must all belong to different
+     * jobs, on the worker threads and wait for them to finish.
+     *
+     * @return false if any of the passes failed.
+     */
+    protected boolean runGoals(List<Goal> goals) {
+        boolean okay = true;
+
+        if (goals.size() == 1) {
+            okay = runGoal(goals.get(0));
+        }
+        else {
+            List<Future<Boolean>> results = new ArrayList<>(goals.size());
+            for (final Goal goal : goals) {
+                results.add(workers().submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return runGoal(goal);
+                    }
+                }));
+            }
+
+            // Wait for every pass to finish before reporting the first
+            // exception, so that no pass is still running when we return.
+            Throwable exception = null;
+            for (Future<Boolean> result : results) {
+                try {
+                    if (!result.get()) {
+                        okay = false;
+                    }
+                }
+                catch (ExecutionException e) {
+                    if (exception == null) exception = e.getCause();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalCompilerError(e);
+                }
+            }
+
+            if (exception instanceof RuntimeException)
+                throw (RuntimeException) exception;
+            if (exception instanceof Error) throw (Error) exception;
+            if (exception != null) throw new InternalCompilerError(exception);
+        }
+
+        return okay;
+    }
+
+    /** Return the worker threads, starting them if needed. */
+    protected ExecutorService workers() {
+        if (workers == null) {
+            ThreadFactory factory = new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "polyglot-worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+            workers = Executors.newFixedThreadPool(threadCount(), factory);
+        }
+        return workers;
+    }
+
+    /** Stop the worker threads, if they were started. */
+    protected void shutdownWorkers() {
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
     }
 
     /**
@@ -423,6 +629,10 @@ public abstract class Scheduler {
             return true;
         }
 
+        if (blocked.contains(goal)) {
+            return true;
+        }
+
         boolean progress = true;
 
         Set<Goal> newAbove = new LinkedHashSet<>();
@@ -465,6 +675,18 @@ public abstract class Scheduler {
             }
 
             if (!runPass) {
+                if (!deferred.isEmpty()) {
+                    blocked.add(goal);
+                }
+                return true;
+            }
+
+            // Leave the goal for the worker threads if it may run
+            // concurrently with goals of other jobs.
+            if (shouldDefer(goal)) {
+                if (Report.should_report(Report.frontend, 4))
+                    Report.report(4, "deferring goal " + goal);
+                deferred.add(goal);
                 return true;
             }
 
@@ -556,10 +778,13 @@ public abstract class Scheduler {
                     + goal);
         }
 
-        Integer countObj = runCount.get(goal);
-        int count = countObj != null ? countObj.intValue() : 0;
-        count++;
-        runCount.put(goal, count);
+        int count;
+        synchronized (runCount) {
+            Integer countObj = runCount.get(goal);
+            count = countObj != null ? countObj.intValue() : 0;
+            count++;
+            runCount.put(goal, count);
+        }
 
         if (count >= maxRunCount()) {
             String[] suffix = new String[] { "th", "st", "nd", "rd" };
@@ -613,8 +838,8 @@ public abstract class Scheduler {
         boolean result = false;
 
         if (job == null || job.status()) {
-            Pass oldPass = currentPass;
-            currentPass = pass;
+            Pass oldPass = currentPass.get();
+            currentPass.set(pass);
             Report.pushTopic(pass.name());
 
             // Stop the timer on the old pass. */
@@ -715,7 +940,7 @@ public abstract class Scheduler {
                 }
 
                 Report.popTopic();
-                currentPass = oldPass;
+                currentPass.set(oldPass);
 
                 // Restart the timer on the old pass. */
                 if (oldPass != null) {
@@ -874,7 +1099,7 @@ public abstract class Scheduler {
      * and its job discarded to release resources, then {@code null}
      * will be returned.
      */
-    public Job addJob(Source source, Node ast) {
+    public synchronized Job addJob(Source source, Node ast) {
         Job job = jobs.get(source);
 
         if (job == Job.COMPLETED) {
@@ -893,7 +1118,7 @@ public abstract class Scheduler {
 
         if (Report.should_report(Report.frontend, 4)) {
             Report.report(4, "Adding job for " + source + " at the "
-                    + "request of pass " + currentPass);
+                    + "request of pass " + currentPass.get());
         }
 
         return job;
@@ -61,12 +61,12 @@ public class Stats {
     }
 
     /** Reset the accumulated times for a pass. */
-    public void resetPassTimes(Object key) {
+    public synchronized void resetPassTimes(Object key) {
         passTimes.remove(key);
     }
 
     /** Return the accumulated times for a pass. */
-    public long passTime(Object key, boolean inclusive) {
+    public synchronized long passTime(Object key, boolean inclusive) {
         Times t = passTimes.get(key);
         if (t == null) {
             return 0;
@@ -76,7 +76,7 @@ public class Stats {
     }
 
     /** Accumulate inclusive and exclusive times for a pass. */
-    public void accumPassTimes(Object key, long in, long ex) {
+    public synchronized void accumPassTimes(Object key, long in, long ex) {
         // don't hold references if we aren't reporting timing.
         if (Report.should_report(Report.time, 1)) {
             Times t = passTimes.get(key);
@@ -91,7 +91,7 @@ public class Stats {
     }
 
     /** Report the stats. */
-    public void report() {
+    public synchronized void report() {
         if (Report.should_report(Report.time, 1)) {
             Report.report(1, "\nStatistics for " + ext.compilerName() + " ("
                     + ext.getClass().getName() + ")");
@@ -78,6 +78,11 @@ public abstract class AbstractGoal implements Goal {
         return job() != null && job() == goal.job();
     }
 
+    @Override
+    public boolean runsConcurrently() {
+        return false;
+    }
+
     /** Creates a pass to attempt to satisfy the goal. */
     @Override
     public abstract Pass createPass(ExtensionInfo extInfo);
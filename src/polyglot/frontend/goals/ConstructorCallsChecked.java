@@ -53,4 +53,9 @@ public class ConstructorCallsChecked extends VisitorGoal {
         l.addAll(super.prerequisiteGoals(scheduler));
         return l;
     }
+
+    @Override
+    public boolean runsConcurrently() {
+        return true;
+    }
 }
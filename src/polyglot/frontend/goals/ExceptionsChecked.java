@@ -54,4 +54,9 @@ public class ExceptionsChecked extends VisitorGoal {
         l.addAll(super.prerequisiteGoals(scheduler));
         return l;
     }
+
+    @Override
+    public boolean runsConcurrently() {
+        return true;
+    }
 }
@@ -53,4 +53,9 @@ public class ForwardReferencesChecked extends VisitorGoal {
         l.addAll(super.prerequisiteGoals(scheduler));
         return l;
     }
+
+    @Override
+    public boolean runsConcurrently() {
+        return true;
+    }
 }
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.frontend.goals;
+
+import java.util.List;
+
+import polyglot.frontend.Job;
+import polyglot.visit.FusedVisitor;
+import polyglot.visit.NodeVisitor;
+
+/**
+ * A goal to run a sequence of compatible visitors over a job in a single
+ * traversal of its AST.
+ *
+ * @see FusedVisitor
+ */
+public class FusedVisitorGoal extends VisitorGoal {
+    public FusedVisitorGoal(Job job, NodeVisitor... visitors) {
+        super(job, new FusedVisitor(visitors));
+    }
+
+    /** The visitors run by this goal, in order. */
+    public List<NodeVisitor> visitors() {
+        return ((FusedVisitor) visitor()).visitors();
+    }
+
+    @Override
+    public int hashCode() {
+        int h = super.hashCode();
+        for (NodeVisitor v : visitors()) {
+            h = 31 * h + v.getClass().hashCode();
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        List<NodeVisitor> l1 = visitors();
+        List<NodeVisitor> l2 = ((FusedVisitorGoal) o).visitors();
+        if (l1.size() != l2.size()) return false;
+        for (int i = 0; i < l1.size(); i++) {
+            if (l1.get(i).getClass() != l2.get(i).getClass()) return false;
+        }
+        return true;
+    }
+}
@@ -60,6 +60,14 @@ public interface Goal {
      */
     public boolean conflictsWith(Goal goal);
 
+    /**
+     * Return true if the pass for this goal may be run on a worker thread,
+     * concurrently with the passes of non-conflicting goals.  Such a pass
+     * should only read shared type information and update the AST of its own
+     * job; it must not attempt other goals.
+     */
+    public boolean runsConcurrently();
+
     /**
      * Create a pass that will attempt to reach the goal. Note that the goal may
      * not be reached even if the pass succeeds. In this case, the scheduler
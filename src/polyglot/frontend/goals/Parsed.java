@@ -48,4 +48,9 @@ public class Parsed extends SourceFileGoal {
     public Pass createPass(ExtensionInfo extInfo) {
         return new ParserPass(extInfo.compiler(), this);
     }
+
+    @Override
+    public boolean runsConcurrently() {
+        return true;
+    }
 }
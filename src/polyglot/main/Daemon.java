@@ -0,0 +1,765 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import polyglot.filemanager.ArchiveCache;
+import polyglot.frontend.AbstractExtensionInfo;
+import polyglot.frontend.Compiler;
+import polyglot.frontend.ExtensionInfo;
+import polyglot.main.Main.TerminationException;
+import polyglot.types.LazyInitializer;
+import polyglot.types.Named;
+import polyglot.types.ParsedClassType;
+import polyglot.types.SystemResolver;
+import polyglot.types.reflect.ClassFileLazyClassInitializer;
+import polyglot.util.ErrorQueue;
+import polyglot.util.Predicate;
+import polyglot.util.StdErrorQueue;
+
+/**
+ * A compiler daemon.  Starting a new JVM for every compilation loses the
+ * classes loaded by the compiler and the JIT-compiled code, and reopens every
+ * archive on the class path.  The daemon stays resident and runs each
+ * compilation it is sent in the same JVM.
+ *
+ * The daemon keeps one {@code ExtensionInfo}, and hence one type system, for
+ * each extension and class path it is asked to compile with.  At the end of
+ * a compilation it keeps a snapshot of the system resolver holding the types
+ * read from class files in archives; types read from source files or class
+ * directories are dropped, since compilations write those, and so are
+ * packages, which a source file may clash with.  The next compilation with the same extension and class path starts
+ * from the snapshot, unless one of the archives the types were read from was
+ * modified since, in which case it starts from a new type system.  The
+ * archives themselves are kept open in the daemon's {@link ArchiveCache}.
+ *
+ * A client connects to the daemon's port on the loopback interface and sends
+ * one request.  All strings are sent as a length followed by their UTF-8
+ * bytes.  A request starts with the token the daemon wrote to its token
+ * file, which only the user running the daemon can read; a request without
+ * it is rejected.  The token is followed by either {@link #STOP}, which
+ * stops the daemon, or {@link #COMPILE} followed by the client's working
+ * directory, the number of command-line arguments, and the arguments.
+ * Relative file names in the arguments, and the default output and source
+ * directories, are resolved against the client's working directory.  The
+ * daemon answers with a sequence of {@link #OUTPUT} frames, holding the
+ * messages of the compilation, and a final {@link #EXIT} frame holding the
+ * exit code.
+ *
+ * Usage: {@code Daemon [-port <num>]} starts a daemon;
+ * {@code Daemon [-port <num>] -- <args>} sends {@code <args>} to a running
+ * daemon, prints its output and exits with the compilation's exit code;
+ * {@code Daemon [-port <num>] -stop} stops a running daemon.
+ */
+public class Daemon {
+    public static final int DEFAULT_PORT = 7087;
+
+    /** Request to compile. */
+    public static final byte COMPILE = 'C';
+    /** Request to stop the daemon. */
+    public static final byte STOP = 'S';
+    /** Response frame holding output of the compilation. */
+    public static final byte OUTPUT = 'O';
+    /** Last response frame, holding the exit code. */
+    public static final byte EXIT = 'X';
+
+    /** Exit code of a request the daemon could not read. */
+    public static final int BAD_REQUEST = 2;
+
+    /** Longest string accepted in a request or a frame. */
+    protected static final int MAX_LENGTH = 1 << 24;
+
+    /** Number of random bytes in a token. */
+    protected static final int TOKEN_BYTES = 32;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Flags whose argument is a single file, in addition to the path flags
+     * recognized by their class.
+     */
+    protected static final Set<String> FILE_FLAGS =
+            new HashSet<>(Arrays.asList("-d", "-D", "-incremental"));
+
+    /** What the daemon keeps between compilations for one key. */
+    protected static class Session {
+        protected final ExtensionInfo ext;
+        /**
+         * The snapshot of the system resolver at the end of the last
+         * compilation, or null.
+         */
+        protected SystemResolver types;
+        /**
+         * The archives the types in {@code types} were read from, with their
+         * modification times.
+         */
+        protected Map<File, Long> archives;
+
+        protected Session(ExtensionInfo ext) {
+            this.ext = ext;
+        }
+    }
+
+    protected ServerSocket server;
+
+    /** The file holding {@code token}. */
+    protected final File tokenFile;
+
+    /** The token a request must start with. */
+    protected final byte[] token;
+
+    /** The archives kept open between compilations */
+    protected final ArchiveCache archives =
+            new ArchiveCache(ArchiveCache.DEFAULT_MAX_OPEN);
+
+    /**
+     * The sessions, by the extension class and class path of their
+     * compilations; see {@link #key}.
+     */
+    protected final Map<String, Session> sessions = new HashMap<>();
+
+    /**
+     * Create a daemon listening on {@code port}, or on a free port if
+     * {@code port} is 0, with its token written to the default token file
+     * for the port.
+     */
+    public Daemon(int port) throws IOException {
+        this(port, null);
+    }
+
+    /**
+     * Create a daemon listening on {@code port}, or on a free port if
+     * {@code port} is 0, with its token written to {@code tokenFile}, or to
+     * the default token file for the port if {@code tokenFile} is null.
+     */
+    public Daemon(int port, File tokenFile) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.tokenFile = tokenFile != null ? tokenFile : tokenFile(port());
+        byte[] b = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(b);
+        this.token = toHex(b).getBytes(UTF8);
+        try {
+            writeToken(this.tokenFile, this.token);
+        }
+        catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    /** The port the daemon listens on. */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /** The file holding the token requests must start with. */
+    public File tokenFile() {
+        return tokenFile;
+    }
+
+    /** The default token file of a daemon listening on {@code port}. */
+    public static File tokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".polyglot-daemon-"
+                + port);
+    }
+
+    /**
+     * Write {@code token} to {@code f}, readable and writable only by its
+     * owner.
+     */
+    protected static void writeToken(File f, byte[] token) throws IOException {
+        Path p = f.toPath();
+        Files.deleteIfExists(p);
+        if (FileSystems.getDefault()
+                       .supportedFileAttributeViews()
+                       .contains("posix")) {
+            Set<PosixFilePermission> perms =
+                    EnumSet.of(PosixFilePermission.OWNER_READ,
+                               PosixFilePermission.OWNER_WRITE);
+            Files.createFile(p, PosixFilePermissions.asFileAttribute(perms));
+        }
+        else {
+            Files.createFile(p);
+            f.setReadable(false, false);
+            f.setWritable(false, false);
+            f.setReadable(true, true);
+            f.setWritable(true, true);
+        }
+        Files.write(p, token);
+    }
+
+    /** Read the token of a daemon from its token file {@code f}. */
+    public static String readToken(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), UTF8).trim();
+    }
+
+    protected static String toHex(byte[] b) {
+        StringBuilder sb = new StringBuilder(2 * b.length);
+        for (byte x : b) {
+            sb.append(Character.forDigit((x >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(x & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /** Serve compilation requests until a stop request is received. */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    if (!handle(socket)) return;
+                }
+                catch (IOException e) {
+                    // A client went away or sent garbage; keep serving.
+                    System.err.println("Compiler daemon: " + e.getMessage());
+                }
+            }
+        }
+        finally {
+            server.close();
+            archives.close();
+            sessions.clear();
+            tokenFile.delete();
+        }
+    }
+
+    /**
+     * Read one request from {@code socket} and run it.
+     *
+     * @return false if the daemon should stop.
+     */
+    protected boolean handle(Socket socket) throws IOException {
+        DataInputStream in =
+                new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        File dir;
+        List<String> args;
+        try {
+            checkToken(in);
+            byte kind = in.readByte();
+            if (kind == STOP) {
+                writeExit(out, 0);
+                return false;
+            }
+            if (kind != COMPILE) {
+                throw new IOException("Unknown request " + kind);
+            }
+            dir = new File(readString(in));
+            int n = in.readInt();
+            if (n < 0 || n > MAX_LENGTH) {
+                throw new IOException("Bad argument count " + n);
+            }
+            args = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                args.add(readString(in));
+            }
+        }
+        catch (IOException e) {
+            writeOutput(out, "Bad request: " + e.getMessage() + "\n");
+            writeExit(out, BAD_REQUEST);
+            return true;
+        }
+
+        PrintStream ps =
+                new PrintStream(new FrameOutputStream(out), true, "UTF-8");
+        int exitCode = compile(dir, args, ps);
+        ps.flush();
+        writeExit(out, exitCode);
+        return true;
+    }
+
+    /** Read the token starting a request, and check it is the daemon's. */
+    protected void checkToken(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n != token.length) throw new IOException("Bad token");
+        byte[] b = new byte[n];
+        in.readFully(b);
+        if (!MessageDigest.isEqual(b, token))
+            throw new IOException("Bad token");
+    }
+
+    /**
+     * Run the compiler in the working directory {@code dir} with the
+     * command-line arguments {@code args}, sending its output to {@code out}.
+     *
+     * @return the exit code of the compilation.
+     */
+    public int compile(File dir, List<String> args, PrintStream out) {
+        Session session = null;
+        boolean ok = false;
+        try {
+            RequestMain main = new RequestMain(out);
+            List<String> l = new LinkedList<>(args);
+            ExtensionInfo fresh = main.getExtensionInfo(l);
+            List<String> resolved =
+                    resolveArguments(dir, l, fresh.getOptions());
+            String key = key(fresh, resolved);
+            session = session(key, fresh);
+            main.session = session;
+            if (session.ext instanceof AbstractExtensionInfo)
+                ((AbstractExtensionInfo) session.ext).setArchiveCache(archives);
+            main.start(resolved.toArray(new String[resolved.size()]),
+                       session.ext);
+            ok = true;
+            return 0;
+        }
+        catch (TerminationException te) {
+            // Errors in the sources leave the types read from class files
+            // intact.
+            ok = true;
+            if (te.getMessage() != null) out.println(te.getMessage());
+            return te.exitCode;
+        }
+        catch (RuntimeException e) {
+            e.printStackTrace(out);
+            return 1;
+        }
+        finally {
+            out.flush();
+            if (session != null) save(session, ok);
+            reset();
+        }
+    }
+
+    /**
+     * Return the key of a compilation with the extension {@code ext} and
+     * the arguments {@code args}: the class of the extension and the
+     * arguments of its path flags other than {@code -sourcepath}.
+     */
+    protected String key(ExtensionInfo ext, List<String> args) {
+        StringBuilder sb = new StringBuilder(ext.getClass().getName());
+        Options options = ext.getOptions();
+        for (int i = 0; i < args.size(); i++) {
+            OptFlag<?> flag = OptFlag.lookupFlag(args.get(i), options.flags());
+            if (flag == null || flag.params == null || i + 1 == args.size()) {
+                continue;
+            }
+            String value = args.get(++i);
+            if (flag instanceof OptFlag.PathFlag
+                    && !flag.ids().contains("-sourcepath")) {
+                sb.append('\0').append(args.get(i - 1));
+                sb.append('\0').append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the session for {@code key}, ready for another compilation.  A
+     * new session is started with {@code fresh} if there is none, or if an
+     * archive the types of the last one were read from was modified.
+     */
+    protected Session session(String key, ExtensionInfo fresh) {
+        Session s = sessions.get(key);
+        if (s != null && !unchanged(s.archives)) {
+            s = null;
+        }
+        if (s == null || !(s.ext instanceof AbstractExtensionInfo)) {
+            s = new Session(fresh);
+            sessions.put(key, s);
+        }
+        else {
+            ((AbstractExtensionInfo) s.ext).reset();
+        }
+        return s;
+    }
+
+    /**
+     * Return true if none of the archives in {@code stamps} was modified
+     * since it was recorded.
+     */
+    protected static boolean unchanged(Map<File, Long> stamps) {
+        if (stamps == null) return true;
+        for (Map.Entry<File, Long> e : stamps.entrySet()) {
+            if (e.getKey().lastModified() != e.getValue()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keep the types of the compilation just run in {@code s}, or drop the
+     * session if the compilation did not complete.
+     */
+    protected void save(Session s, boolean ok) {
+        if (!ok) {
+            sessions.values().remove(s);
+            return;
+        }
+        // Nothing was compiled if the command line was rejected.
+        if (s.ext.compiler() == null) return;
+
+        SystemResolver sr = s.ext.typeSystem().systemResolver();
+
+        final Map<File, Long> stamps = new HashMap<>();
+        s.types = sr.snapshot(new Predicate<Named>() {
+            @Override
+            public boolean isTrue(Named n) {
+                File f = archive(n);
+                if (f == null) return false;
+                if (!stamps.containsKey(f)) stamps.put(f, f.lastModified());
+                return true;
+            }
+        });
+        s.archives = stamps;
+    }
+
+    /**
+     * Return the archive {@code n} was read from, or null if {@code n} is
+     * not a type read from a class file in an archive.
+     */
+    protected static File archive(Named n) {
+        if (!(n instanceof ParsedClassType)) return null;
+        LazyInitializer init = ((ParsedClassType) n).initializer();
+        if (!(init instanceof ClassFileLazyClassInitializer)) return null;
+        URI uri = ((ClassFileLazyClassInitializer) init).classFileURI();
+        if (uri == null || !"jar".equals(uri.getScheme())) return null;
+        String s = uri.getRawSchemeSpecificPart();
+        int bang = s.indexOf("!/");
+        if (bang < 0) return null;
+        try {
+            return new File(new URI(s.substring(0, bang)));
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * The driver of one compilation.  It reports to the stream of the
+     * request, and starts the compilation from the types kept by its
+     * session.
+     */
+    protected static class RequestMain extends Main {
+        protected final PrintStream out;
+        protected Session session;
+
+        protected RequestMain(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        protected PrintStream usageStream(int exitCode) {
+            return out;
+        }
+
+        @Override
+        protected ErrorQueue createErrorQueue(Options options,
+                ExtensionInfo ext) {
+            Report.setQueue(new StdErrorQueue(out,
+                                              Integer.MAX_VALUE,
+                                              ext.compilerName()));
+            return new StdErrorQueue(out,
+                                     options.error_count,
+                                     ext.compilerName());
+        }
+
+        @Override
+        protected void compile(Options options, Compiler compiler,
+                ErrorQueue eq) throws TerminationException {
+            if (session.types != null) {
+                compiler.sourceExtension()
+                        .typeSystem()
+                        .systemResolver()
+                        .installAll(session.types);
+            }
+            super.compile(options, compiler, eq);
+        }
+    }
+
+    /**
+     * Resolve the relative file names in the arguments {@code args} of a
+     * compilation against the directory {@code dir}: source files, argument
+     * files, the arguments of the path flags of {@code options}, and those of
+     * {@link #FILE_FLAGS}.  The output and source directories default to
+     * {@code dir}.  The arguments of other flags are kept as they are.
+     */
+    protected List<String> resolveArguments(File dir, List<String> args,
+            Options options) {
+        List<String> result = new ArrayList<>(args.size() + 4);
+        boolean outputSet = false;
+        boolean sourcepathSet = false;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.startsWith("@")) {
+                result.add("@" + resolve(dir, arg.substring(1)));
+                continue;
+            }
+            if (!arg.startsWith("-")) {
+                result.add(resolve(dir, arg));
+                continue;
+            }
+
+            result.add(arg);
+            OptFlag<?> flag = OptFlag.lookupFlag(arg, options.flags());
+            if (flag == null || flag.params == null || i + 1 == args.size()) {
+                continue;
+            }
+
+            String value = args.get(++i);
+            if (flag instanceof OptFlag.PathFlag) {
+                StringBuilder sb = new StringBuilder();
+                StringTokenizer st =
+                        new StringTokenizer(value, File.pathSeparator);
+                while (st.hasMoreTokens()) {
+                    if (sb.length() > 0) sb.append(File.pathSeparator);
+                    sb.append(resolve(dir, st.nextToken()));
+                }
+                value = sb.toString();
+            }
+            else if (!Collections.disjoint(flag.ids(), FILE_FLAGS)) {
+                value = resolve(dir, value);
+            }
+            result.add(value);
+
+            outputSet |= flag.ids().contains("-d");
+            sourcepathSet |= flag.ids().contains("-sourcepath");
+        }
+
+        if (!outputSet && OptFlag.lookupFlag("-d", options.flags()) != null) {
+            result.add(0, "-d");
+            result.add(1, dir.getPath());
+        }
+        if (!sourcepathSet
+                && OptFlag.lookupFlag("-sourcepath", options.flags()) != null) {
+            result.add(0, "-sourcepath");
+            result.add(1, dir.getPath());
+        }
+        return result;
+    }
+
+    /** Resolve the file name {@code name} against the directory {@code dir}. */
+    protected static String resolve(File dir, String name) {
+        File f = new File(name);
+        if (f.isAbsolute()) return name;
+        return new File(dir, name).getPath();
+    }
+
+    /** Clear the state left in the JVM by the last compilation. */
+    protected void reset() {
+        Report.reset();
+        Options.global = null;
+        archives.refresh();
+    }
+
+    /** Output stream sending what is written to it as {@link #OUTPUT} frames. */
+    protected static class FrameOutputStream extends OutputStream {
+        protected final DataOutputStream out;
+
+        protected FrameOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            out.writeByte(OUTPUT);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    protected static void writeOutput(DataOutputStream out, String s)
+            throws IOException {
+        out.writeByte(OUTPUT);
+        writeString(out, s);
+    }
+
+    protected static void writeExit(DataOutputStream out, int exitCode)
+            throws IOException {
+        out.writeByte(EXIT);
+        out.writeInt(exitCode);
+        out.flush();
+    }
+
+    protected static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    protected static byte[] readBytes(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > MAX_LENGTH) {
+            throw new IOException("Bad string length " + n);
+        }
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return b;
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), UTF8);
+    }
+
+    /**
+     * Send the command-line arguments {@code args} to the daemon listening on
+     * {@code port}, whose token is {@code token}, to be compiled in the
+     * working directory {@code dir}, and copy its output to {@code out}.
+     *
+     * @return the exit code of the compilation.
+     */
+    public static int send(int port, String token, File dir,
+            List<String> args, PrintStream out) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream w =
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writeString(w, token);
+            w.writeByte(COMPILE);
+            writeString(w, dir.getAbsolutePath());
+            w.writeInt(args.size());
+            for (String arg : args) {
+                writeString(w, arg);
+            }
+            w.flush();
+            return readResponse(socket, out);
+        }
+    }
+
+    /**
+     * Ask the daemon listening on {@code port}, whose token is
+     * {@code token}, to stop.
+     */
+    public static void stop(int port, String token) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream w =
+                    new DataOutputStream(socket.getOutputStream());
+            writeString(w, token);
+            w.writeByte(STOP);
+            w.flush();
+            readResponse(socket, System.out);
+        }
+    }
+
+    /**
+     * Copy the output frames of the response on {@code socket} to
+     * {@code out} and return the exit code.
+     */
+    public static int readResponse(Socket socket, PrintStream out)
+            throws IOException {
+        DataInputStream in =
+                new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        try {
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == EXIT) {
+                    out.flush();
+                    return in.readInt();
+                }
+                if (kind != OUTPUT) {
+                    throw new IOException("Malformed response from the compiler daemon");
+                }
+                out.write(readBytes(in));
+            }
+        }
+        catch (EOFException e) {
+            throw new IOException("Connection to the compiler daemon was closed");
+        }
+    }
+
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int i = 0;
+        try {
+            if (i + 1 < args.length && args[i].equals("-port")) {
+                port = Integer.parseInt(args[i + 1]);
+                i += 2;
+            }
+
+            if (i + 1 == args.length && args[i].equals("-stop")) {
+                stop(port, readToken(tokenFile(port)));
+                return;
+            }
+            else if (i < args.length && args[i].equals("--")) {
+                List<String> compilerArgs =
+                        Arrays.asList(args).subList(i + 1, args.length);
+                File dir = new File(System.getProperty("user.dir"));
+                String token = readToken(tokenFile(port));
+                System.exit(send(port, token, dir, compilerArgs, System.out));
+            }
+            else if (i < args.length) {
+                System.err.println("usage: " + Daemon.class.getName()
+                        + " [-port <num>] [-stop | -- <compiler arguments>]");
+                System.exit(1);
+            }
+
+            new Daemon(port).serve();
+        }
+        catch (NumberFormatException e) {
+            System.err.println("Bad port number: " + e.getMessage());
+            System.exit(1);
+        }
+        catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
@@ -75,6 +76,12 @@ public class Main {
 
     private List<Job> jobs;
 
+    /**
+     * The pipeline compiling output files during translation, or null if
+     * they are compiled after translation.
+     */
+    protected PostCompilerPipeline postCompilerPipeline;
+
     public List<Job> jobs() {
         return jobs;
     }
@@ -160,7 +167,7 @@ public class Main {
             options.parseCommandLine(argv, source);
         }
         catch (UsageError ue) {
-            PrintStream out = (ue.exitCode == 0 ? System.out : System.err);
+            PrintStream out = usageStream(ue.exitCode);
             if (ue.getMessage() != null && ue.getMessage().length() > 0) {
                 out.println(ext.compilerName() + ": " + ue.getMessage());
             }
@@ -169,16 +176,47 @@ public class Main {
         }
 
         if (eq == null) {
-            eq =
-                    new StdErrorQueue(System.err,
-                                      options.error_count,
-                                      ext.compilerName());
+            eq = createErrorQueue(options, ext);
         }
 
         Compiler compiler = new Compiler(ext, eq);
+        try {
+            compile(options, compiler, eq);
+        }
+        finally {
+            if (postCompilerPipeline != null) {
+                postCompilerPipeline.shutdown();
+                postCompilerPipeline = null;
+            }
+            closeFileManagers(compiler);
+        }
+    }
+
+    /**
+     * Return the stream the usage message is printed to when the command line
+     * is rejected with the exit code {@code exitCode}.
+     */
+    protected PrintStream usageStream(int exitCode) {
+        return exitCode == 0 ? System.out : System.err;
+    }
+
+    /**
+     * Return the error queue reporting the errors of a compilation with
+     * {@code ext}, when none is passed to {@link #start}.
+     */
+    protected ErrorQueue createErrorQueue(Options options, ExtensionInfo ext) {
+        return new StdErrorQueue(System.err,
+                                 options.error_count,
+                                 ext.compilerName());
+    }
 
+    protected void compile(Options options, Compiler compiler, ErrorQueue eq)
+            throws TerminationException {
         long time0 = System.currentTimeMillis();
 
+        postCompilerPipeline = createPostCompilerPipeline(options, eq);
+        compiler.setPostCompilerPipeline(postCompilerPipeline);
+
         if (!compiler.compileFiles(source)) {
             throw new TerminationException(1);
         }
@@ -207,6 +245,46 @@ public class Main {
         }
     }
 
+    /**
+     * Release the resources held by the file managers of the extensions
+     * used by {@code compiler}.
+     */
+    protected void closeFileManagers(Compiler compiler) {
+        for (ExtensionInfo ext : compiler.allExtensions()) {
+            try {
+                ext.extFileManager().close();
+            }
+            catch (IOException e) {
+                if (Report.should_report(verbose, 1))
+                    Report.report(1, "Could not close the file manager of "
+                            + ext.compilerName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Return a pipeline that compiles output files with the system Java
+     * compiler while translation continues, or null if the output files
+     * should be compiled after translation.
+     */
+    protected PostCompilerPipeline createPostCompilerPipeline(Options options,
+            ErrorQueue eq) {
+        if (options.post_compiler_batch <= 0 || options.post_compiler != null
+                || options.output_source_only || options.output_stdout
+                || options.noOutputToFS) {
+            return null;
+        }
+        try {
+            return new PostCompilerPipeline(options,
+                                            getSystemJavacArgs(options),
+                                            options.post_compiler_batch);
+        }
+        catch (IOException e) {
+            eq.enqueue(ErrorInfo.POST_COMPILER_ERROR, e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Returns a list of arguments to pass to the system java compiler.
      */
@@ -230,25 +308,44 @@ public class Main {
         if (!options.output_source_only && !options.output_stdout) {
             try {
                 if (options.post_compiler == null) {
-                    List<String> postCompilerArgs = getSystemJavacArgs(options);
-                    ByteArrayOutputStream err = new ByteArrayOutputStream();
-                    Writer javac_err = new OutputStreamWriter(err);
-                    compiler.sourceExtension()
-                            .configureFileManagerForPostCompiler();
-                    FileManager fileManager =
-                            compiler.sourceExtension().extFileManager();
-                    CompilationTask task =
-                            javaCompiler.getTask(javac_err,
-                                                 fileManager,
-                                                 null,
-                                                 postCompilerArgs,
-                                                 null,
-                                                 compiler.outputFiles());
-
-                    task.call();
-                    String error = err.toString();
-                    if (!error.isEmpty())
-                        eq.enqueue(ErrorInfo.POST_COMPILER_ERROR, error);
+                    Collection<JavaFileObject> outputFiles =
+                            compiler.outputFiles();
+                    if (postCompilerPipeline != null) {
+                        // Compile only the files the pipeline did not.
+                        outputFiles = postCompilerPipeline.finish(eq);
+                    }
+
+                    if (!outputFiles.isEmpty()) {
+                        List<String> postCompilerArgs =
+                                getSystemJavacArgs(options);
+                        ByteArrayOutputStream err = new ByteArrayOutputStream();
+                        Writer javac_err = new OutputStreamWriter(err);
+                        compiler.sourceExtension()
+                                .configureFileManagerForPostCompiler();
+                        FileManager fileManager =
+                                compiler.sourceExtension().extFileManager();
+                        if (postCompilerPipeline != null) {
+                            postCompilerPipeline.addClassDirectories(fileManager);
+                        }
+                        CompilationTask task =
+                                javaCompiler.getTask(javac_err,
+                                                     fileManager,
+                                                     null,
+                                                     postCompilerArgs,
+                                                     null,
+                                                     outputFiles);
+
+                        task.call();
+                        String error = err.toString();
+                        if (!error.isEmpty())
+                            eq.enqueue(ErrorInfo.POST_COMPILER_ERROR, error);
+                    }
+
+                    if (postCompilerPipeline != null) {
+                        // The front end succeeded; the class files of the
+                        // batches can now replace those of earlier runs.
+                        postCompilerPipeline.publish();
+                    }
                 }
                 else {
                     int options_size = 3;
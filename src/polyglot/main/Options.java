@@ -53,6 +53,7 @@ import polyglot.main.OptFlag.PathFlag;
 import polyglot.main.OptFlag.Switch;
 import polyglot.util.InternalCompilerError;
 import polyglot.util.Pair;
+import polyglot.visit.DataFlow;
 
 /**
  * This object encapsulates various Polyglot options.
@@ -101,9 +102,37 @@ public class Options {
     public String post_compiler;
     public String post_compiler_opts;
 
+    /**
+     * Number of output files the system Java compiler is given at a time
+     * while translation continues, or 0 to compile the output files only
+     * after all of them are written.
+     */
+    public int post_compiler_batch;
+
     public int output_width;
     public boolean fully_qualified_names;
 
+    /**
+     * Number of worker threads the scheduler may use to run independent goals
+     * concurrently; 1 runs every goal on the calling thread.
+     */
+    public int thread_count;
+
+    /**
+     * Parse every command-line source on the worker threads before any other
+     * goal is attempted?
+     */
+    public boolean parse_ahead;
+
+    /** The strategy used to solve the equations of dataflow passes. */
+    public DataFlow.Solver dataflow_solver;
+
+    /**
+     * File holding the dependency index for incremental compilation, or null
+     * to compile every source file.
+     */
+    public File dependency_index;
+
     /** Inject type information in serialized form into output file? */
     public boolean serialize_type_info;
 
@@ -310,6 +339,45 @@ public class Options {
                               "set the maximum number of errors",
                               100));
 
+        flags.add(new IntFlag("-threads",
+                              "<num>",
+                              "run independent per-file goals on <num> worker threads",
+                              1));
+
+        flags.add(new Switch("-parseahead",
+                             "parse all source files on the worker threads before compiling"));
+
+        flags.add(new OptFlag<DataFlow.Solver>("-dataflow",
+                                               "<solver>",
+                                               "solve dataflow equations with <solver>: scc, roundrobin, worklist, or check (all three, checking they agree)",
+                                               "scc") {
+            @Override
+            public Arg<DataFlow.Solver> handle(String[] args, int index)
+                    throws UsageError {
+                for (DataFlow.Solver solver : DataFlow.Solver.values()) {
+                    if (solver.flagName().equals(args[index])) {
+                        return createArg(index + 1, solver);
+                    }
+                }
+                throw new UsageError("Unknown dataflow solver: "
+                        + args[index]);
+            }
+
+            @Override
+            public Arg<DataFlow.Solver> defaultArg() {
+                return createDefault(DataFlow.Solver.SCC);
+            }
+        });
+
+        flags.add(new OptFlag<File>("-incremental",
+                                    "<file>",
+                                    "compile only the files that changed since the last run, tracked in <file>") {
+            @Override
+            public Arg<File> handle(String[] args, int index) {
+                return createArg(index + 1, new File(args[index]));
+            }
+        });
+
         flags.add(new IntFlag("-w",
                               "<num>",
                               "set the maximum width of the .java output files",
@@ -335,6 +403,11 @@ public class Options {
             }
         });
 
+        flags.add(new IntFlag("-postbatch",
+                              "<num>",
+                              "compile output files with javac in batches of <num> while translating",
+                              0));
+
         flags.add(new Switch("-stdout", "output to stdout"));
 
         flags.add(new OptFlag<String>("-sx", "<ext>", "set source extension") {
@@ -667,6 +740,18 @@ public class Options {
         else if (ids.contains("-errors")) {
             setErrorCount((Integer) arg.value());
         }
+        else if (ids.contains("-threads")) {
+            setThreadCount((Integer) arg.value());
+        }
+        else if (ids.contains("-parseahead")) {
+            setParseAhead((Boolean) arg.value());
+        }
+        else if (ids.contains("-dataflow")) {
+            setDataFlowSolver((DataFlow.Solver) arg.value());
+        }
+        else if (ids.contains("-incremental")) {
+            setDependencyIndex((File) arg.value());
+        }
         else if (ids.contains("-w")) {
             setOutputWidth((Integer) arg.value());
         }
@@ -676,6 +761,9 @@ public class Options {
         else if (ids.contains("-postopts")) {
             setPostCompilerOpts((String) arg.value());
         }
+        else if (ids.contains("-postbatch")) {
+            setPostCompilerBatch((Integer) arg.value());
+        }
         else if (ids.contains("-stdout")) {
             setOutputStdOut((Boolean) arg.value());
         }
@@ -788,6 +876,22 @@ public class Options {
         error_count = value;
     }
 
+    protected void setThreadCount(Integer value) {
+        thread_count = Math.max(1, value);
+    }
+
+    protected void setParseAhead(boolean value) {
+        parse_ahead = value;
+    }
+
+    protected void setDataFlowSolver(DataFlow.Solver value) {
+        dataflow_solver = value;
+    }
+
+    protected void setDependencyIndex(File value) {
+        dependency_index = value;
+    }
+
     protected void setOutputWidth(Integer value) {
         output_width = value;
     }
@@ -800,6 +904,10 @@ public class Options {
         post_compiler_opts = value;
     }
 
+    protected void setPostCompilerBatch(Integer value) {
+        post_compiler_batch = Math.max(0, value);
+    }
+
     protected void setOutputStdOut(boolean value) {
         output_stdout = value;
     }
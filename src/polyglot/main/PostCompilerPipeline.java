@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+import polyglot.filemanager.FileManager;
+import polyglot.util.ErrorInfo;
+import polyglot.util.ErrorQueue;
+
+/**
+ * Compiles output files with the system Java compiler while translation of
+ * the other files continues.  Output files are handed to the pipeline as
+ * they are written; every {@code batchSize} files are compiled together on
+ * a background thread.
+ *
+ * A batch may refer to classes whose output files have not been written
+ * yet.  Such a batch fails, and its files are compiled again, with the
+ * files written after the last batch, by the post-compiler invocation at the
+ * end of the compilation, which reports any errors.  Batches are compiled
+ * with {@code -implicit:none}, so that output files found on the source path
+ * are not compiled as a side effect.
+ *
+ * Each batch writes its class files to its own directory in a private
+ * staging directory, and the class files of the earlier batches that
+ * compiled are found on the class path.  The class output directory is not
+ * on the class path of a batch, so a batch never sees stale class files
+ * there.  The class files are moved to the class output directory by
+ * {@link #publish()}, once the whole compilation has succeeded; otherwise
+ * {@link #shutdown()} discards them.
+ */
+public class PostCompilerPipeline {
+    /** The result of compiling a batch of output files. */
+    protected static class Batch {
+        protected final Collection<JavaFileObject> files;
+        protected final boolean success;
+
+        /** The directory the class files of the batch were written to. */
+        protected final File directory;
+
+        /** The messages of the Java compiler. */
+        protected final String messages;
+
+        protected Batch(Collection<JavaFileObject> files, boolean success,
+                File directory, String messages) {
+            this.files = files;
+            this.success = success;
+            this.directory = directory;
+            this.messages = messages;
+        }
+    }
+
+    protected final List<String> javacArgs;
+    protected final int batchSize;
+    protected final StandardJavaFileManager fileManager;
+    protected final ExecutorService executor;
+
+    /** The directory the final class files are moved to. */
+    protected final File classOutputDirectory;
+
+    /** The directory holding the class files of the batches. */
+    protected final File stagingDirectory;
+
+    /** The class path of a batch, without the classes of earlier batches. */
+    protected final List<File> classpath;
+
+    /**
+     * The class directories of the batches that compiled, in order.  Only
+     * changed by the thread compiling the batches, until it is stopped.
+     */
+    protected final List<File> compiled = new ArrayList<>();
+
+    /** Output files written since the last batch was started. */
+    protected Set<JavaFileObject> pending = new LinkedHashSet<>();
+
+    /** The batches started and not yet finished. */
+    protected final List<Future<Batch>> batches = new ArrayList<>();
+
+    /**
+     * Create a pipeline compiling output files with the post-compiler
+     * arguments {@code javacArgs}, {@code batchSize} files at a time.
+     */
+    public PostCompilerPipeline(Options options, List<String> javacArgs,
+            int batchSize) throws IOException {
+        this.javacArgs = new ArrayList<>(javacArgs);
+        this.javacArgs.add("-implicit:none");
+        this.batchSize = batchSize;
+
+        fileManager =
+                Main.javaCompiler().getStandardFileManager(null, null, null);
+        fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH,
+                                options.defaultPlatformClasspath());
+        fileManager.setLocation(StandardLocation.SOURCE_PATH,
+                                Collections.singletonList(options.sourceOutputDirectory()));
+        classpath = new ArrayList<>();
+        classpath.addAll(options.bootclasspathDirectories());
+        classpath.addAll(options.classpathDirectories());
+        classOutputDirectory = options.classOutputDirectory();
+        stagingDirectory =
+                Files.createTempDirectory("polyglot-postbatch").toFile();
+
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "polyglot-postcompiler");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        executor = Executors.newSingleThreadExecutor(factory);
+    }
+
+    /**
+     * Record that the output file {@code f} has been completely written,
+     * starting a batch if enough files are waiting.
+     */
+    public synchronized void outputWritten(JavaFileObject f) {
+        pending.add(f);
+        if (pending.size() >= batchSize) {
+            final Collection<JavaFileObject> files = pending;
+            pending = new LinkedHashSet<>();
+            batches.add(executor.submit(new Callable<Batch>() {
+                @Override
+                public Batch call() {
+                    return compile(files);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Compile the batch {@code files} into a new directory in the staging
+     * directory.
+     */
+    protected Batch compile(Collection<JavaFileObject> files) {
+        StringWriter err = new StringWriter();
+        File dir = new File(stagingDirectory, "batch" + compiled.size());
+        boolean success;
+        try {
+            Files.createDirectories(dir.toPath());
+            List<File> path = new ArrayList<>(classpath);
+            path.addAll(compiled);
+            fileManager.setLocation(StandardLocation.CLASS_PATH, path);
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT,
+                                    Collections.singletonList(dir));
+            CompilationTask task =
+                    Main.javaCompiler().getTask(err,
+                                                fileManager,
+                                                null,
+                                                javacArgs,
+                                                null,
+                                                files);
+            success = task.call();
+        }
+        catch (IOException e) {
+            err.write(e.getMessage());
+            success = false;
+        }
+        if (success) {
+            compiled.add(dir);
+        }
+        else {
+            // Do not leave the class files of a failed batch to be found by
+            // a later one.
+            delete(dir);
+        }
+        if (Report.should_report(Main.verbose, 1))
+            Report.report(1, "Post-compiled a batch of " + files.size()
+                    + " files: " + (success ? "succeeded" : "failed"));
+        return new Batch(files, success, dir, err.toString());
+    }
+
+    /**
+     * Wait for the batches to finish and stop the pipeline.  The messages of
+     * the batches that compiled are reported to {@code eq}.  Return the
+     * output files that remain to be compiled: those of failed batches and
+     * those written after the last batch.  They must be compiled with
+     * {@link #classDirectories()} on the class path.
+     */
+    public Collection<JavaFileObject> finish(ErrorQueue eq)
+            throws InterruptedException, ExecutionException {
+        List<Future<Batch>> started;
+        Collection<JavaFileObject> remaining = new LinkedHashSet<>();
+        synchronized (this) {
+            started = new ArrayList<>(batches);
+            batches.clear();
+        }
+
+        for (Future<Batch> f : started) {
+            Batch b = f.get();
+            if (b.success) {
+                if (!b.messages.isEmpty())
+                    eq.enqueue(ErrorInfo.POST_COMPILER_ERROR, b.messages);
+            }
+            else {
+                remaining.addAll(b.files);
+            }
+        }
+
+        synchronized (this) {
+            remaining.addAll(pending);
+            pending.clear();
+        }
+        stop();
+        return remaining;
+    }
+
+    /**
+     * The directories holding the class files of the batches that compiled.
+     * Valid after {@link #finish(ErrorQueue)}.
+     */
+    public List<File> classDirectories() {
+        return Collections.unmodifiableList(compiled);
+    }
+
+    /**
+     * Add {@link #classDirectories()} to the class path of
+     * {@code fileManager}, which compiles the remaining output files.
+     */
+    public void addClassDirectories(FileManager fileManager)
+            throws IOException {
+        List<File> path = new ArrayList<>();
+        Iterable<? extends File> current =
+                fileManager.getLocation(StandardLocation.CLASS_PATH);
+        if (current != null) {
+            for (File f : current) {
+                path.add(f);
+            }
+        }
+        path.addAll(compiled);
+        fileManager.setLocation(StandardLocation.CLASS_PATH, path);
+    }
+
+    /**
+     * Move the class files of the batches that compiled to the class output
+     * directory.  Call once the compilation has succeeded, after
+     * {@link #finish(ErrorQueue)}.
+     */
+    public void publish() throws IOException {
+        final Path target = classOutputDirectory.toPath();
+        for (File dir : compiled) {
+            final Path source = dir.toPath();
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d,
+                        BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(target.resolve(source.relativize(d)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path f,
+                        BasicFileAttributes attrs) throws IOException {
+                    Files.move(f,
+                               target.resolve(source.relativize(f)),
+                               StandardCopyOption.REPLACE_EXISTING);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        compiled.clear();
+    }
+
+    /**
+     * Stop the pipeline, waiting for a running batch to finish, and discard
+     * the class files that were not published.
+     */
+    public void shutdown() {
+        stop();
+        delete(stagingDirectory);
+    }
+
+    /** Stop compiling batches, waiting for a running batch to finish. */
+    protected void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            fileManager.close();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            if (Report.should_report(Main.verbose, 1))
+                Report.report(1, "Could not close the post-compiler file manager: "
+                        + e.getMessage());
+        }
+    }
+
+    /** Delete the file or directory {@code f}, with its contents. */
+    protected static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+}
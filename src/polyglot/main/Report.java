@@ -44,9 +44,18 @@ public class Report {
         -report command-line switch */
     public final static Collection<String> topics = new LinkedHashSet<>();
 
-    /** A collection of string names of topics which we should always check
-        if we should report. */
-    public final static Stack<String> should_report = new Stack<>();
+    /** For each thread, a stack of string names of topics which we should
+        always check if we should report.  Passes push their names while they
+        run, and passes may run on several threads at once. */
+    protected final static ThreadLocal<Stack<String>> should_report =
+            new ThreadLocal<Stack<String>>() {
+                @Override
+                protected Stack<String> initialValue() {
+                    Stack<String> s = new Stack<>();
+                    s.push(verbose);
+                    return s;
+                }
+            };
 
     /** 
      * The topics that the user has selected to report, mapped to the level
@@ -99,8 +108,6 @@ public class Report {
         topics.add(visit);
         topics.add(verbose);
         topics.add(debug);
-
-        pushTopic(verbose);
     }
 
     /**
@@ -120,10 +127,8 @@ public class Report {
      */
     public static boolean should_report(String[] topics, int level) {
         if (noReporting) return false;
-        synchronized (should_report) {
-            for (String topic : should_report) {
-                if (level(topic) >= level) return true;
-            }
+        for (String topic : should_report.get()) {
+            if (level(topic) >= level) return true;
         }
         if (topics != null) {
             for (String topic : topics) {
@@ -133,13 +138,25 @@ public class Report {
         return false;
     }
 
+    /**
+     * The stack of topics which we should always check if we should report,
+     * for the current thread.  This was the public {@code should_report}
+     * field before topics were kept per thread.
+     */
+    public static Stack<String> should_report() {
+        return should_report.get();
+    }
+
+    /** Push {@code topic} on the topic stack of the current thread. */
     public static void pushTopic(String topic) {
-        should_report.push(topic);
+        should_report.get().push(topic);
     }
 
+    /** Pop the last topic pushed by the current thread. */
     public static void popTopic() {
-        if (should_report.isEmpty()) return;
-        should_report.pop();
+        Stack<String> s = should_report.get();
+        if (s.isEmpty()) return;
+        s.pop();
     }
 
     /**
@@ -149,10 +166,8 @@ public class Report {
      */
     public static boolean should_report(Collection<String> topics, int level) {
         if (noReporting) return false;
-        synchronized (should_report) {
-            for (String topic : should_report) {
-                if (level(topic) >= level) return true;
-            }
+        for (String topic : should_report.get()) {
+            if (level(topic) >= level) return true;
         }
         if (topics != null) {
             for (String topic : topics) {
@@ -170,6 +185,16 @@ public class Report {
         noReporting = false;
     }
 
+    /**
+     * Forget the topics selected by earlier {@code -report} switches and the
+     * error queue, so that another compilation can be run in the same JVM.
+     */
+    public static void reset() {
+        reportTopics.clear();
+        noReporting = true;
+        eq = null;
+    }
+
     public static void setTopic(String topic, int level) {
         if (reportTopics.containsKey(topic)) reportTopics.put(topic, level);
     }
@@ -27,13 +27,15 @@
 package polyglot.types;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import polyglot.main.Report;
 import polyglot.util.CollectionUtil;
 import polyglot.util.Copy;
 import polyglot.util.InternalCompilerError;
+import polyglot.util.Predicate;
 
 /**
  * A {@code CachingResolver} memoizes another Resolver
@@ -78,7 +80,7 @@ public class CachingResolver implements Resolver, Copy<CachingResolver> {
     public CachingResolver(Resolver inner, boolean cacheNotFound) {
         this.inner = inner;
         this.cacheNotFound = cacheNotFound;
-        this.cache = new HashMap<>();
+        this.cache = new ConcurrentHashMap<>();
     }
 
     public CachingResolver(Resolver inner) {
@@ -94,7 +96,7 @@ public class CachingResolver implements Resolver, Copy<CachingResolver> {
     public CachingResolver copy() {
         try {
             CachingResolver r = (CachingResolver) super.clone();
-            r.cache = new HashMap<>(this.cache);
+            r.cache = new ConcurrentHashMap<>(this.cache);
             return r;
         }
         catch (CloneNotSupportedException e) {
@@ -200,6 +202,33 @@ public class CachingResolver implements Resolver, Copy<CachingResolver> {
         install(name, q);
     }
 
+    /**
+     * Drop from the cache the names that were not found, and the objects
+     * that {@code keep} rejects.
+     */
+    public void retain(Predicate<Named> keep) {
+        for (Iterator<CachedResult> i = cache.values().iterator(); i.hasNext();) {
+            CachedResult cached = i.next();
+            if (!(cached instanceof CachedResult.Success)
+                    || !keep.isTrue(((CachedResult.Success) cached).named)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Install in this resolver the objects cached by {@code r}, under the
+     * names {@code r} cached them under.
+     */
+    public void installAll(CachingResolver r) {
+        for (Map.Entry<String, CachedResult> e : r.cache.entrySet()) {
+            if (e.getValue() instanceof CachedResult.Success) {
+                install(e.getKey(),
+                        ((CachedResult.Success) e.getValue()).named);
+            }
+        }
+    }
+
     public void dump() {
         Report.report(1, "Dumping " + this);
         for (Map.Entry<String, CachedResult> e : cache.entrySet()) {
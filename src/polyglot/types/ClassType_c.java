@@ -26,10 +26,14 @@
 
 package polyglot.types;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import polyglot.frontend.Job;
 import polyglot.main.Options;
@@ -250,6 +254,196 @@ public abstract class ClassType_c extends ReferenceType_c implements ClassType {
         return null;
     }
 
+    /** The proper supertypes of a class, computed by {@code ancestors()}. */
+    protected static class Ancestors {
+        protected final Set<Type> types;
+
+        /**
+         * True if the class and all the types in {@code types} have exact
+         * ancestors; see {@code hasExactAncestors()}.
+         */
+        protected final boolean exact;
+
+        /** The value of {@code ts.classChanges()} when computed. */
+        protected final int classChanges;
+
+        protected Ancestors(Set<Type> types, boolean exact, int classChanges) {
+            this.types = types;
+            this.exact = exact;
+            this.classChanges = classChanges;
+        }
+    }
+
+    /**
+     * The ancestors of this class.  The record is immutable, so it may be
+     * read and replaced without locking.
+     */
+    protected transient Ancestors ancestors;
+
+    /**
+     * Return the proper supertypes of this class: its superclass and
+     * interfaces, their supertypes, and so on.  For a parameterized type,
+     * these are the parameterized supertypes.  This class descends from
+     * each type in the set, though it may also descend from types not in
+     * the set, e.g., by wildcard containment.  The set is computed lazily
+     * and kept until a class changes.  Return null if the set cannot be
+     * computed, e.g., because a supertype has not been resolved.
+     */
+    public Set<Type> ancestors() {
+        return ancestors(Collections.newSetFromMap(new IdentityHashMap<ClassType_c, Boolean>()));
+    }
+
+    /**
+     * Return the proper supertypes of this class, or null if they cannot be
+     * computed.  {@code visiting} contains the classes whose supertypes are
+     * being computed, to detect cyclic hierarchies.
+     */
+    protected Set<Type> ancestors(Set<ClassType_c> visiting) {
+        Ancestors a = ancestorRecord(visiting);
+        return a == null ? null : a.types;
+    }
+
+    /**
+     * Return the record of the ancestors of this class, computing it if
+     * needed, or null if they cannot be computed.
+     */
+    protected Ancestors ancestorRecord(Set<ClassType_c> visiting) {
+        Ancestors a = ancestors;
+        int changes = ts.classChanges();
+        if (a != null && a.classChanges == changes) {
+            return a;
+        }
+
+        if (!visiting.add(this)) {
+            return null;
+        }
+
+        Set<Type> types;
+        try {
+            types = computeAncestors(visiting);
+        }
+        finally {
+            visiting.remove(this);
+        }
+        if (types == null) {
+            return null;
+        }
+
+        boolean exact = hasExactAncestors();
+        for (Type t : types) {
+            exact = exact && t instanceof ClassType_c
+                    && ((ClassType_c) t).hasExactAncestors();
+        }
+        a = new Ancestors(types, exact, changes);
+
+        // Don't keep the set if a class changed while computing it.
+        if (changes == ts.classChanges()) {
+            ancestors = a;
+        }
+        return a;
+    }
+
+    /**
+     * Return true if the class types this class descends from are exactly
+     * the ones found by following {@code superType()} and
+     * {@code interfaces()}, i.e., if subtyping cannot relate it to other
+     * class types, e.g., through its raw class or by wildcard containment.
+     */
+    protected boolean hasExactAncestors() {
+        return false;
+    }
+
+    /**
+     * Return whether this class is a proper subtype of {@code ancestor},
+     * answered from the ancestors of this class alone, or null if they
+     * cannot tell.
+     */
+    protected Boolean descendsFromAncestors(Type ancestor) {
+        if (!(ancestor instanceof ClassType_c)
+                || !((ClassType_c) ancestor).hasExactAncestors()) {
+            return null;
+        }
+
+        Ancestors a = ancestorRecord();
+        if (a == null || !a.exact) {
+            return null;
+        }
+        return a.types.contains(ancestor);
+    }
+
+    /**
+     * Return whether this class is a subtype of {@code ancestor}, answered
+     * from the ancestors of this class alone, or null if they cannot tell.
+     * Once the ancestors are computed, this neither locks nor allocates, so
+     * {@code SubtypeSet} calls it before asking the type system.
+     */
+    public Boolean isSubtypeFromAncestors(Type ancestor) {
+        if (this == ancestor) {
+            return Boolean.TRUE;
+        }
+        return descendsFromAncestors(ancestor);
+    }
+
+    /**
+     * Return the record of the ancestors of this class, or null if they
+     * cannot be computed.  A record that is still valid is returned without
+     * allocating.
+     */
+    protected Ancestors ancestorRecord() {
+        Ancestors a = ancestors;
+        if (a != null && a.classChanges == ts.classChanges()) {
+            return a;
+        }
+        return ancestorRecord(Collections.newSetFromMap(new IdentityHashMap<ClassType_c, Boolean>()));
+    }
+
+    /** Compute the proper supertypes of this class, or return null. */
+    protected Set<Type> computeAncestors(Set<ClassType_c> visiting) {
+        if (ts.typeEquals(this, ts.Object())) {
+            return Collections.emptySet();
+        }
+
+        Set<Type> types = new HashSet<>();
+        types.add(ts.Object());
+
+        if (!flags().isInterface()) {
+            if (superType() == null) {
+                // Mirror descendsFromImpl: such a class descends only from
+                // Object.
+                return Collections.unmodifiableSet(types);
+            }
+            if (!addAncestors(superType(), types, visiting)) {
+                return null;
+            }
+        }
+
+        for (Type t : interfaces()) {
+            if (!addAncestors(t, types, visiting)) {
+                return null;
+            }
+        }
+
+        return Collections.unmodifiableSet(types);
+    }
+
+    /**
+     * Add {@code t} and its proper supertypes to {@code types}, returning
+     * false if they cannot be computed.
+     */
+    protected boolean addAncestors(Type t, Set<Type> types,
+            Set<ClassType_c> visiting) {
+        if (!(t instanceof ClassType_c) || !t.isCanonical()) {
+            return false;
+        }
+        Set<Type> tAncestors = ((ClassType_c) t).ancestors(visiting);
+        if (tAncestors == null) {
+            return false;
+        }
+        types.add(t);
+        types.addAll(tAncestors);
+        return true;
+    }
+
     @Override
     public boolean descendsFromImpl(Type ancestor) {
         if (!ancestor.isCanonical()) {
@@ -272,6 +466,11 @@ public abstract class ClassType_c extends ReferenceType_c implements ClassType {
             return true;
         }
 
+        Set<Type> ancestors = ancestors();
+        if (ancestors != null && ancestors.contains(ancestor)) {
+            return true;
+        }
+
         // Check subtype relation for classes.
         if (!flags().isInterface()) {
             if (ts.typeEquals(this, ts.Object())) {
@@ -26,15 +26,25 @@
 
 package polyglot.types;
 
+import java.util.List;
+
+import polyglot.util.TypeEncoder;
+
 /**
  * A LazyClassInitializer is responsible for initializing members of a class
  * after it has been created. Members are initialized lazily to correctly handle
  * cyclic dependencies between classes.
+ *
+ * If the members of the class were encoded separately from the class, each
+ * kind of member is decoded the first time it is needed.
  */
 public class DeserializedClassInitializer implements LazyClassInitializer {
     protected TypeSystem ts;
     protected ParsedClassType ct;
     protected boolean init;
+    protected byte[] encodedMethods;
+    protected byte[] encodedFields;
+    protected byte[] encodedConstructors;
 
     public DeserializedClassInitializer(TypeSystem ts) {
         this.ts = ts;
@@ -45,6 +55,14 @@ public class DeserializedClassInitializer implements LazyClassInitializer {
         this.ct = ct;
     }
 
+    /** Set the members of the class to decode when first needed. */
+    public void setEncodedMembers(byte[] methods, byte[] fields,
+            byte[] constructors) {
+        this.encodedMethods = methods;
+        this.encodedFields = fields;
+        this.encodedConstructors = constructors;
+    }
+
     @Override
     public boolean fromClassFile() {
         return false;
@@ -82,14 +100,40 @@ public class DeserializedClassInitializer implements LazyClassInitializer {
 
     @Override
     public void initConstructors() {
+        synchronized (ts) {
+            if (encodedConstructors == null) return;
+            List<ConstructorInstance> l =
+                    decodeMembers(encodedConstructors, "constructors");
+            ct.setConstructors(l);
+            encodedConstructors = null;
+        }
     }
 
     @Override
     public void initMethods() {
+        synchronized (ts) {
+            if (encodedMethods == null) return;
+            List<MethodInstance> l = decodeMembers(encodedMethods, "methods");
+            ct.setMethods(l);
+            encodedMethods = null;
+        }
     }
 
     @Override
     public void initFields() {
+        synchronized (ts) {
+            if (encodedFields == null) return;
+            List<FieldInstance> l = decodeMembers(encodedFields, "fields");
+            ct.setFields(l);
+            encodedFields = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T extends MemberInstance> List<T> decodeMembers(byte[] b,
+            String what) {
+        return (List<T>) new TypeEncoder(ts).decodeMembers(b, what + " of "
+                + ct);
     }
 
     @Override
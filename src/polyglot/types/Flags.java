@@ -27,11 +27,15 @@
 package polyglot.types;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import polyglot.util.Copy;
 import polyglot.util.InternalCompilerError;
@@ -42,6 +46,11 @@ import polyglot.util.SerialVersionUID;
  * {@code Flags} is an immutable set of class, method, or field modifiers.
  * We represent package scope as the absence of private, public and protected
  * scope modifiers.
+ *
+ * The first 64 flags created are represented by the bits of a {@code long},
+ * any others by a set of names.  The sorted set of the names of all the
+ * flags, which is what is serialized, is shared by all {@code Flags} with
+ * the same bits.
  */
 public class Flags implements Serializable, Copy<Flags> {
     private static final long serialVersionUID = SerialVersionUID.generate();
@@ -49,6 +58,18 @@ public class Flags implements Serializable, Copy<Flags> {
     protected Set<String> flags;
     protected Position position;
 
+    /** The flags that have a bit, valid if decoded is true. */
+    protected transient long bits;
+
+    /** The flags that have no bit, or null if none. */
+    protected transient Set<String> overflow;
+
+    /**
+     * Whether bits and overflow have been computed from flags.  Volatile so
+     * that a thread that sees it set also sees bits and overflow.
+     */
+    protected transient volatile boolean decoded;
+
     protected static class FlagComparator implements Comparator<String>,
             Serializable {
         private static final long serialVersionUID =
@@ -57,6 +78,16 @@ public class Flags implements Serializable, Copy<Flags> {
         protected static Map<String, Integer> ordering = new HashMap<>();
         protected static Map<Integer, String> revOrdering = new HashMap<>();
 
+        /** The bits of the flags that have one, by name. */
+        protected static Map<String, Integer> bitForName = new HashMap<>();
+
+        /** The names of the flags that have a bit, by bit. */
+        protected static List<String> nameForBit = new ArrayList<>();
+
+        /** The sorted sets of flag names, by bits. */
+        protected static Map<Long, Set<String>> namesForBits =
+                new ConcurrentHashMap<>();
+
         @Override
         public int compare(String o1, String o2) {
             if (ordering.containsKey(o1) && ordering.containsKey(o2))
@@ -107,12 +138,20 @@ public class Flags implements Serializable, Copy<Flags> {
         return new Flags(name);
     }
 
-    public static void addToOrder(String name, Flags after) {
+    public static synchronized void addToOrder(String name, Flags after) {
         Map<String, Integer> ordering = FlagComparator.ordering;
         Map<Integer, String> revOrdering = FlagComparator.revOrdering;
         if (ordering.containsKey(name))
             throw new InternalCompilerError("Flag " + name + " already added.");
 
+        if (FlagComparator.nameForBit.size() < Long.SIZE) {
+            FlagComparator.bitForName.put(name,
+                                          FlagComparator.nameForBit.size());
+            FlagComparator.nameForBit.add(name);
+        }
+        // The order of the names may change.
+        FlagComparator.namesForBits.clear();
+
         int index;
         if (after == null)
             index = ordering.size() + 1;
@@ -138,17 +177,96 @@ public class Flags implements Serializable, Copy<Flags> {
      * Effects: returns a new access flags object with no access flags set.
      */
     protected Flags() {
-        this.flags = new TreeSet<>(FlagComparator.instance);
-        position = Position.compilerGenerated();
+        this(0L, null);
     }
 
     protected Flags(String name) {
-        this();
-        flags.add(name);
+        this(0L, null);
+        Integer bit = FlagComparator.bitForName.get(name);
+        if (bit != null) {
+            init(1L << bit, null);
+        }
+        else {
+            init(0L, Collections.singleton(name));
+        }
+    }
+
+    /**
+     * Create flags with the given bits and the flags named in
+     * {@code overflow}, which must not be modified afterward.
+     */
+    protected Flags(long bits, Set<String> overflow) {
+        init(bits, overflow);
+        position = Position.compilerGenerated();
+    }
+
+    private void init(long bits, Set<String> overflow) {
+        if (overflow != null && overflow.isEmpty()) overflow = null;
+        this.bits = bits;
+        this.overflow = overflow;
+        this.flags = names(bits, overflow);
+        this.decoded = true;
+    }
+
+    /**
+     * Return the sorted set of the names of the flags with the given bits
+     * and of the flags in {@code overflow}.
+     */
+    protected static Set<String> names(long bits, Set<String> overflow) {
+        Set<String> names =
+                overflow == null ? FlagComparator.namesForBits.get(bits)
+                        : null;
+        if (names == null) {
+            names = new TreeSet<>(FlagComparator.instance);
+            for (long b = bits; b != 0; b &= b - 1) {
+                names.add(FlagComparator.nameForBit.get(Long.numberOfTrailingZeros(b)));
+            }
+            if (overflow != null) {
+                names.addAll(overflow);
+            }
+            else {
+                FlagComparator.namesForBits.put(bits, names);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Compute bits and overflow from flags, for flags that were
+     * deserialized.
+     */
+    protected void decode() {
+        long bits = 0;
+        Set<String> overflow = null;
+        for (String name : flags) {
+            Integer bit = FlagComparator.bitForName.get(name);
+            if (bit != null) {
+                bits |= 1L << bit;
+            }
+            else {
+                if (overflow == null) overflow = new TreeSet<>();
+                overflow.add(name);
+            }
+        }
+        this.bits = bits;
+        this.overflow = overflow;
+        this.decoded = true;
+    }
+
+    /** The flags that have a bit. */
+    protected long bits() {
+        if (!decoded) decode();
+        return bits;
+    }
+
+    /** The flags that have no bit, or null if none. */
+    protected Set<String> overflow() {
+        if (!decoded) decode();
+        return overflow;
     }
 
     public Set<String> flags() {
-        return this.flags;
+        return Collections.unmodifiableSet(this.flags);
     }
 
     public Position position() {
@@ -186,9 +304,17 @@ public class Flags implements Serializable, Copy<Flags> {
      * Create new flags with the flags in {@code other} also set.
      */
     public Flags set(Flags other) {
-        Flags f = new Flags();
-        f.flags.addAll(this.flags);
-        f.flags.addAll(other.flags);
+        Set<String> overflow = this.overflow();
+        if (other.overflow() != null) {
+            if (overflow == null) {
+                overflow = other.overflow();
+            }
+            else {
+                overflow = new TreeSet<>(overflow);
+                overflow.addAll(other.overflow());
+            }
+        }
+        Flags f = new Flags(this.bits() | other.bits(), overflow);
 
         Position start = Position.first(position, other.position);
         Position end = Position.last(position, other.position);
@@ -207,31 +333,43 @@ public class Flags implements Serializable, Copy<Flags> {
      * Create new flags with the flags in {@code other} cleared.
      */
     public Flags clear(Flags other) {
-        Flags f = new Flags();
-        f.flags.addAll(this.flags);
-        f.flags.removeAll(other.flags);
-        f.position = Position.compilerGenerated();
-        return f;
+        Set<String> overflow = this.overflow();
+        if (overflow != null && other.overflow() != null) {
+            overflow = new TreeSet<>(overflow);
+            overflow.removeAll(other.overflow());
+        }
+        return new Flags(this.bits() & ~other.bits(), overflow);
     }
 
     /**
      * Create new flags with only flags in {@code other} set.
      */
     public Flags retain(Flags other) {
-        Flags f = new Flags();
-        f.flags.addAll(this.flags);
-        f.flags.retainAll(other.flags);
-        f.position = Position.compilerGenerated();
-        return f;
+        Set<String> overflow = this.overflow();
+        if (overflow != null) {
+            if (other.overflow() == null) {
+                overflow = null;
+            }
+            else {
+                overflow = new TreeSet<>(overflow);
+                overflow.retainAll(other.overflow());
+            }
+        }
+        return new Flags(this.bits() & other.bits(), overflow);
     }
 
     /**
      * Check if <i>any</i> flags in {@code other} are set.
      */
     public boolean intersects(Flags other) {
-        for (String name : this.flags) {
-            if (other.flags.contains(name)) {
-                return true;
+        if ((this.bits() & other.bits()) != 0) {
+            return true;
+        }
+        if (this.overflow() != null && other.overflow() != null) {
+            for (String name : this.overflow()) {
+                if (other.overflow().contains(name)) {
+                    return true;
+                }
             }
         }
         return false;
@@ -241,7 +379,14 @@ public class Flags implements Serializable, Copy<Flags> {
      * Check if <i>all</i> flags in {@code other} are set.
      */
     public boolean contains(Flags other) {
-        return this.flags.containsAll(other.flags);
+        if ((other.bits() & ~this.bits()) != 0) {
+            return false;
+        }
+        if (other.overflow() == null) {
+            return true;
+        }
+        return this.overflow() != null
+                && this.overflow().containsAll(other.overflow());
     }
 
     /**
@@ -578,15 +723,23 @@ public class Flags implements Serializable, Copy<Flags> {
 
     @Override
     public int hashCode() {
-        return flags.hashCode();
+        int h = (int) (bits() ^ (bits() >>> 32));
+        return overflow() == null ? h : h + overflow().hashCode();
     }
 
     @Override
     public boolean equals(Object o) {
-        return o instanceof Flags && flags.equals(((Flags) o).flags);
+        if (o instanceof Flags) {
+            Flags that = (Flags) o;
+            return this.bits() == that.bits()
+                    && (this.overflow() == null
+                            ? that.overflow() == null
+                            : this.overflow().equals(that.overflow()));
+        }
+        return false;
     }
 
     public boolean isEmpty() {
-        return flags.isEmpty();
+        return bits() == 0 && overflow() == null;
     }
 }
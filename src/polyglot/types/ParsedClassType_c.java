@@ -27,12 +27,15 @@
 package polyglot.types;
 
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import polyglot.frontend.Job;
 import polyglot.frontend.Source;
@@ -41,6 +44,7 @@ import polyglot.util.InternalCompilerError;
 import polyglot.util.Position;
 import polyglot.util.SerialVersionUID;
 import polyglot.util.TypeInputStream;
+import polyglot.util.TypeOutputStream;
 
 /**
  * ParsedClassType
@@ -69,6 +73,25 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
 
     protected transient List<ClassType> memberClasses;
 
+    /**
+     * Indexes of the methods, fields, and member classes by name, built
+     * lazily and discarded whenever a member is added or the members are
+     * replaced.  The lists of methods are immutable.  An index is built while
+     * holding the type system's monitor, like lazy member initialization,
+     * and is never modified once published, so that passes on other threads
+     * may read it.
+     */
+    protected transient volatile Map<String, List<MethodInstance>> methodsByName;
+    protected transient volatile Map<String, FieldInstance> fieldsByName;
+    protected transient volatile Map<String, ClassType> memberClassesByName;
+
+    /**
+     * Whether the methods or supertypes of this class have been looked up.
+     * Changes after that are reported to the type system, which may have
+     * cached information derived from them.
+     */
+    protected transient boolean membersObserved;
+
     public LazyClassInitializer init() {
         return init;
     }
@@ -166,6 +189,7 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     @Override
     public Type superType() {
         init.initSuperclass();
+        membersObserved = true;
         return this.superType;
     }
 
@@ -185,11 +209,13 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     @Override
     public void setFlags(Flags flags) {
         this.flags = flags;
+        membersChanged();
     }
 
     @Override
     public void flags(Flags flags) {
         this.flags = flags;
+        membersChanged();
     }
 
     @Override
@@ -234,16 +260,20 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     @Override
     public void superType(Type t) {
         this.superType = t;
+        membersChanged();
     }
 
     @Override
     public void addInterface(ReferenceType t) {
         interfaces.add(t);
+        membersChanged();
     }
 
     @Override
     public void addMethod(MethodInstance mi) {
         methods.add(mi);
+        methodsByName = null;
+        membersChanged();
     }
 
     @Override
@@ -254,26 +284,47 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     @Override
     public void addField(FieldInstance fi) {
         fields.add(fi);
+        fieldsByName = null;
     }
 
     @Override
     public void addMemberClass(ClassType t) {
         memberClasses.add(t);
+        memberClassesByName = null;
     }
 
     @Override
     public void setInterfaces(List<? extends ReferenceType> l) {
         this.interfaces = new ArrayList<>(l);
+        membersChanged();
     }
 
     @Override
     public void setMethods(List<? extends MethodInstance> l) {
         this.methods = new ArrayList<>(l);
+        this.methodsByName = null;
+        membersChanged();
+    }
+
+    /**
+     * Report a change to the methods, supertypes, or flags of this class to
+     * the type system, if they have been looked up.
+     */
+    protected void membersChanged() {
+        if (membersObserved) {
+            ts.classChanged(this);
+        }
+    }
+
+    @Override
+    protected boolean hasExactAncestors() {
+        return true;
     }
 
     @Override
     public void setFields(List<? extends FieldInstance> l) {
         this.fields = new ArrayList<>(l);
+        this.fieldsByName = null;
     }
 
     @Override
@@ -284,6 +335,7 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     @Override
     public void setMemberClasses(List<? extends ClassType> l) {
         this.memberClasses = new ArrayList<>(l);
+        this.memberClassesByName = null;
     }
 
     @Override
@@ -315,6 +367,7 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     public List<? extends MethodInstance> methods() {
         init.initMethods();
         init.canonicalMethods();
+        membersObserved = true;
         return Collections.unmodifiableList(methods);
     }
 
@@ -325,16 +378,22 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
         // methods are canonical, just that the particular method
         // returned is canonical.
         init.initMethods();
+        membersObserved = true;
 
-        List<MethodInstance> l = new LinkedList<>();
+        Map<String, List<MethodInstance>> index = methodsByName;
+        if (index == null) {
+            index = indexMethods();
+        }
 
-        for (MethodInstance mi : methods) {
-            if (mi.name().equals(name)) {
-                if (!mi.isCanonical()) {
-                    // Force an exception to get thrown.
-                    init.canonicalMethods();
-                }
-                l.add(mi);
+        List<MethodInstance> l = index.get(name);
+        if (l == null) {
+            return Collections.emptyList();
+        }
+
+        for (MethodInstance mi : l) {
+            if (!mi.isCanonical()) {
+                // Force an exception to get thrown.
+                init.canonicalMethods();
             }
         }
 
@@ -359,23 +418,97 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
         // in Jx or Jif.
         init.initFields();
 
-        for (FieldInstance fi : fields) {
-            if (fi.name().equals(name)) {
-                if (!fi.isCanonical()) {
-                    // Force an exception to get thrown.
-                    init.canonicalFields();
+        Map<String, FieldInstance> index = fieldsByName;
+        if (index == null) {
+            index = indexFields();
+        }
+
+        FieldInstance fi = index.get(name);
+        if (fi != null && !fi.isCanonical()) {
+            // Force an exception to get thrown.
+            init.canonicalFields();
+        }
+
+        return fi;
+    }
+
+    /** Get a member class of the class by name. */
+    @Override
+    public ClassType memberClassNamed(String name) {
+        init.initMemberClasses();
+
+        Map<String, ClassType> index = memberClassesByName;
+        if (index == null) {
+            index = indexMemberClasses();
+        }
+
+        return index.get(name);
+    }
+
+    /** Build and publish the index of the methods by name. */
+    protected Map<String, List<MethodInstance>> indexMethods() {
+        synchronized (ts) {
+            Map<String, List<MethodInstance>> index = methodsByName;
+            if (index != null) return index;
+
+            Map<String, List<MethodInstance>> m = new HashMap<>();
+            for (MethodInstance mi : methods) {
+                List<MethodInstance> l = m.get(mi.name());
+                if (l == null) {
+                    l = new ArrayList<>(1);
+                    m.put(mi.name(), l);
                 }
-                return fi;
+                l.add(mi);
+            }
+            index = new HashMap<>();
+            for (Map.Entry<String, List<MethodInstance>> e : m.entrySet()) {
+                index.put(e.getKey(),
+                          Collections.unmodifiableList(e.getValue()));
             }
+            methodsByName = index;
+            return index;
         }
+    }
+
+    /** Build and publish the index of the fields by name. */
+    protected Map<String, FieldInstance> indexFields() {
+        synchronized (ts) {
+            Map<String, FieldInstance> index = fieldsByName;
+            if (index != null) return index;
 
-        return null;
+            index = new HashMap<>();
+            for (FieldInstance fi : fields) {
+                if (!index.containsKey(fi.name())) {
+                    index.put(fi.name(), fi);
+                }
+            }
+            fieldsByName = index;
+            return index;
+        }
+    }
+
+    /** Build and publish the index of the member classes by name. */
+    protected Map<String, ClassType> indexMemberClasses() {
+        synchronized (ts) {
+            Map<String, ClassType> index = memberClassesByName;
+            if (index != null) return index;
+
+            index = new HashMap<>();
+            for (ClassType t : memberClasses) {
+                if (!index.containsKey(t.name())) {
+                    index.put(t.name(), t);
+                }
+            }
+            memberClassesByName = index;
+            return index;
+        }
     }
 
     /** Return an immutable list of interfaces */
     @Override
     public List<? extends ReferenceType> interfaces() {
         init.initInterfaces();
+        membersObserved = true;
         return Collections.unmodifiableList(interfaces);
     }
 
@@ -514,6 +647,10 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
      * When serializing, write out the place holder as well as the object itself.
      * This should be done in TypeOutputStream, not here, but I couldn't get it working.
      * --Nate
+     *
+     * A compact stream is also given the members encoded separately, or null
+     * if they are written with the rest of the class, followed by the class
+     * descriptors used in the members.
      */
     private void writeObject(ObjectOutputStream out) throws IOException {
         // If you update this method in an incompatible way, increment
@@ -527,7 +664,38 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
         else {
             out.writeBoolean(false);
         }
-        out.defaultWriteObject();
+
+        List<MethodInstance> methods = this.methods;
+        List<FieldInstance> fields = this.fields;
+        List<ConstructorInstance> constructors = this.constructors;
+
+        if (out instanceof TypeOutputStream
+                && ((TypeOutputStream) out).compact()) {
+            TypeOutputStream tout = (TypeOutputStream) out;
+            byte[][] encodedMembers = null;
+            if (tout.lazyMembers()) {
+                encodedMembers =
+                        new byte[][] { tout.encodeMembers(methods),
+                                tout.encodeMembers(fields),
+                                tout.encodeMembers(constructors) };
+                this.methods = new ArrayList<>();
+                this.fields = new ArrayList<>();
+                this.constructors = new ArrayList<>();
+            }
+            out.writeObject(encodedMembers);
+            if (encodedMembers != null) {
+                tout.writeMemberDescriptors();
+            }
+        }
+
+        try {
+            out.defaultWriteObject();
+        }
+        finally {
+            this.methods = methods;
+            this.fields = fields;
+            this.constructors = constructors;
+        }
     }
 
     @SuppressWarnings("unused")
@@ -556,6 +724,22 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
             init = tin.getTypeSystem().deserializedClassInitializer();
             init.setClass(this);
 
+            if (tin.compact()) {
+                byte[][] encodedMembers = (byte[][]) tin.readObject();
+                if (encodedMembers != null) {
+                    if (!(init instanceof DeserializedClassInitializer)) {
+                        throw new InvalidClassException(getClass().getName(),
+                                                        "members are encoded lazily");
+                    }
+                    // Reject incompatible classes now rather than when the
+                    // members are decoded.
+                    tin.readMemberDescriptors();
+                    ((DeserializedClassInitializer) init).setEncodedMembers(encodedMembers[0],
+                                                                            encodedMembers[1],
+                                                                            encodedMembers[2]);
+                }
+            }
+
             membersAdded = true;
             supertypesResolved = true;
             signaturesResolved = true;
@@ -28,13 +28,19 @@ package polyglot.types;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Set;
 
+import polyglot.frontend.Compiler;
+import polyglot.frontend.DependencyIndex;
 import polyglot.frontend.ExtensionInfo;
+import polyglot.frontend.Job;
 import polyglot.main.Report;
 import polyglot.util.CollectionUtil;
 import polyglot.util.Pair;
+import polyglot.util.Predicate;
 import polyglot.util.StringUtil;
 import polyglot.util.Transformation;
 import polyglot.util.TransformingList;
@@ -45,6 +51,11 @@ import polyglot.util.TransformingList;
  */
 public class SystemResolver extends CachingResolver implements TopLevelResolver {
     protected Map<String, Boolean> packageCache;
+    /**
+     * The names of the packages of the importable objects installed in the
+     * cache, and all their prefixes.
+     */
+    protected Set<String> cachedPackages;
     protected ExtensionInfo extInfo;
     protected SystemResolver previous;
     protected Collection<Pair<String, Named>> justAdded;
@@ -57,6 +68,7 @@ public class SystemResolver extends CachingResolver implements TopLevelResolver
         super(inner);
         this.extInfo = extInfo;
         this.packageCache = new HashMap<>();
+        this.cachedPackages = new HashSet<>();
         this.previous = null;
         this.justAdded = new LinkedList<>();
     }
@@ -65,52 +77,104 @@ public class SystemResolver extends CachingResolver implements TopLevelResolver
         return previous;
     }
 
+    /**
+     * The monitor guarding this resolver.  Passes for different jobs may run
+     * concurrently, so lookups and installations synchronize on the type
+     * system, which also guards the lazy initialization of types loaded from
+     * class files.
+     */
+    protected Object lock() {
+        return extInfo.typeSystem();
+    }
+
+    /**
+     * The dependency index recording the names looked up by the job being
+     * compiled, or null if the compilation is not incremental.
+     */
+    protected DependencyIndex dependencyIndex() {
+        Compiler compiler = extInfo.compiler();
+        return compiler != null ? compiler.dependencyIndex() : null;
+    }
+
+    /**
+     * Record in the dependency index, if any, that the job being compiled
+     * looked up {@code name}.
+     */
+    protected void addUse(String name) {
+        DependencyIndex index = dependencyIndex();
+        if (index != null) {
+            Job job = extInfo.scheduler().currentJob();
+            if (job != null) {
+                index.addUse(job.source(), name);
+            }
+        }
+    }
+
     @Override
     public SystemResolver copy() {
         SystemResolver r = (SystemResolver) super.copy();
         r.packageCache = new HashMap<>(this.packageCache);
+        r.cachedPackages = new HashSet<>(this.cachedPackages);
         r.previous = this;
         r.justAdded = new LinkedList<>();
         return r;
     }
 
+    /**
+     * Return a copy of this resolver holding only the objects that
+     * {@code keep} accepts, to be installed with {@link #installAll} in the
+     * resolver of a later compilation using the same type system.  The
+     * snapshot keeps no reference to this resolver or to the resolver it
+     * looks names up in, and must not itself be used to find names.
+     */
+    public SystemResolver snapshot(Predicate<Named> keep) {
+        SystemResolver r = copy();
+        r.inner = null;
+        r.previous = null;
+        r.packageCache = new HashMap<>();
+        r.cachedPackages = new HashSet<>();
+        r.retain(keep);
+        return r;
+    }
+
     public void installInAll(String name, Named n) {
-        this.install(name, n);
-        if (previous != null) {
-            previous.installInAll(name, n);
+        synchronized (lock()) {
+            this.install(name, n);
+            if (previous != null) {
+                previous.installInAll(name, n);
+            }
         }
     }
 
     public boolean installedInAll(String name, Named q) {
-        if (check(name) != q) {
-            return false;
-        }
-        if (previous != null) {
-            return previous.installedInAll(name, q);
+        synchronized (lock()) {
+            if (check(name) != q) {
+                return false;
+            }
+            if (previous != null) {
+                return previous.installedInAll(name, q);
+            }
+            return true;
         }
-        return true;
     }
 
     /** Check if a package exists in the resolver cache. */
     protected boolean packageExistsInCache(String name) {
-        for (CachedResult cr : cachedResults()) {
-            if (!(cr instanceof CachedResult.Success)) continue;
-
-            Named named = ((CachedResult.Success) cr).named;
-            if (named instanceof Importable) {
-                Importable im = (Importable) named;
-                if (im.package_() != null
-                        && im.package_().fullName() != null
-                        && (im.package_().fullName().equals(name) || im.package_()
-                                                                       .fullName()
-                                                                       .startsWith(name
-                                                                               + "."))) {
-                    return true;
-                }
-            }
-        }
+        return cachedPackages.contains(name);
+    }
+
+    /**
+     * Record the package of {@code q}, if any, and its prefixes as existing
+     * in the resolver cache.
+     */
+    protected void indexPackage(Named q) {
+        if (!(q instanceof Importable)) return;
 
-        return false;
+        Package p = ((Importable) q).package_();
+        String name = p != null ? p.fullName() : null;
+        while (name != null && !name.equals("") && cachedPackages.add(name)) {
+            name = StringUtil.getPackageComponent(name);
+        }
     }
 
     /**
@@ -118,37 +182,55 @@ public class SystemResolver extends CachingResolver implements TopLevelResolver
      */
     @Override
     public boolean packageExists(String name) {
-        Boolean b = packageCache.get(name);
-        if (b != null) {
-            return b;
+        boolean exists = findPackage(name);
+
+        // A new source file may create the package; packages that exist
+        // need not be recorded, since their classes are.
+        if (!exists) {
+            addUse(name);
         }
-        else {
-            String prefix = StringUtil.getPackageComponent(name);
 
-            if (packageCache.containsKey(prefix) && !packageCache.get(prefix)) {
-                packageCache.put(name, false);
-                return false;
-            }
+        return exists;
+    }
 
-            boolean exists;
-            exists = packageExistsInCache(name);
-            if (!exists) {
-                exists = ((TopLevelResolver) inner).packageExists(name);
+    /**
+     * Check if a package exists, caching the answer.
+     */
+    protected boolean findPackage(String name) {
+        synchronized (lock()) {
+            Boolean b = packageCache.get(name);
+            if (b != null) {
+                return b;
             }
+            else {
+                String prefix = StringUtil.getPackageComponent(name);
 
-            if (exists) {
-                packageCache.put(name, true);
+                if (packageCache.containsKey(prefix)
+                        && !packageCache.get(prefix)) {
+                    packageCache.put(name, false);
+                    return false;
+                }
 
-                do {
-                    packageCache.put(prefix, true);
-                    prefix = StringUtil.getPackageComponent(prefix);
-                } while (!prefix.equals(""));
-            }
-            else {
-                packageCache.put(name, false);
-            }
+                boolean exists;
+                exists = packageExistsInCache(name);
+                if (!exists) {
+                    exists = ((TopLevelResolver) inner).packageExists(name);
+                }
 
-            return exists;
+                if (exists) {
+                    packageCache.put(name, true);
+
+                    do {
+                        packageCache.put(prefix, true);
+                        prefix = StringUtil.getPackageComponent(prefix);
+                    } while (!prefix.equals(""));
+                }
+                else {
+                    packageCache.put(name, false);
+                }
+
+                return exists;
+            }
         }
     }
 
@@ -186,15 +268,17 @@ public class SystemResolver extends CachingResolver implements TopLevelResolver
      * @throws SemanticException  
      */
     public void putAll(SystemResolver r) throws SemanticException {
-        for (Pair<String, Named> e : r.justAdded) {
-            String name = e.part1();
-            Named n = e.part2();;
+        synchronized (lock()) {
+            for (Pair<String, Named> e : r.justAdded) {
+                String name = e.part1();
+                Named n = e.part2();;
 
-            install(name, n);
+                install(name, n);
 
-            if (n instanceof Package) {
-                Package p = (Package) n;
-                cachePackage(p);
+                if (n instanceof Package) {
+                    Package p = (Package) n;
+                    cachePackage(p);
+                }
             }
         }
     }
@@ -207,61 +291,77 @@ public class SystemResolver extends CachingResolver implements TopLevelResolver
      */
     @Override
     public Named find(String name) throws SemanticException {
-        if (previous == null) {
-            clearAdded();
+        // Record the name even if it is not found: a new source file may
+        // declare it.
+        addUse(name);
+
+        // A name already in the cache can be returned without taking the
+        // lock; justAdded only changes when a name is installed.
+        Named n = check(name);
+        if (n != null) {
+            return n;
         }
 
-        Named n = super.find(name);
+        synchronized (lock()) {
+            if (previous == null) {
+                clearAdded();
+            }
+
+            n = super.find(name);
 
-        if (previous == null) {
-            if (Report.should_report(TOPICS, 2))
-                Report.report(2, "Returning from root-level SR.find(" + name
-                        + "); added = " + justAdded);
+            if (previous == null) {
+                if (Report.should_report(TOPICS, 2))
+                    Report.report(2, "Returning from root-level SR.find(" + name
+                            + "); added = " + justAdded);
 
-            /*
-              for (Iterator i = justAdded.iterator(); i.hasNext(); ) {
-                  Named n2 = (Named) i.next();
-                  if (n2 instanceof ParsedTypeObject) {
-                      if (! ((ParsedTypeObject) n2).initializer().isTypeObjectInitialized()) {
-                          throw new InternalCompilerError(n + " is in the root system resolver, but not initialized");
+                /*
+                  for (Iterator i = justAdded.iterator(); i.hasNext(); ) {
+                      Named n2 = (Named) i.next();
+                      if (n2 instanceof ParsedTypeObject) {
+                          if (! ((ParsedTypeObject) n2).initializer().isTypeObjectInitialized()) {
+                              throw new InternalCompilerError(n + " is in the root system resolver, but not initialized");
+                          }
                       }
                   }
-              }
-              */
+                  */
 
-            clearAdded();
-        }
-        else {
-            if (Report.should_report(TOPICS, 2))
-                Report.report(2, "Returning from non-root-level SR.find("
-                        + name + "); added = " + justAdded);
-        }
+                clearAdded();
+            }
+            else {
+                if (Report.should_report(TOPICS, 2))
+                    Report.report(2, "Returning from non-root-level SR.find("
+                            + name + "); added = " + justAdded);
+            }
 
-        return n;
+            return n;
+        }
     }
 
     @Override
     public void install(String name, Named q) {
-        if (Report.should_report(TOPICS, 2) && check(name) == null)
-            Report.report(2,
-                          (previous == null ? "root" : "non-root")
-                                  + " SR installing " + name + "->" + q + " : "
-                                  + q.getClass());
-
-        super.install(name, q);
-
-        if (previous == null) {
-            if (q instanceof ParsedTypeObject) {
-                if (!((ParsedTypeObject) q).initializer()
-                                           .isTypeObjectInitialized()) {
-                    if (Report.should_report(TOPICS, 2))
-                        Report.report(2, "SR initializing " + q);
-                    ((ParsedTypeObject) q).initializer().initTypeObject();
+        synchronized (lock()) {
+            if (Report.should_report(TOPICS, 2) && check(name) == null)
+                Report.report(2,
+                              (previous == null ? "root" : "non-root")
+                                      + " SR installing " + name + "->" + q + " : "
+                                      + q.getClass());
+
+            super.install(name, q);
+            indexPackage(q);
+
+            if (previous == null) {
+                if (q instanceof ParsedTypeObject) {
+                    if (!((ParsedTypeObject) q).initializer()
+                                               .isTypeObjectInitialized()) {
+                        if (Report.should_report(TOPICS, 2))
+                            Report.report(2, "SR initializing " + q);
+                        ((ParsedTypeObject) q).initializer().initTypeObject();
+                    }
                 }
             }
-        }
-        else {
-            justAdded.add(new Pair<>(name, q));
+            else {
+                justAdded.add(new Pair<>(name, q));
+            }
         }
     }
 
@@ -272,47 +372,57 @@ public class SystemResolver extends CachingResolver implements TopLevelResolver
      */
     @Override
     public void addNamed(String name, Named q) throws SemanticException {
-        super.addNamed(name, q);
-
-        if (q instanceof ClassType) {
-            ClassType ct = (ClassType) q;
-            String containerName = StringUtil.getPackageComponent(name);
-            if (ct.isTopLevel()) {
-                Package p = ((ClassType) q).package_();
-                cachePackage(p);
-                if (p != null && containerName.equals(p.fullName())) {
-                    addNamed(containerName, p);
+        synchronized (lock()) {
+            super.addNamed(name, q);
+
+            if (q instanceof ParsedClassType) {
+                ParsedClassType ct = (ParsedClassType) q;
+                DependencyIndex index = dependencyIndex();
+                if (index != null && ct.fromSource() != null) {
+                    index.addDeclaration(ct.fromSource(), name);
                 }
             }
-            else if (ct.isMember()) {
-                if (name.equals(ct.fullName())) {
-                    // Check that the names match; we could be installing
-                    // a member class under its class file name, not its Java
-                    // source full name.
-                    addNamed(containerName, ct.outer());
+
+            if (q instanceof ClassType) {
+                ClassType ct = (ClassType) q;
+                String containerName = StringUtil.getPackageComponent(name);
+                if (ct.isTopLevel()) {
+                    Package p = ((ClassType) q).package_();
+                    cachePackage(p);
+                    if (p != null && containerName.equals(p.fullName())) {
+                        addNamed(containerName, p);
+                    }
+                }
+                else if (ct.isMember()) {
+                    if (name.equals(ct.fullName())) {
+                        // Check that the names match; we could be installing
+                        // a member class under its class file name, not its Java
+                        // source full name.
+                        addNamed(containerName, ct.outer());
+                    }
                 }
             }
-        }
-        else if (q instanceof Package) {
-            Package p = (Package) q;
-            cachePackage(p);
-            String containerName = StringUtil.getPackageComponent(name);
-            if (p.prefix() != null
-                    && containerName.equals(p.prefix().fullName())) {
-                addNamed(containerName, p.prefix());
+            else if (q instanceof Package) {
+                Package p = (Package) q;
+                cachePackage(p);
+                String containerName = StringUtil.getPackageComponent(name);
+                if (p.prefix() != null
+                        && containerName.equals(p.prefix().fullName())) {
+                    addNamed(containerName, p.prefix());
+                }
             }
-        }
 
-        // A package may not contain two members of the same name, or a
-        // compile-time error results.  See JLS 2nd Ed. | 7.1.
-        if (q instanceof ClassType) {
-            ClassType ct = (ClassType) q;
-            Package p = ct.package_();
-            if (p != null && packageExists(name)) {
-                throw new SemanticException("Class \""
-                                                    + q
-                                                    + "\" clashes with package of the same name.",
-                                            q.position());
+            // A package may not contain two members of the same name, or a
+            // compile-time error results.  See JLS 2nd Ed. | 7.1.
+            if (q instanceof ClassType) {
+                ClassType ct = (ClassType) q;
+                Package p = ct.package_();
+                if (p != null && packageExists(name)) {
+                    throw new SemanticException("Class \""
+                                                        + q
+                                                        + "\" clashes with package of the same name.",
+                                                q.position());
+                }
             }
         }
     }
@@ -817,6 +817,30 @@ public interface TypeSystem {
      */
     Set<? extends TypeObject> getTypeEncoderRootSet(TypeObject o);
 
+    /**
+     * Return true if {@code o} must be decoded as a single object wherever it
+     * is referred to from the type information of a class, e.g., because it
+     * is a member of the class.  The members of a class are encoded
+     * separately, to be decoded lazily, only if no such object is shared
+     * between them.
+     */
+    boolean typeEncoderSharesIdentity(TypeObject o);
+
+    /**
+     * Called when the methods, supertypes, or flags of class type {@code ct}
+     * change after they have been looked up, so that information the type
+     * system derived from them, e.g., the result of {@code findMethod}, can
+     * be discarded.
+     */
+    void classChanged(ClassType ct);
+
+    /**
+     * Return the number of calls to {@code classChanged} so far.  Information
+     * derived from the class hierarchy while this number does not change
+     * remains valid.
+     */
+    int classChanges();
+
     /**
      * Get the transformed class name of a class.
      * This utility method returns the "mangled" name of the given class,
@@ -33,11 +33,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import polyglot.ast.JLang_c;
 import polyglot.frontend.ExtensionInfo;
@@ -47,6 +49,7 @@ import polyglot.types.reflect.ClassFile;
 import polyglot.types.reflect.ClassFileLazyClassInitializer;
 import polyglot.util.Copy;
 import polyglot.util.InternalCompilerError;
+import polyglot.util.LRUMap;
 import polyglot.util.Position;
 import polyglot.util.StringUtil;
 import polyglot.util.SubtypeSet;
@@ -57,9 +60,14 @@ import polyglot.util.SubtypeSet;
  *
  * Overview:
  *    A {@code TypeSystem_c} is a universe of types, including all Java types.
+ *
+ * The system resolver guards its own state with the type system's monitor,
+ * which also guards lazy class initialization.  The other caches shared by
+ * all jobs are concurrent maps or guarded by their own locks, so that the
+ * scheduler may run passes for different jobs concurrently.
  */
 public class TypeSystem_c implements TypeSystem {
-    protected SystemResolver systemResolver;
+    protected volatile SystemResolver systemResolver;
     protected TopLevelResolver loadedResolver;
     protected Map<String, Flags> flagsForName;
     protected ExtensionInfo extInfo;
@@ -147,14 +155,14 @@ public class TypeSystem_c implements TypeSystem {
     }
 
     @Override
-    public SystemResolver saveSystemResolver() {
+    public synchronized SystemResolver saveSystemResolver() {
         SystemResolver r = systemResolver;
         systemResolver = r.copy();
         return r;
     }
 
     @Override
-    public void restoreSystemResolver(SystemResolver r) {
+    public synchronized void restoreSystemResolver(SystemResolver r) {
         if (r != systemResolver.previous()) {
             throw new InternalCompilerError("Inconsistent systemResolver.previous");
         }
@@ -192,7 +200,7 @@ public class TypeSystem_c implements TypeSystem {
 
     @Override
     public boolean packageExists(String name) {
-        return systemResolver.packageExists(name);
+        return systemResolver().packageExists(name);
     }
 
     protected void assert_(Collection<? extends TypeObject> l) {
@@ -385,6 +393,12 @@ public class TypeSystem_c implements TypeSystem {
     public boolean descendsFrom(Type child, Type ancestor) {
         assert_(child);
         assert_(ancestor);
+        if (child instanceof ClassType_c) {
+            Boolean b = ((ClassType_c) child).descendsFromAncestors(ancestor);
+            if (b != null) {
+                return b;
+            }
+        }
         return child.descendsFromImpl(ancestor);
     }
 
@@ -415,6 +429,7 @@ public class TypeSystem_c implements TypeSystem {
     public boolean typeEquals(Type type1, Type type2) {
         assert_(type1);
         assert_(type2);
+        if (type1 == type2) return true;
         return type1.typeEqualsImpl(type2);
     }
 
@@ -1067,6 +1082,119 @@ public class TypeSystem_c implements TypeSystem {
         return findMethod(container, name, argTypes, currClass, true);
     }
 
+    /**
+     * The arguments of a call to {@code findMethod}, used as the key of the
+     * method cache.
+     */
+    protected static class MethodLookup {
+        protected final ReferenceType container;
+        protected final String name;
+        protected final List<Type> argTypes;
+        protected final ClassType currClass;
+        protected final boolean fromClient;
+
+        public MethodLookup(ReferenceType container, String name,
+                List<? extends Type> argTypes, ClassType currClass,
+                boolean fromClient) {
+            this.container = container;
+            this.name = name;
+            this.argTypes = new ArrayList<>(argTypes);
+            this.currClass = currClass;
+            this.fromClient = fromClient;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof MethodLookup) {
+                MethodLookup that = (MethodLookup) o;
+                return container.equals(that.container)
+                        && name.equals(that.name)
+                        && argTypes.equals(that.argTypes)
+                        && (currClass == null
+                                ? that.currClass == null
+                                : currClass.equals(that.currClass))
+                        && fromClient == that.fromClient;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return container.hashCode() * 31 + name.hashCode() * 17
+                    + argTypes.hashCode()
+                    + (currClass == null ? 0 : currClass.hashCode())
+                    + (fromClient ? 1 : 0);
+        }
+    }
+
+    /** The maximum number of lookups kept in the method cache. */
+    protected static final int MAX_METHOD_LOOKUPS = 1 << 14;
+
+    /**
+     * A cached result of a query on the type system, and the classes it
+     * depends on.
+     */
+    protected static class CachedResult<T> {
+        protected final T value;
+
+        /**
+         * The classes whose methods, supertypes, or flags may affect the
+         * result, or null if they are not known.
+         */
+        protected final Set<Type> dependencies;
+
+        public CachedResult(T value, Set<Type> dependencies) {
+            this.value = value;
+            this.dependencies = dependencies;
+        }
+
+        public T value() {
+            return value;
+        }
+
+        /** Return true if a change to {@code ct} may affect the result. */
+        public boolean dependsOn(ClassType ct) {
+            return dependencies == null || dependencies.contains(ct);
+        }
+    }
+
+    /**
+     * Remove from {@code cache} the results that depend on {@code ct}.  The
+     * caller must hold the lock of {@code cache}.
+     */
+    protected static void discardDependents(
+            Map<?, ? extends CachedResult<?>> cache, ClassType ct) {
+        for (Iterator<? extends CachedResult<?>> i = cache.values().iterator(); i.hasNext();) {
+            if (i.next().dependsOn(ct)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * The methods found by {@code findMethod}, least recently used first.
+     * When a class whose methods or supertypes were looked up changes, the
+     * lookups that depend on it are discarded.
+     */
+    protected Map<MethodLookup, CachedResult<MethodInstance>> methodCache =
+            new LRUMap<>(MAX_METHOD_LOOKUPS);
+
+    /** The number of calls to {@code classChanged}. */
+    protected volatile int classChanges;
+
+    @Override
+    public int classChanges() {
+        return classChanges;
+    }
+
+    @Override
+    public void classChanged(ClassType ct) {
+        synchronized (methodCache) {
+            classChanges++;
+            discardDependents(methodCache, ct);
+        }
+    }
+
     @Override
     public MethodInstance findMethod(ReferenceType container, String name,
             List<? extends Type> argTypes, ClassType currClass,
@@ -1075,6 +1203,146 @@ public class TypeSystem_c implements TypeSystem {
         assert_(container);
         assert_(argTypes);
 
+        boolean canonical = container.isCanonical();
+        for (Type t : argTypes) {
+            canonical &= t.isCanonical();
+        }
+        if (!canonical) {
+            return lookupMethod(container, name, argTypes, currClass, fromClient);
+        }
+
+        MethodLookup key =
+                new MethodLookup(container, name, argTypes, currClass, fromClient);
+        CachedResult<MethodInstance> cached;
+        int changes;
+        synchronized (methodCache) {
+            cached = methodCache.get(key);
+            changes = classChanges;
+        }
+        if (cached != null) {
+            return cached.value;
+        }
+
+        MethodInstance mi =
+                lookupMethod(container, name, argTypes, currClass, fromClient);
+        cached = new CachedResult<>(mi, methodLookupDependencies(key));
+
+        synchronized (methodCache) {
+            // Don't cache the result if a class changed during the lookup.
+            if (changes == classChanges) {
+                methodCache.put(key, cached);
+            }
+        }
+        return mi;
+    }
+
+    /**
+     * Return the classes whose methods, supertypes, or flags may affect the
+     * result of {@code lookup}: the container, the argument types, the
+     * current class and the classes enclosing it, the formal types of the
+     * methods with the same name in the container, and all their ancestors.
+     * Return null if some of them cannot be determined.
+     */
+    protected Set<Type> methodLookupDependencies(MethodLookup lookup) {
+        Set<Type> deps =
+                Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+
+        if (!addClassDependencies(lookup.container, deps)) {
+            return null;
+        }
+        List<Type> containers = new ArrayList<>(deps);
+        for (Type t : containers) {
+            if (t instanceof ClassType) {
+                for (MethodInstance mi : ((ClassType) t).methodsNamed(lookup.name)) {
+                    for (Type ft : mi.formalTypes()) {
+                        if (!addClassDependencies(ft, deps)) {
+                            return null;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Type t : lookup.argTypes) {
+            if (!addClassDependencies(t, deps)) {
+                return null;
+            }
+        }
+
+        ClassType ct = lookup.currClass;
+        while (ct != null) {
+            if (!addClassDependencies(ct, deps)) {
+                return null;
+            }
+            ct = ct.isNested() ? ct.outer() : null;
+        }
+        return deps;
+    }
+
+    /**
+     * Add to {@code deps} the classes whose supertypes determine how
+     * {@code t} is related to other types: {@code t} itself if it is a
+     * class, and its ancestors.  Return false if they cannot be determined,
+     * e.g., because {@code t} is not a parsed class type.  Types already in
+     * {@code deps} are not visited again.
+     */
+    protected boolean addClassDependencies(Type t, Set<Type> deps) {
+        if (t.isPrimitive() || t.isNull()) {
+            return true;
+        }
+        if (t.isArray()) {
+            return addClassDependencies(t.toArray().base(), deps);
+        }
+        if (!(t instanceof ParsedClassType) || !(t instanceof ClassType_c)) {
+            return false;
+        }
+        if (!deps.add(t)) {
+            return true;
+        }
+        Set<Type> ancestors = ((ClassType_c) t).ancestors();
+        if (ancestors == null) {
+            return false;
+        }
+        for (Type a : ancestors) {
+            if (!addClassDependencies(a, deps)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the classes whose supertypes determine how {@code types} are
+     * related to other types, or null if they cannot be determined.
+     */
+    protected Set<Type> classDependencies(Collection<? extends Type> types) {
+        Set<Type> deps =
+                Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+        return addAllClassDependencies(types, deps) ? deps : null;
+    }
+
+    /**
+     * Add to {@code deps} the class dependencies of each of {@code types},
+     * as {@code addClassDependencies} does.
+     */
+    protected boolean addAllClassDependencies(
+            Collection<? extends Type> types, Set<Type> deps) {
+        for (Type t : types) {
+            if (!addClassDependencies(t, deps)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the method named {@code name} in {@code container} that is
+     * applicable to arguments of types {@code argTypes}, as
+     * {@code findMethod} does, without consulting the method cache.
+     */
+    protected MethodInstance lookupMethod(ReferenceType container,
+            String name, List<? extends Type> argTypes, ClassType currClass,
+            boolean fromClient) throws SemanticException {
         List<? extends MethodInstance> acceptable =
                 findAcceptableMethods(container,
                                       name,
@@ -1989,7 +2257,7 @@ public class TypeSystem_c implements TypeSystem {
         return arrayType(pos, type);
     }
 
-    Map<Type, ArrayType> arrayTypeCache = new HashMap<>();
+    Map<Type, ArrayType> arrayTypeCache = new ConcurrentHashMap<>();
 
     /**
      * Factory method for ArrayTypes.
@@ -2002,7 +2270,8 @@ public class TypeSystem_c implements TypeSystem {
         ArrayType t = arrayTypeCache.get(type);
         if (t == null) {
             t = createArrayType(pos, type);
-            arrayTypeCache.put(type, t);
+            ArrayType prev = arrayTypeCache.putIfAbsent(type, t);
+            if (prev != null) t = prev;
         }
         return t;
     }
@@ -2032,7 +2301,7 @@ public class TypeSystem_c implements TypeSystem {
      * this TypeSystem.  For use only by JavaClass implementations.
      **/
     public Type typeForClass(Class<?> clazz) throws SemanticException {
-        return typeForClass(systemResolver, clazz);
+        return typeForClass(systemResolver(), clazz);
     }
 
     protected Type typeForClass(Resolver resolver, Class<?> clazz)
@@ -2059,6 +2328,11 @@ public class TypeSystem_c implements TypeSystem {
         return Collections.singleton(t);
     }
 
+    @Override
+    public boolean typeEncoderSharesIdentity(TypeObject o) {
+        return o instanceof MemberInstance || o instanceof ParsedClassType;
+    }
+
     @Override
     public String getTransformedClassName(ClassType ct) {
         StringBuffer sb = new StringBuffer(ct.fullName().length());
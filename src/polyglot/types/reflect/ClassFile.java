@@ -83,8 +83,18 @@ public interface ClassFile {
 
     Attribute[] getAttrs();
 
+    /**
+     * Return the constant pool.  This decodes all the constants; use
+     * {@link #getConstant(int)} to access individual constants.
+     */
     Constant[] getConstants();
 
+    /**
+     * Return the constant at {@code index} of the constant pool, or null if
+     * there is none at that index.
+     */
+    Constant getConstant(int index);
+
     Field[] getFields();
 
     InnerClasses getInnerClasses();
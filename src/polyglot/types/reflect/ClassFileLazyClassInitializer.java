@@ -26,6 +26,7 @@
 
 package polyglot.types.reflect;
 
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -52,6 +53,9 @@ import polyglot.util.StringUtil;
  * classfile is modeled according to the Java Virtual Machine Specification.
  * Methods are provided to edit the classfile at a very low level.
  * 
+ * Members are initialized while holding the type system's monitor, since
+ * the type may be shared by passes running concurrently.
+ * 
  * @see polyglot.types.reflect Attribute
  * @see polyglot.types.reflect Constant
  * @see polyglot.types.reflect Field
@@ -61,6 +65,7 @@ import polyglot.util.StringUtil;
  */
 public class ClassFileLazyClassInitializer implements LazyClassInitializer {
     protected ClassFile clazz;
+    protected URI classFileURI;
     protected TypeSystem ts;
     protected ParsedClassType ct;
 
@@ -80,6 +85,7 @@ public class ClassFileLazyClassInitializer implements LazyClassInitializer {
 
     public ClassFileLazyClassInitializer(ClassFile file, TypeSystem ts) {
         this.clazz = file;
+        this.classFileURI = file.getClassFileURI();
         this.ts = ts;
     }
 
@@ -93,6 +99,14 @@ public class ClassFileLazyClassInitializer implements LazyClassInitializer {
         return true;
     }
 
+    /**
+     * The URI of the class file the type is read from.  Unlike the class
+     * file, it is kept once the type is initialized.
+     */
+    public URI classFileURI() {
+        return classFileURI;
+    }
+
     /**
      * Create a position for the class file.
      */
@@ -147,7 +161,7 @@ public class ClassFileLazyClassInitializer implements LazyClassInitializer {
                         String outerName = clazz.classNameCP(c.outerClassIndex);
                         // This will be "J"
                         className =
-                                (String) clazz.getConstants()[c.nameIndex].value();
+                                (String) clazz.getConstant(c.nameIndex).value();
 
                         // Load the outer class.
                         // This will recursively load its outer class, if any.
@@ -326,110 +340,116 @@ public class ClassFileLazyClassInitializer implements LazyClassInitializer {
 
     @Override
     public void initSuperclass() {
-        if (superclassInitialized) {
-            return;
-        }
+        synchronized (ts) {
+            if (superclassInitialized) {
+                return;
+            }
 
-        if (ts.equals(ct, ts.Object())) {
-            ct.superType(null);
-        }
-        else {
-            String superName = clazz.classNameCP(clazz.getSuperClass());
-
-            ClassType superType =
-                    superName == null
-                            ? ts.Object() : quietTypeForName(superName);
-            // For an interface, the value of the super_class item must always
-            // be a valid index into the constant_pool table. The constant_pool
-            // entry at that index must be a CONSTANT_Class_info structure
-            // representing the class Object.
-            // See JVMS 2nd Ed. | 4.1.
-            if (ct.flags().isInterface()) {
-                if (!ts.typeEquals(superType, ts.Object()))
-                    throw new ClassFormatError("The superclass of an interface is not Object.");
+            if (ts.equals(ct, ts.Object())) {
+                ct.superType(null);
+            }
+            else {
+                String superName = clazz.classNameCP(clazz.getSuperClass());
+
+                ClassType superType =
+                        superName == null
+                                ? ts.Object() : quietTypeForName(superName);
+                // For an interface, the value of the super_class item must always
+                // be a valid index into the constant_pool table. The constant_pool
+                // entry at that index must be a CONSTANT_Class_info structure
+                // representing the class Object.
+                // See JVMS 2nd Ed. | 4.1.
+                if (ct.flags().isInterface()) {
+                    if (!ts.typeEquals(superType, ts.Object()))
+                        throw new ClassFormatError("The superclass of an interface is not Object.");
+                }
+                else ct.superType(superType);
             }
-            else ct.superType(superType);
-        }
 
-        superclassInitialized = true;
+            superclassInitialized = true;
 
-        if (initialized()) {
-            clazz = null;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
     @Override
     public void initInterfaces() {
-        if (interfacesInitialized) {
-            return;
-        }
+        synchronized (ts) {
+            if (interfacesInitialized) {
+                return;
+            }
 
-        int[] interfaces = clazz.getInterfaces();
-        for (int interface1 : interfaces) {
-            String name = clazz.classNameCP(interface1);
-            ct.addInterface(quietTypeForName(name));
-        }
+            int[] interfaces = clazz.getInterfaces();
+            for (int interface1 : interfaces) {
+                String name = clazz.classNameCP(interface1);
+                ct.addInterface(quietTypeForName(name));
+            }
 
-        interfacesInitialized = true;
+            interfacesInitialized = true;
 
-        if (initialized()) {
-            clazz = null;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
     @Override
     public void initMemberClasses() {
-        if (memberClassesInitialized) {
-            return;
-        }
+        synchronized (ts) {
+            if (memberClassesInitialized) {
+                return;
+            }
 
-        InnerClasses innerClasses = clazz.getInnerClasses();
+            InnerClasses innerClasses = clazz.getInnerClasses();
 
-        if (innerClasses != null) {
-            for (int i = 0; i < innerClasses.getClasses().length; i++) {
-                Info c = innerClasses.getClasses()[i];
+            if (innerClasses != null) {
+                for (int i = 0; i < innerClasses.getClasses().length; i++) {
+                    Info c = innerClasses.getClasses()[i];
 
-                if (c.outerClassIndex == clazz.getThisClass()
-                        && c.classIndex != 0) {
-                    String name = clazz.classNameCP(c.classIndex);
+                    if (c.outerClassIndex == clazz.getThisClass()
+                            && c.classIndex != 0) {
+                        String name = clazz.classNameCP(c.classIndex);
 
-                    int index = name.lastIndexOf('$');
+                        int index = name.lastIndexOf('$');
 
-                    // Skip local and anonymous classes.
-                    if (index >= 0 && Character.isDigit(name.charAt(index + 1))) {
-                        continue;
-                    }
+                        // Skip local and anonymous classes.
+                        if (index >= 0 && Character.isDigit(name.charAt(index + 1))) {
+                            continue;
+                        }
 
-                    // A member class of this class
-                    ClassType t = quietTypeForName(name);
+                        // A member class of this class
+                        ClassType t = quietTypeForName(name);
 
-                    if (t.isMember()) {
-                        if (Report.should_report(verbose, 3))
-                            Report.report(3, "adding member " + t + " to " + ct);
+                        if (t.isMember()) {
+                            if (Report.should_report(verbose, 3))
+                                Report.report(3, "adding member " + t + " to " + ct);
 
-                        ct.addMemberClass(t);
+                            ct.addMemberClass(t);
 
-                        // Set the access flags of the member class
-                        // using the modifier bits of the InnerClass attribute.
-                        // The flags in the class file for the member class are
-                        // not correct! Stupid Java.
-                        if (t instanceof ParsedClassType) {
-                            ParsedClassType pt = (ParsedClassType) t;
-                            pt.flags(ts.flagsForBits(c.modifiers));
+                            // Set the access flags of the member class
+                            // using the modifier bits of the InnerClass attribute.
+                            // The flags in the class file for the member class are
+                            // not correct! Stupid Java.
+                            if (t instanceof ParsedClassType) {
+                                ParsedClassType pt = (ParsedClassType) t;
+                                pt.flags(ts.flagsForBits(c.modifiers));
+                            }
+                        }
+                        else {
+                            throw new InternalCompilerError(name
+                                    + " should be a member class.");
                         }
-                    }
-                    else {
-                        throw new InternalCompilerError(name
-                                + " should be a member class.");
                     }
                 }
             }
-        }
 
-        memberClassesInitialized = true;
+            memberClassesInitialized = true;
 
-        if (initialized()) {
-            clazz = null;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
@@ -450,109 +470,115 @@ public class ClassFileLazyClassInitializer implements LazyClassInitializer {
 
     @Override
     public void initFields() {
-        if (fieldsInitialized) {
-            return;
-        }
+        synchronized (ts) {
+            if (fieldsInitialized) {
+                return;
+            }
 
-        Field[] fields = clazz.getFields();
-        for (int i = 0; i < fields.length; i++) {
-            if (!fields[i].name().startsWith("jlc$")
-                    && !fields[i].isSynthetic()) {
-                FieldInstance fi = this.fieldInstance(fields[i], ct);
-                if (Report.should_report(verbose, 3))
-                    Report.report(3, "adding " + fi + " to " + ct);
-                ct.addField(fi);
+            Field[] fields = clazz.getFields();
+            for (int i = 0; i < fields.length; i++) {
+                if (!fields[i].name().startsWith("jlc$")
+                        && !fields[i].isSynthetic()) {
+                    FieldInstance fi = this.fieldInstance(fields[i], ct);
+                    if (Report.should_report(verbose, 3))
+                        Report.report(3, "adding " + fi + " to " + ct);
+                    ct.addField(fi);
+                }
             }
-        }
 
-        fieldsInitialized = true;
+            fieldsInitialized = true;
 
-        if (initialized()) {
-            clazz = null;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
     @Override
     public void initMethods() {
-        if (methodsInitialized) {
-            return;
-        }
+        synchronized (ts) {
+            if (methodsInitialized) {
+                return;
+            }
 
-        Method[] methods = clazz.getMethods();
-        List<MethodInstance> declaredMethods = new ArrayList<>(methods.length);
-        for (int i = 0; i < methods.length; i++) {
-            if (!methods[i].name().equals("<init>")
-                    && !methods[i].name().equals("<clinit>")
-                    && !methods[i].isSynthetic() //  && !methods[i].isBridge()
-            ) {
-                MethodInstance mi = this.methodInstance(methods[i], ct);
-                if (Report.should_report(verbose, 3))
-                    Report.report(3, "adding " + mi + " to " + ct);
-                declaredMethods.add(mi);
-                ct.addMethod(mi);
+            Method[] methods = clazz.getMethods();
+            List<MethodInstance> declaredMethods = new ArrayList<>(methods.length);
+            for (int i = 0; i < methods.length; i++) {
+                if (!methods[i].name().equals("<init>")
+                        && !methods[i].name().equals("<clinit>")
+                        && !methods[i].isSynthetic() //  && !methods[i].isBridge()
+                ) {
+                    MethodInstance mi = this.methodInstance(methods[i], ct);
+                    if (Report.should_report(verbose, 3))
+                        Report.report(3, "adding " + mi + " to " + ct);
+                    declaredMethods.add(mi);
+                    ct.addMethod(mi);
+                }
             }
-        }
 
-        if (ct.flags().isInterface() && ct.interfaces().isEmpty()) {
-            // See JLS 2nd Ed. | 9.2.
-            // If an interface has no direct superinterfaces, then the interface
-            // implicitly declares a public abstract member method corresponding
-            // to each public instance method declared in Object, unless a
-            // method with the same signature, same return type, and a
-            // compatible throws clause is explicitly declared by the interface.
-            List<? extends MethodInstance> objectMethods =
-                    ts.Object().methods();
-            List<MethodInstance> implicitlyDeclaredMethods =
-                    new ArrayList<>(objectMethods.size());
-            for (MethodInstance mi : objectMethods) {
-                Flags flags = mi.flags();
-                if (!flags.isPublic()) continue;
-                boolean methodNeeded = true;
-                for (MethodInstance mj : declaredMethods) {
-                    if (!mi.name().equals(mj.name())) continue;
-                    if (!mi.formalTypes().equals(mj.formalTypes())) continue;
-                    methodNeeded = false;
-                    break;
+            if (ct.flags().isInterface() && ct.interfaces().isEmpty()) {
+                // See JLS 2nd Ed. | 9.2.
+                // If an interface has no direct superinterfaces, then the interface
+                // implicitly declares a public abstract member method corresponding
+                // to each public instance method declared in Object, unless a
+                // method with the same signature, same return type, and a
+                // compatible throws clause is explicitly declared by the interface.
+                List<? extends MethodInstance> objectMethods =
+                        ts.Object().methods();
+                List<MethodInstance> implicitlyDeclaredMethods =
+                        new ArrayList<>(objectMethods.size());
+                for (MethodInstance mi : objectMethods) {
+                    Flags flags = mi.flags();
+                    if (!flags.isPublic()) continue;
+                    boolean methodNeeded = true;
+                    for (MethodInstance mj : declaredMethods) {
+                        if (!mi.name().equals(mj.name())) continue;
+                        if (!mi.formalTypes().equals(mj.formalTypes())) continue;
+                        methodNeeded = false;
+                        break;
+                    }
+                    if (methodNeeded)
+                        implicitlyDeclaredMethods.add(mi.container(ct)
+                                                        .flags(flags.Abstract()
+                                                                    .clearFinal()));
                 }
-                if (methodNeeded)
-                    implicitlyDeclaredMethods.add(mi.container(ct)
-                                                    .flags(flags.Abstract()
-                                                                .clearFinal()));
+                for (MethodInstance mi : implicitlyDeclaredMethods)
+                    ct.addMethod(mi);
             }
-            for (MethodInstance mi : implicitlyDeclaredMethods)
-                ct.addMethod(mi);
-        }
 
-        methodsInitialized = true;
+            methodsInitialized = true;
 
-        if (initialized()) {
-            clazz = null;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
     @Override
     public void initConstructors() {
-        if (constructorsInitialized) {
-            return;
-        }
+        synchronized (ts) {
+            if (constructorsInitialized) {
+                return;
+            }
 
-        Method[] methods = clazz.getMethods();
-        for (int i = 0; i < methods.length; i++) {
-            if (methods[i].name().equals("<init>") && !methods[i].isSynthetic()) {
-                ConstructorInstance ci =
-                        this.constructorInstance(methods[i],
-                                                 ct,
-                                                 clazz.getFields());
-                if (Report.should_report(verbose, 3))
-                    Report.report(3, "adding " + ci + " to " + ct);
-                ct.addConstructor(ci);
+            Method[] methods = clazz.getMethods();
+            for (int i = 0; i < methods.length; i++) {
+                if (methods[i].name().equals("<init>") && !methods[i].isSynthetic()) {
+                    ConstructorInstance ci =
+                            this.constructorInstance(methods[i],
+                                                     ct,
+                                                     clazz.getFields());
+                    if (Report.should_report(verbose, 3))
+                        Report.report(3, "adding " + ci + " to " + ct);
+                    ct.addConstructor(ci);
+                }
             }
-        }
 
-        constructorsInitialized = true;
+            constructorsInitialized = true;
 
-        if (initialized()) {
-            clazz = null;
+            if (initialized()) {
+                clazz = null;
+            }
         }
     }
 
@@ -568,9 +594,8 @@ public class ClassFileLazyClassInitializer implements LazyClassInitializer {
      * @param ct The class containing the method.
      */
     protected MethodInstance methodInstance(Method method, ClassType ct) {
-        Constant[] constants = clazz.getConstants();
-        String name = (String) constants[method.getName()].value();
-        String type = (String) constants[method.getType()].value();
+        String name = (String) clazz.getConstant(method.getName()).value();
+        String type = (String) clazz.getConstant(method.getType()).value();
 
         if (type.charAt(0) != '(') {
             throw new ClassFormatError("Bad method type descriptor.");
@@ -647,9 +672,8 @@ public class ClassFileLazyClassInitializer implements LazyClassInitializer {
      * @param ct The class containing the field.
      */
     protected FieldInstance fieldInstance(Field field, ClassType ct) {
-        Constant[] constants = clazz.getConstants();
-        String name = (String) constants[field.getName()].value();
-        String type = (String) constants[field.getType()].value();
+        String name = (String) clazz.getConstant(field.getName()).value();
+        String type = (String) clazz.getConstant(field.getType()).value();
 
         FieldInstance fi =
                 ts.fieldInstance(ct.position(),
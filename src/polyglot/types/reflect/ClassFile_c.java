@@ -31,6 +31,7 @@ import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -54,7 +55,21 @@ import polyglot.types.SemanticException;
  * @author Nate Nystrom
  */
 public class ClassFile_c implements ClassFile {
-    protected Constant[] constants; // The constant pool
+    /**
+     * The constants of the constant pool that were used so far; see
+     * {@link #getConstant(int)}.
+     */
+    protected Constant[] constants;
+    /**
+     * The bytes of the constant pool, copied out of the class file so that
+     * the rest of the class file is not retained.
+     */
+    protected byte[] constantPool;
+    /**
+     * The offset in {@code constantPool} of the tag of each constant, or -1
+     * for the unused entries.
+     */
+    protected int[] constantOffsets;
     protected int modifiers; // This class's modifier bit field
     protected int thisClass;
     protected int superClass;
@@ -85,6 +100,8 @@ public class ClassFile_c implements ClassFile {
             ExtensionInfo ext) throws IOException {
         this.classFileSource = classFileSource;
         this.extensionInfo = ext;
+        // readConstantPool replaces this with a copy of the constant pool.
+        this.constantPool = code;
 
         try (ByteArrayInputStream bin = new ByteArrayInputStream(code);
              DataInputStream in = new DataInputStream(bin)) {
@@ -224,12 +241,12 @@ public class ClassFile_c implements ClassFile {
      */
     @Override
     public String classNameCP(int index) {
-        Constant c = constants[index];
+        Constant c = getConstant(index);
 
         if (c != null && c.tag() == Constant.CLASS) {
             Integer nameIndex = (Integer) c.value();
             if (nameIndex != null) {
-                c = constants[nameIndex.intValue()];
+                c = getConstant(nameIndex.intValue());
                 if (c.tag() == Constant.UTF8) {
                     String s = (String) c.value();
                     return s.replace('/', '.');
@@ -247,11 +264,11 @@ public class ClassFile_c implements ClassFile {
      */
     @Override
     public String name() {
-        Constant c = constants[thisClass];
+        Constant c = getConstant(thisClass);
         if (c.tag() == Constant.CLASS) {
             Integer nameIndex = (Integer) c.value();
             if (nameIndex != null) {
-                c = constants[nameIndex.intValue()];
+                c = getConstant(nameIndex.intValue());
                 if (c.tag() == Constant.UTF8) {
                     return (String) c.value();
                 }
@@ -262,56 +279,44 @@ public class ClassFile_c implements ClassFile {
     }
 
     /**
-     * Read a constant from the constant pool.
+     * Decode the constant at offset {@code off} of the constant pool.
      * 
-     * @param in
-     *            The stream from which to read.
      * @return The constant.
-     * @exception IOException
-     *                If an error occurs while reading.
      */
-    Constant readConstant(DataInputStream in) throws IOException {
-        int tag = in.readUnsignedByte();
+    protected Constant decodeConstant(int off) {
+        int tag = constantPool[off];
         Object value;
 
         switch (tag) {
         case Constant.CLASS:
         case Constant.STRING:
         case Constant.METHOD_TYPE:
-            value = new Integer(in.readUnsignedShort());
+            value = Integer.valueOf(u2(off + 1));
             break;
         case Constant.FIELD_REF:
         case Constant.METHOD_REF:
         case Constant.INTERFACE_METHOD_REF:
         case Constant.NAME_AND_TYPE:
         case Constant.INVOKE_DYNAMIC:
-            value = new int[2];
-
-            ((int[]) value)[0] = in.readUnsignedShort();
-            ((int[]) value)[1] = in.readUnsignedShort();
+            value = new int[] { u2(off + 1), u2(off + 3) };
             break;
         case Constant.METHOD_HANDLE:
-            value = new int[2];
-
-            ((int[]) value)[0] = in.readUnsignedByte();
-            ((int[]) value)[1] = in.readUnsignedShort();
+            value = new int[] { constantPool[off + 1] & 0xff, u2(off + 2) };
             break;
         case Constant.INTEGER:
-            value = new Integer(in.readInt());
+            value = Integer.valueOf(s4(off + 1));
             break;
         case Constant.FLOAT:
-            value = new Float(in.readFloat());
+            value = Float.intBitsToFloat(s4(off + 1));
             break;
         case Constant.LONG:
-            // Longs take up 2 constant pool entries.
-            value = new Long(in.readLong());
+            value = s8(off + 1);
             break;
         case Constant.DOUBLE:
-            // Doubles take up 2 constant pool entries.
-            value = new Double(in.readDouble());
+            value = Double.longBitsToDouble(s8(off + 1));
             break;
         case Constant.UTF8:
-            value = in.readUTF();
+            value = decodeUTF(off + 3, u2(off + 1));
             break;
         default:
             throw new ClassFormatError("Invalid constant tag: " + tag);
@@ -320,6 +325,61 @@ public class ClassFile_c implements ClassFile {
         return new Constant(tag, value);
     }
 
+    protected int u2(int off) {
+        return (constantPool[off] & 0xff) << 8 | constantPool[off + 1] & 0xff;
+    }
+
+    protected int s4(int off) {
+        return u2(off) << 16 | u2(off + 2);
+    }
+
+    protected long s8(int off) {
+        return (long) s4(off) << 32 | s4(off + 4) & 0xffffffffL;
+    }
+
+    /**
+     * Decode the {@code length} bytes at offset {@code off} of the constant
+     * pool, which are in the modified UTF-8 format of class files.
+     */
+    protected String decodeUTF(int off, int length) {
+        char[] chars = new char[length];
+        int n = 0;
+        int end = off + length;
+
+        while (off < end) {
+            int b = constantPool[off++] & 0xff;
+            if (b < 0x80) {
+                chars[n++] = (char) b;
+            }
+            else if ((b & 0xe0) == 0xc0 && off < end
+                    && isContinuation(constantPool[off])) {
+                int b2 = constantPool[off++];
+                chars[n++] = (char) ((b & 0x1f) << 6 | b2 & 0x3f);
+            }
+            else if ((b & 0xf0) == 0xe0 && off + 1 < end
+                    && isContinuation(constantPool[off])
+                    && isContinuation(constantPool[off + 1])) {
+                int b2 = constantPool[off++];
+                int b3 = constantPool[off++];
+                chars[n++] =
+                        (char) ((b & 0x0f) << 12 | (b2 & 0x3f) << 6 | b3 & 0x3f);
+            }
+            else {
+                throw new ClassFormatError("Malformed UTF-8 constant");
+            }
+        }
+
+        return new String(chars, 0, n);
+    }
+
+    /**
+     * Return true if {@code b} has the form 10xxxxxx of the second and third
+     * bytes of a character, as {@code DataInputStream.readUTF} requires.
+     */
+    protected static boolean isContinuation(byte b) {
+        return (b & 0xc0) == 0x80;
+    }
+
     /**
      * Read the class file header.
      * 
@@ -343,8 +403,9 @@ public class ClassFile_c implements ClassFile {
     }
 
     /**
-     * Read the class's constant pool. Constants in the constant pool are
-     * modeled by an array of <tt>reflect.Constant</tt>/
+     * Read the class's constant pool. Only the bytes of the constant pool and
+     * the offset of each constant in them are kept; a constant is decoded
+     * into a <tt>reflect.Constant</tt> when it is first used.
      * 
      * @param in
      *            The stream from which to read.
@@ -352,28 +413,71 @@ public class ClassFile_c implements ClassFile {
      *                If an error occurs while reading.
      * 
      * @see Constant
-     * @see #constants
+     * @see #getConstant(int)
      */
     void readConstantPool(DataInputStream in) throws IOException {
         int count = in.readUnsignedShort();
 
         constants = new Constant[count];
+        constantOffsets = new int[count];
+
+        // The constant pool follows the header and the constant count.
+        int start = 10;
+        int off = start;
 
         // The first constant is reserved for internal use by the JVM.
-        constants[0] = null;
+        constantOffsets[0] = -1;
 
-        // Read the constants.
         for (int i = 1; i < count; i++) {
-            constants[i] = readConstant(in);
+            if (off + 3 > constantPool.length) throw new EOFException();
 
-            switch (constants[i].tag()) {
+            int tag = constantPool[off];
+            int length;
+
+            switch (tag) {
+            case Constant.CLASS:
+            case Constant.STRING:
+            case Constant.METHOD_TYPE:
+                length = 2;
+                break;
+            case Constant.METHOD_HANDLE:
+                length = 3;
+                break;
+            case Constant.FIELD_REF:
+            case Constant.METHOD_REF:
+            case Constant.INTERFACE_METHOD_REF:
+            case Constant.NAME_AND_TYPE:
+            case Constant.INVOKE_DYNAMIC:
+            case Constant.INTEGER:
+            case Constant.FLOAT:
+                length = 4;
+                break;
             case Constant.LONG:
             case Constant.DOUBLE:
-                // Longs and doubles take up 2 constant pool entries.
-                constants[++i] = null;
+                length = 8;
+                break;
+            case Constant.UTF8:
+                length = 2 + u2(off + 1);
                 break;
+            default:
+                throw new ClassFormatError("Invalid constant tag: " + tag);
             }
+
+            constantOffsets[i] = off - start;
+            off += 1 + length;
+
+            if (tag == Constant.LONG || tag == Constant.DOUBLE) {
+                // Longs and doubles take up 2 constant pool entries.
+                constantOffsets[++i] = -1;
+            }
+        }
+
+        if (off > constantPool.length
+                || in.skipBytes(off - start) != off - start) {
+            throw new EOFException();
         }
+
+        constantPool = Arrays.copyOfRange(constantPool, start, off);
     }
 
     /**
@@ -460,7 +564,7 @@ public class ClassFile_c implements ClassFile {
         for (int i = 0; i < numAttributes; i++) {
             int nameIndex = in.readUnsignedShort();
             int length = in.readInt();
-            String name = (String) constants[nameIndex].value();
+            String name = (String) getConstant(nameIndex).value();
             Attribute a = createAttribute(in, name, nameIndex, length);
             if (a != null) {
                 attrs[i] = a;
@@ -534,9 +638,27 @@ public class ClassFile_c implements ClassFile {
      */
     @Override
     public Constant[] getConstants() {
+        for (int i = 0; i < constants.length; i++) {
+            getConstant(i);
+        }
         return constants;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see polyglot.types.reflect.ClassFileI#getConstant(int)
+     */
+    @Override
+    public Constant getConstant(int index) {
+        Constant c = constants[index];
+        if (c == null && constantOffsets[index] >= 0) {
+            c = decodeConstant(constantOffsets[index]);
+            constants[index] = c;
+        }
+        return c;
+    }
+
     /*
      * (non-Javadoc)
      * 
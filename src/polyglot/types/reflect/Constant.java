@@ -33,8 +33,8 @@ package polyglot.types.reflect;
  *         (<a href="mailto:nystrom@cs.purdue.edu">nystrom@cs.purdue.edu</a>)
  */
 public class Constant {
-    protected int tag;
-    protected Object value;
+    protected final int tag;
+    protected final Object value;
 
     /**
      * Constant tag for class types.
@@ -84,7 +84,7 @@ public class Field {
             int nameIndex = in.readUnsignedShort();
             int length = in.readInt();
 
-            Constant name = clazz.getConstants()[nameIndex];
+            Constant name = clazz.getConstant(nameIndex);
 
             if (name != null) {
                 if ("ConstantValue".equals(name.value())) {
@@ -127,7 +127,7 @@ public class Field {
     public Constant constantValue() {
         if (this.constantValue != null) {
             int index = this.constantValue.getIndex();
-            return clazz.getConstants()[index];
+            return clazz.getConstant(index);
         }
 
         return null;
@@ -186,7 +186,7 @@ public class Field {
 
         if (c != null && c.tag() == Constant.STRING) {
             Integer i = (Integer) c.value();
-            c = clazz.getConstants()[i.intValue()];
+            c = clazz.getConstant(i.intValue());
 
             if (c != null && c.tag() == Constant.UTF8) {
                 String v = (String) c.value();
@@ -223,6 +223,6 @@ public class Field {
     }
 
     public String name() {
-        return (String) clazz.getConstants()[this.name].value();
+        return (String) clazz.getConstant(this.name).value();
     }
 }
@@ -31,7 +31,9 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -44,8 +46,23 @@ import java.util.Map;
  * broken, and breaks in the same block must also be broken if they are
  * of strictly lower level or if they are of the same level but marked as
  * "unified".
+ *
+ * To bound the memory used for very large outputs, once more than
+ * {@code lookahead()} items have been given to the writer, the next block
+ * that started on a new line and is closed and followed by a newline
+ * (typically a class member or a statement) is formatted and output together
+ * with everything before it, without waiting for {@code flush}.  This is only
+ * done if the blocks that are still open contain no breaks other than
+ * newlines, so that the items that follow cannot change how the items
+ * output are formatted.  The blocks that are still open keep the margins
+ * they were output with.  Outputs smaller than the lookahead are formatted
+ * exactly as if the writer buffered everything, and larger outputs are
+ * formatted the same way too, unless formatting fails to obey the margins.
  */
 public class OptimalCodeWriter extends CodeWriter {
+    /** The default value of {@code lookahead()}. */
+    public static final int DEFAULT_LOOKAHEAD = 1 << 16;
+
     /**
      * Create a OptimalCodeWriter object with output stream {@code o}
      * and width {@code width_}.
@@ -79,6 +96,20 @@ public class OptimalCodeWriter extends CodeWriter {
         this(new PrintWriter(o), width_);
     }
 
+    /**
+     * The number of items the writer buffers before it outputs completed
+     * blocks without waiting for {@code flush}, or 0 if all items are
+     * buffered until {@code flush}.
+     */
+    public int lookahead() {
+        return lookahead;
+    }
+
+    /** Set the number of items the writer buffers; see {@code lookahead()}. */
+    public void setLookahead(int lookahead) {
+        this.lookahead = lookahead;
+    }
+
     @Override
     public void write(String s) {
         if (s.length() > 0) write(s, s.length());
@@ -89,6 +120,7 @@ public class OptimalCodeWriter extends CodeWriter {
         if (OptimalCodeWriter.showInput) {
             trace("write '" + s + "' (" + length + ")");
         }
+        buffered++;
         int b = 0, e;
         while (b < s.length()) {
             e = s.indexOf(b, '\n');
@@ -133,7 +165,9 @@ public class OptimalCodeWriter extends CodeWriter {
             trace("begin " + n);
             incIndent();
         }
+        buffered++;
         BlockItem b = new BlockItem(current, n);
+        b.startsLine = current.last instanceof Newline;
         current.add(b);
         current = b;
     }
@@ -157,6 +191,8 @@ public class OptimalCodeWriter extends CodeWriter {
         if (OptimalCodeWriter.showInput) {
             trace("allowBreak " + n + " level=" + level);
         }
+        buffered++;
+        current.hasBreaks = true;
         current.add(new AllowBreak(n, level, alt, altlen, false));
     }
 
@@ -166,6 +202,8 @@ public class OptimalCodeWriter extends CodeWriter {
         if (OptimalCodeWriter.showInput) {
             trace("unifiedBreak " + n + " level=" + level);
         }
+        buffered++;
+        current.hasBreaks = true;
         current.add(new AllowBreak(n, level, alt, altlen, true));
     }
 
@@ -187,9 +225,32 @@ public class OptimalCodeWriter extends CodeWriter {
         if (OptimalCodeWriter.showInput) {
             trace("newline " + n);
         }
+        if (lookahead > 0 && buffered > lookahead && canFlushCompleted()) {
+            try {
+                flushCompleted();
+            }
+            catch (IOException e) {
+                throw new InternalCompilerError(e);
+            }
+        }
+        buffered++;
         current.add(new Newline(n, level));
     }
 
+    /**
+     * Return true if the buffered items end with a closed block that started
+     * on a new line, and the open blocks contain no breaks other than
+     * newlines.
+     */
+    protected boolean canFlushCompleted() {
+        if (!(current.last instanceof BlockItem)
+                || !((BlockItem) current.last).startsLine) return false;
+        for (BlockItem b = current; b != null; b = b.parent) {
+            if (b.hasBreaks) return false;
+        }
+        return true;
+    }
+
     /**
      * Send out the current batch of text to be formatted. All outstanding
      * {@code begin}'s are closed and the current indentation level is
@@ -213,36 +274,106 @@ public class OptimalCodeWriter extends CodeWriter {
         if (OptimalCodeWriter.showInput) {
             trace("flush");
         }
+        boolean success = format && format();
+
+        input.sendOutput(output, 0, startPos, width, success, null);
+        output.flush();
+        success &= completedSuccess;
+        current = input = new BlockItem(null, 0);
+        buffered = 0;
+        startPos = 0;
+        formatPos = 0;
+        completedSuccess = true;
+        continuations.clear();
+        return success;
+    }
+
+    /**
+     * Format the buffered items, setting their breaks.  Return true if
+     * formatting was completely successful.
+     */
+    protected boolean format() {
+        if (format(false)) return true;
+        if (continuations.isEmpty()) return false;
+
+        // Formatting everything at once would have gone back to the items
+        // already output.  The only change to them that does not change
+        // their output is breaking their newlines, which formatting may
+        // have left unbroken, so try again with the newlines broken.
+        return format(true);
+    }
+
+    /**
+     * Format the buffered items, with the newlines output before them
+     * broken if {@code newlinesBroken}.  Return true if formatting was
+     * completely successful.
+     */
+    protected boolean format(boolean newlinesBroken) {
+        for (Continuation c : continuations) {
+            c.newlinesBroken = newlinesBroken;
+        }
         boolean success = true;
         format_calls = 0;
-        if (format) {
-            try {
-                top = input;
-                Item.format(input,
-                            0,
-                            0,
-                            width,
-                            width,
-                            new MaxLevels(Integer.MAX_VALUE, Integer.MAX_VALUE),
-                            0,
-                            0);
-            }
-            catch (Overrun o) {
-                success = false;
-            }
+        try {
+            top = input;
+            FormatResult fr =
+                    Item.format(this,
+                                input,
+                                0,
+                                formatPos,
+                                width,
+                                width,
+                                new MaxLevels(Integer.MAX_VALUE,
+                                              Integer.MAX_VALUE),
+                                0,
+                                0);
+            formatPos = fr.pos;
+        }
+        catch (Overrun o) {
+            success = false;
         }
-        else success = false;
-
-        input.sendOutput(output, 0, 0, width, success, null);
-        output.flush();
         if (OptimalCodeWriter.debug) {
             System.err.println("Total calls to format = " + format_calls);
             System.err.flush();
         }
-        current = input = new BlockItem(null, 0);
         return success;
     }
 
+    /**
+     * Format and output the buffered items, which end with a closed block,
+     * keeping the blocks that are still open.  Items added to the open
+     * blocks later are output at the margins the blocks had.
+     */
+    protected void flushCompleted() throws IOException {
+        if (OptimalCodeWriter.showInput) {
+            trace("flush completed blocks");
+        }
+        boolean success = format();
+
+        // Record the break levels in effect at the end of each open block
+        // before output, which may change the breaks.
+        Map<BlockItem, Continuation> continuations = new HashMap<>();
+        BlockItem child = null;
+        for (BlockItem b = current; b != null; b = b.parent) {
+            continuations.put(b, b.continuation(child));
+            child = b;
+        }
+
+        startPos = input.sendOutput(output, 0, startPos, width, success, null);
+        if (!success) formatPos = startPos;
+        completedSuccess &= success;
+
+        this.continuations.clear();
+        child = null;
+        for (BlockItem b = current; b != null; b = b.parent) {
+            Continuation c = continuations.get(b);
+            b.restart(c, child);
+            this.continuations.add(c);
+            child = b;
+        }
+        buffered = 0;
+    }
+
     @Override
     public void close() throws IOException {
         flush();
@@ -261,11 +392,38 @@ public class OptimalCodeWriter extends CodeWriter {
     protected BlockItem input;
     protected BlockItem current;
 
-    protected static Item top;
+    /** See {@code lookahead()}. */
+    protected int lookahead = DEFAULT_LOOKAHEAD;
+
+    /** The number of items given to the writer since they were last output. */
+    protected int buffered;
+
+    /** The position at which the buffered items start. */
+    protected int startPos;
+
+    /**
+     * The position at which the buffered items start when they are
+     * formatted.  Formatting may place the items output so far differently
+     * from the output, for instance when text overruns the width, and later
+     * items are formatted from where formatting, not the output, placed them.
+     */
+    protected int formatPos;
+
+    /** The continuations of the open blocks, which stand for the items output. */
+    protected final List<Continuation> continuations = new ArrayList<>();
+
+    /** False if formatting of items output before a flush failed. */
+    protected boolean completedSuccess = true;
+
+    /** The item being formatted, for debugging. */
+    protected Item top;
 
     protected PrintWriter output;
     protected int width;
-    protected static int format_calls = 0;
+    protected int format_calls = 0;
+
+    /** The overrun thrown when formatting by this writer fails. */
+    final Overrun overrun = new Overrun();
     public static final boolean debug = false; // show every step
     public static final boolean showInput = false; // show input
     public static final boolean visualize = false; // visualize formatting
@@ -311,19 +469,18 @@ class Overrun extends Exception {
     final static int WIDTH = 1;
     final static int FIN = 2;
 
-    private static final Overrun overrun = new Overrun();
-
-    private Overrun() {
+    Overrun() {
     }
 
-    static Overrun overrun(Item it, MaxLevels m, int amount, int type) {
+    static Overrun overrun(OptimalCodeWriter cw, Item it, MaxLevels m,
+            int amount, int type) {
         if (OptimalCodeWriter.debug)
             System.err.println("-- Overrun: " + amount);
         if (OptimalCodeWriter.visualize) {
             System.err.print("\033[H\033[2J");
             PrintWriter w = new PrintWriter(new OutputStreamWriter(System.err));
             try {
-                OptimalCodeWriter.top.sendOutput(w, 0, 0, 200, true, it);
+                cw.top.sendOutput(w, 0, 0, 200, true, it);
             }
             catch (IOException e) {
             }
@@ -360,6 +517,7 @@ class Overrun extends Exception {
             catch (IOException e) {
             }
         }
+        Overrun overrun = cw.overrun;
         overrun.amount = amount;
         overrun.type = type;
         return overrun;
@@ -385,6 +543,8 @@ abstract class Item {
      *         both), and set any contained breaks accordingly.
      *         </p>
      * 
+     * @param cw
+     *            is the writer doing the formatting.
      * @param lmargin
      *            is the current left margin.
      * @param pos
@@ -460,8 +620,9 @@ abstract class Item {
      * Requires: rmargin &lt; lmargin, pos &lt;= rmargin, lmargin &lt; rmargin,
      * pos &le; rmargin, lmargin &ge; 0
      */
-    abstract FormatResult formatN(int lmargin, int pos, int rmargin, int fin,
-            MaxLevels m, int minLevel, int minLevelUnified) throws Overrun;
+    abstract FormatResult formatN(OptimalCodeWriter cw, int lmargin, int pos,
+            int rmargin, int fin, MaxLevels m, int minLevel,
+            int minLevelUnified) throws Overrun;
 
     /**
      * Send the output associated with this item to {@code o}, using the
@@ -488,17 +649,17 @@ abstract class Item {
      * 
      * @see formatN
      */
-    static FormatResult format(Item it, int lmargin, int pos, int rmargin,
-            int fin, MaxLevels m, int minLevel, int minLevelUnified)
-            throws Overrun {
-        OptimalCodeWriter.format_calls++;
+    static FormatResult format(OptimalCodeWriter cw, Item it, int lmargin,
+            int pos, int rmargin, int fin, MaxLevels m, int minLevel,
+            int minLevelUnified) throws Overrun {
+        cw.format_calls++;
         if (OptimalCodeWriter.debug) {
-            if (it != null && it != OptimalCodeWriter.top) {
+            if (it != null && it != cw.top) {
                 System.err.println("SNAPSHOT:");
                 PrintWriter w =
                         new PrintWriter(new OutputStreamWriter(System.err));
                 try {
-                    OptimalCodeWriter.top.sendOutput(w, 0, 0, rmargin, true, it);
+                    cw.top.sendOutput(w, 0, 0, rmargin, true, it);
                 }
                 catch (IOException e) {
                 }
@@ -522,7 +683,7 @@ abstract class Item {
             if (pos > fin) {
                 if (OptimalCodeWriter.debug)
                     System.err.println("Final position overrun: " + (pos - fin));
-                throw Overrun.overrun(it, m, pos - fin, Overrun.FIN);
+                throw Overrun.overrun(cw, it, m, pos - fin, Overrun.FIN);
             }
             else return new FormatResult(pos, minLevelUnified);
         }
@@ -533,7 +694,7 @@ abstract class Item {
             if (OptimalCodeWriter.debug)
                 System.err.println("Width overrun: " + amount2);
 
-            throw Overrun.overrun(it, m, amount2, Overrun.WIDTH);
+            throw Overrun.overrun(cw, it, m, amount2, Overrun.WIDTH);
         }
 
         int amount = pos + getMinPosWidth(it, m) - rmargin; // overrun on first line
@@ -541,7 +702,7 @@ abstract class Item {
             if (OptimalCodeWriter.debug)
                 System.err.println("Position (first line) overrun: " + amount);
 
-            throw Overrun.overrun(it, m, amount, Overrun.POS);
+            throw Overrun.overrun(cw, it, m, amount, Overrun.POS);
         }
 
         int amount3 = lmargin + getMinIndent(it, m) - fin; // overrun on last line
@@ -550,10 +711,11 @@ abstract class Item {
                 System.err.println("Final position (predicted) overrun: "
                         + amount3);
 
-            throw Overrun.overrun(it, m, amount3, Overrun.FIN);
+            throw Overrun.overrun(cw, it, m, amount3, Overrun.FIN);
         }
 
-        return it.formatN(lmargin,
+        return it.formatN(cw,
+                          lmargin,
                           pos,
                           rmargin,
                           fin,
@@ -699,9 +861,11 @@ class TextItem extends Item {
     }
 
     @Override
-    FormatResult formatN(int lmargin, int pos, int rmargin, int fin,
-            MaxLevels m, int minLevel, int minLevelUnified) throws Overrun {
-        return format(next,
+    FormatResult formatN(OptimalCodeWriter cw, int lmargin, int pos,
+            int rmargin, int fin, MaxLevels m, int minLevel,
+            int minLevelUnified) throws Overrun {
+        return format(cw,
+                      next,
                       lmargin,
                       pos + length,
                       rmargin,
@@ -782,15 +946,17 @@ class AllowBreak extends Item {
     }
 
     @Override
-    FormatResult formatN(int lmargin, int pos, int rmargin, int fin,
-            MaxLevels m, int minLevel, int minLevelUnified) throws Overrun {
+    FormatResult formatN(OptimalCodeWriter cw, int lmargin, int pos,
+            int rmargin, int fin, MaxLevels m, int minLevel,
+            int minLevelUnified) throws Overrun {
         if (canLeaveUnbroken(minLevel, minLevelUnified)) {
             // first, we can try not breaking it
             try {
                 if (OptimalCodeWriter.debug)
                     System.err.println("trying not breaking it.");
                 broken = false;
-                return format(next,
+                return format(cw,
+                              next,
                               lmargin,
                               pos + altlen,
                               rmargin,
@@ -829,7 +995,8 @@ class AllowBreak extends Item {
                 System.err.println("trying breaking at " + this);
             broken = true;
             try {
-                return format(next,
+                return format(cw,
+                              next,
                               lmargin,
                               lmargin + indent,
                               rmargin,
@@ -975,12 +1142,60 @@ class BlockItem extends Item {
     Item last;
     int indent; //@ invariant indent >= 0
 
+    /** Whether the block follows a newline in its parent. */
+    boolean startsLine;
+
+    /** Whether breaks other than newlines were added to the block. */
+    boolean hasBreaks;
+
+    /**
+     * The left margin of the block's items, or -1 if it is the position of
+     * the block plus {@code indent}.
+     */
+    int margin = -1;
+
+    /** The left margin the block's items were last output at. */
+    int sentMargin;
+
     BlockItem(BlockItem parent_, int indent_) {
         parent = parent_;
         first = last = null;
         indent = indent_;
     }
 
+    /** The left margin of the block's items if the block is at {@code pos}. */
+    int lmargin(int pos) {
+        return margin >= 0 ? margin : pos + indent;
+    }
+
+    /**
+     * Return the break levels in effect after the items of this block that
+     * precede {@code stop}, or all items if {@code stop} is null.
+     */
+    Continuation continuation(Item stop) {
+        Continuation c = new Continuation();
+        for (Item it = first; it != stop; it = it.next) {
+            c.advance(it);
+        }
+        return c;
+    }
+
+    /**
+     * Discard the items of this block, which have been output, except for
+     * the open block {@code child}.  Items added later are formatted at the
+     * margin the block was output at, and with the break levels {@code c}.
+     */
+    void restart(Continuation c, BlockItem child) {
+        first = c;
+        c.next = child;
+        last = child != null ? child : c;
+        margin = sentMargin;
+        min_widths.clear();
+        min_indents.clear();
+        min_pos_width.clear();
+        containsBreaks.clear();
+    }
+
     /**
      * Add a new item to the end of the block. Successive StringItems are
      * concatenated together to limit recursion depth when formatting.
@@ -1003,16 +1218,18 @@ class BlockItem extends Item {
     }
 
     @Override
-    FormatResult formatN(int lmargin, int pos, int rmargin, int fin,
-            MaxLevels m, int minLevel, int minLevelUnified) throws Overrun {
+    FormatResult formatN(OptimalCodeWriter cw, int lmargin, int pos,
+            int rmargin, int fin, MaxLevels m, int minLevel,
+            int minLevelUnified) throws Overrun {
         int childfin = fin;
         if (childfin + getMinPosWidth(next, m) > rmargin) {
             childfin = rmargin - getMinPosWidth(next, m);
         }
         while (true) {
             FormatResult fr =
-                    format(first,
-                           pos + indent,
+                    format(cw,
+                           first,
+                           lmargin(pos),
                            pos,
                            rmargin,
                            childfin,
@@ -1022,7 +1239,8 @@ class BlockItem extends Item {
             int minLevel2 = Math.max(minLevel, fr.minLevel);
             int minLevelU2 = Math.max(minLevelUnified, fr.minLevel);
             try {
-                return format(next,
+                return format(cw,
+                              next,
                               lmargin,
                               fr.pos,
                               rmargin,
@@ -1046,7 +1264,8 @@ class BlockItem extends Item {
     int sendOutput(PrintWriter o, int lmargin, int pos, int rmargin,
             boolean success, Item last) throws IOException {
         Item it = first;
-        lmargin = pos + indent;
+        lmargin = lmargin(pos);
+        sentMargin = lmargin;
         if (last != this) {
             while (it != null) {
                 pos = it.sendOutput(o, lmargin, pos, rmargin, success, last);
@@ -1106,6 +1325,128 @@ class BlockItem extends Item {
     }
 }
 
+/**
+ * A Continuation stands for the items of a block that were already output.
+ * The items that follow it are formatted with the break levels in effect
+ * after the output items, either with their breaks as they were formatted,
+ * or with their newlines broken if {@code newlinesBroken}.  Formatting may
+ * leave a newline unbroken, which forbids breaking the following items.
+ */
+class Continuation extends Item {
+    /** The break levels after the breaks as they were formatted. */
+    final BreakLevels formatted = new BreakLevels();
+    /** The break levels after the breaks, with the newlines broken. */
+    final BreakLevels newlines = new BreakLevels();
+    boolean newlinesBroken;
+
+    BreakLevels levels() {
+        return newlinesBroken ? newlines : formatted;
+    }
+
+    /** Update the break levels as formatting {@code it} did. */
+    void advance(Item it) {
+        if (it instanceof Continuation) {
+            BreakLevels l = ((Continuation) it).levels();
+            formatted.merge(l);
+            newlines.merge(l);
+        }
+        else if (it instanceof AllowBreak) {
+            AllowBreak b = (AllowBreak) it;
+            formatted.advance(b, b.broken);
+            newlines.advance(b, b.broken || b instanceof Newline);
+        }
+        else if (it instanceof BlockItem) {
+            Continuation c = ((BlockItem) it).continuation(null);
+            formatted.advance(c.formatted.minLevelUnified);
+            newlines.advance(c.newlines.minLevelUnified);
+        }
+    }
+
+    @Override
+    FormatResult formatN(OptimalCodeWriter cw, int lmargin, int pos,
+            int rmargin, int fin, MaxLevels m, int minLevel,
+            int minLevelUnified) throws Overrun {
+        BreakLevels l = levels();
+        return format(cw,
+                      next,
+                      lmargin,
+                      pos,
+                      rmargin,
+                      fin,
+                      new MaxLevels(Math.min(l.maxLevel, m.maxLevel),
+                                    Math.min(l.maxLevelInner, m.maxLevelInner)),
+                      Math.max(l.minLevel, minLevel),
+                      Math.max(l.minLevelUnified, minLevelUnified));
+    }
+
+    @Override
+    int sendOutput(PrintWriter o, int lmargin, int pos, int rmargin,
+            boolean success, Item last) throws IOException {
+        return pos;
+    }
+
+    @Override
+    int selfMinIndent(MaxLevels m) {
+        return NO_WIDTH;
+    }
+
+    @Override
+    int selfMinWidth(MaxLevels m) {
+        return NO_WIDTH;
+    }
+
+    @Override
+    int selfMinPosWidth(MaxLevels m) {
+        return 0;
+    }
+
+    @Override
+    boolean selfContainsBreaks(MaxLevels m) {
+        return false;
+    }
+
+    @Override
+    String selfToString() {
+        return "...";
+    }
+}
+
+/** The break levels in effect after a sequence of items. */
+class BreakLevels {
+    int maxLevel = Integer.MAX_VALUE;
+    int maxLevelInner = Integer.MAX_VALUE;
+    int minLevel = 0;
+    int minLevelUnified = 0;
+
+    void merge(BreakLevels l) {
+        maxLevel = Math.min(maxLevel, l.maxLevel);
+        maxLevelInner = Math.min(maxLevelInner, l.maxLevelInner);
+        minLevel = Math.max(minLevel, l.minLevel);
+        minLevelUnified = Math.max(minLevelUnified, l.minLevelUnified);
+    }
+
+    /** Update the levels after the break {@code b}. */
+    void advance(AllowBreak b, boolean broken) {
+        if (broken) {
+            minLevel = Math.max(b.level - 1, minLevel);
+            minLevelUnified = Math.max(b.level, minLevelUnified);
+        }
+        else {
+            maxLevel = Math.min(b.unified ? b.level - 1 : b.level, maxLevel);
+            maxLevelInner = Math.min(b.level - 1, maxLevelInner);
+        }
+    }
+
+    /**
+     * Update the levels after a block in which the breaks of level
+     * {@code blockMinLevel} must be broken.
+     */
+    void advance(int blockMinLevel) {
+        minLevel = Math.max(minLevel, blockMinLevel);
+        minLevelUnified = Math.max(minLevelUnified, blockMinLevel);
+    }
+}
+
 class FormatResult {
     int pos;
     int minLevel;
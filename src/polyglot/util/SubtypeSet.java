@@ -32,6 +32,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 
+import polyglot.types.ClassType_c;
 import polyglot.types.Type;
 import polyglot.types.TypeSystem;
 
@@ -95,17 +96,17 @@ public class SubtypeSet implements java.util.Set<Type> {
             return false;
         }
 
-        if (ts.isSubtype(type, topType)) {
+        if (isSubtype(type, topType)) {
             boolean haveToAdd = true;
 
             for (Iterator<Type> i = v.iterator(); i.hasNext();) {
                 Type t = i.next();
 
-                if (ts.descendsFrom(t, type)) {
+                if (descendsFrom(t, type)) {
                     i.remove();
                 }
 
-                if (ts.isSubtype(type, t)) {
+                if (isSubtype(type, t)) {
                     haveToAdd = false;
                     break;
                 }
@@ -159,7 +160,7 @@ public class SubtypeSet implements java.util.Set<Type> {
             Type type = (Type) o;
 
             for (Type t : v) {
-                if (ts.isSubtype(type, t)) {
+                if (isSubtype(type, t)) {
                     return true;
                 }
             }
@@ -175,12 +176,42 @@ public class SubtypeSet implements java.util.Set<Type> {
      */
     public boolean containsSubtype(Type type) {
         for (Type t : v) {
-            if (ts.isSubtype(type, t) || ts.isSubtype(t, type)) return true;
+            if (isSubtype(type, t) || isSubtype(t, type)) return true;
         }
 
         return false;
     }
 
+    /**
+     * Return whether {@code child} is a subtype of {@code ancestor}.  Most
+     * exception types are class types whose ancestors are known exactly;
+     * for those, the answer comes from the ancestors of {@code child}
+     * without going through the type system.
+     */
+    protected boolean isSubtype(Type child, Type ancestor) {
+        if (child instanceof ClassType_c) {
+            Boolean b = ((ClassType_c) child).isSubtypeFromAncestors(ancestor);
+            if (b != null) {
+                return b;
+            }
+        }
+        return ts.isSubtype(child, ancestor);
+    }
+
+    /**
+     * Return whether {@code child} is a proper subtype of {@code ancestor};
+     * see {@link #isSubtype(Type, Type)}.
+     */
+    protected boolean descendsFrom(Type child, Type ancestor) {
+        if (child instanceof ClassType_c) {
+            Boolean b = ((ClassType_c) child).isSubtypeFromAncestors(ancestor);
+            if (b != null) {
+                return b && child != ancestor;
+            }
+        }
+        return ts.descendsFrom(child, ancestor);
+    }
+
     /**
      * Checks whether all elements of the collection are in the set
      */
@@ -220,7 +251,7 @@ public class SubtypeSet implements java.util.Set<Type> {
         for (Iterator<Type> i = v.iterator(); i.hasNext();) {
             Type t = i.next();
 
-            if (ts.isSubtype(t, type)) {
+            if (isSubtype(t, type)) {
                 removed = true;
                 i.remove();
             }
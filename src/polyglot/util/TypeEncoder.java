@@ -30,13 +30,15 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPOutputStream;
 
 import polyglot.frontend.SchedulerException;
 import polyglot.main.Report;
+import polyglot.types.DeserializedClassInitializer;
 import polyglot.types.Named;
 import polyglot.types.TypeObject;
 import polyglot.types.TypeSystem;
@@ -55,12 +57,30 @@ import polyglot.types.TypeSystem;
  * {@code PlaceHolder} that contains the name of the class. To aid
  * in the decoding process, placeholders for member classes user their 
  * "mangled" name; non-member classes use their fully qualified name.
+ * <p>
+ * Types are encoded in a compact form of the serialization stream, in which
+ * class descriptors are replaced by class names, serialVersionUIDs, and
+ * field hashes, and equal strings are shared.  The encoding starts with a
+ * versioned header, so that type information encoded in the older, plain
+ * form can still be decoded.
+ * <p>
+ * Where possible, the methods, fields, and constructors of a class are
+ * encoded separately from the rest of the class, and decoded only when first
+ * needed; see {@link DeserializedClassInitializer}.
  */
 public class TypeEncoder {
+    /**
+     * Header of the compact encoding, followed by a version number.  The older
+     * encoding starts with the magic number of a serialization stream
+     * instead, and can still be decoded.
+     */
+    protected static final byte[] COMPACT_HEADER = { 'P', 'G', 3 };
+
     protected TypeSystem ts;
     protected final boolean zip = true;
     protected final boolean base64 = true;
     protected final boolean test = false;
+    protected final boolean compact = true;
     protected Map<Object, Object> placeHolderCache;
     protected int depth;
 
@@ -76,22 +96,20 @@ public class TypeEncoder {
      * @throws IOException If the encoding fails.
      */
     public String encode(TypeObject t) throws IOException {
-        ByteArrayOutputStream baos;
-
         if (Report.should_report(Report.serialize, 1)) {
             Report.report(1, "Encoding type " + t);
         }
 
-        baos = new ByteArrayOutputStream();
-        try (GZIPOutputStream gzos = zip ? new GZIPOutputStream(baos) : null;
-             ObjectOutputStream oos =
-                     new TypeOutputStream(zip ? gzos : baos, ts, t)) {
-            oos.writeObject(t);
-            oos.flush();
+        byte[] b = encodeBytes(t, compact);
+        if (b == null) {
+            // The members share objects that must be decoded only once.
+            if (Report.should_report(Report.serialize, 2)) {
+                Report.report(2, "Encoding the members of " + t
+                        + " with the class");
+            }
+            b = encodeBytes(t, false);
         }
 
-        byte[] b = baos.toByteArray();
-
         if (Report.should_report(Report.serialize, 2)) {
             Report.report(2, "Size of serialization (with" + (zip ? "" : "out")
                     + " zipping) is " + b.length + " bytes");
@@ -134,6 +152,26 @@ public class TypeEncoder {
         return s;
     }
 
+    /**
+     * Serialize {@code t} into a byte array.  Return null if the members of
+     * {@code t} were to be encoded separately but could not be.
+     */
+    protected byte[] encodeBytes(TypeObject t, boolean lazyMembers)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TypeOutputStream oos;
+        try (GZIPOutputStream gzos = zip ? new GZIPOutputStream(baos) : null;
+             TypeOutputStream tos = oos(zip ? gzos : baos, t, lazyMembers)) {
+            oos = tos;
+            oos.writeObject(t);
+            oos.flush();
+        }
+
+        if (oos.membersShared()) return null;
+
+        return baos.toByteArray();
+    }
+
     /**
      * Decode a serialized type object.  If deserialization fails because
      * a type could not be resolved, the method returns null.  The calling
@@ -179,7 +217,14 @@ public class TypeEncoder {
 //                                            ts,
 //                                            placeHolderCache);
 //            }
-            try (TypeInputStream ois = ois(new ByteArrayInputStream(b))) {
+            boolean compactFormat = isCompact(b);
+            try (TypeInputStream ois =
+                    compactFormat
+                            ? compactOis(new ByteArrayInputStream(b,
+                                                                  COMPACT_HEADER.length,
+                                                                  b.length
+                                                                          - COMPACT_HEADER.length))
+                            : ois(new ByteArrayInputStream(b))) {
                 TypeObject o = (TypeObject) ois.readObject();
 
                 if (ois.deserializationFailed()) return null;
@@ -210,7 +255,80 @@ public class TypeEncoder {
         }
     }
 
+    /**
+     * Decode a list of members encoded separately from their class.  The
+     * members are decoded lazily, while some pass is running; if a type they
+     * refer to is not yet available, the pass is aborted to be rerun once it
+     * is.
+     * @param b The encoded members.
+     * @param what A description of the members for error messages.
+     */
+    public List<?> decodeMembers(byte[] b, String what) {
+        Map<Object, Object> oldCache = placeHolderCache;
+        placeHolderCache = new HashMap<>();
+
+        if (Report.should_report(Report.serialize, 1))
+            Report.report(1, "Decoding " + what);
+
+        try (TypeInputStream ois = compactOis(new ByteArrayInputStream(b))) {
+            List<?> l = (List<?>) ois.readObject();
+
+            if (ois.deserializationFailed()) {
+                throw new SchedulerException("Could not decode " + what);
+            }
+
+            return l;
+        }
+        catch (IOException e) {
+            throw new InternalCompilerError("IOException thrown while "
+                    + "decoding " + what + ": " + e.getMessage(), e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new InternalCompilerError("Unable to find one of the classes "
+                    + "for " + what + ": " + e.getMessage(), e);
+        }
+        finally {
+            placeHolderCache = oldCache;
+        }
+    }
+
+    /**
+     * Create the stream for encoding {@code t}, writing the header of the
+     * encoding first.
+     */
+    protected TypeOutputStream oos(OutputStream out, TypeObject t,
+            boolean lazyMembers) throws IOException {
+        if (compact) {
+            out.write(COMPACT_HEADER);
+        }
+        return new TypeOutputStream(out, ts, t, compact, lazyMembers);
+    }
+
+    /**
+     * Does the decoded byte array {@code b} use the compact encoding?
+     * @throws InvalidClassException if {@code b} uses a different version of
+     *         the compact encoding.
+     */
+    protected boolean isCompact(byte[] b) throws InvalidClassException {
+        int n = COMPACT_HEADER.length - 1;
+        if (b.length < COMPACT_HEADER.length) return false;
+        for (int i = 0; i < n; i++) {
+            if (b[i] != COMPACT_HEADER[i]) return false;
+        }
+        if (b[n] != COMPACT_HEADER[n]) {
+            throw new InvalidClassException("Type information encoded with "
+                    + "version " + b[n] + " of the compact encoding; expected "
+                    + "version " + COMPACT_HEADER[n]);
+        }
+        return true;
+    }
+
     public TypeInputStream ois(ByteArrayInputStream bais) throws IOException {
         return new TypeInputStream(bais, ts, placeHolderCache);
     }
+
+    public TypeInputStream compactOis(ByteArrayInputStream bais)
+            throws IOException {
+        return new TypeInputStream(bais, ts, placeHolderCache, true);
+    }
 }
@@ -28,7 +28,9 @@ package polyglot.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -40,27 +42,117 @@ import polyglot.types.PlaceHolder;
 import polyglot.types.TypeObject;
 import polyglot.types.TypeSystem;
 
-/** Input stream for reading type objects. */
+/**
+ * Input stream for reading type objects.  In compact mode, class
+ * descriptors are read as written by a compact {@code TypeOutputStream}, and
+ * a class whose local copy does not match its descriptor is rejected with an
+ * {@code InvalidClassException}.
+ */
 public class TypeInputStream extends ObjectInputStream {
     protected TypeSystem ts;
     protected Map<Object, Object> cache;
     protected boolean failed;
     protected boolean enableReplace;
     protected Set<Object> placeHoldersUsed;
+    protected boolean compact;
 
     public TypeInputStream(InputStream in, TypeSystem ts,
             Map<Object, Object> cache) throws IOException {
+        this(in, ts, cache, false);
+    }
+
+    public TypeInputStream(InputStream in, TypeSystem ts,
+            Map<Object, Object> cache, boolean compact) throws IOException {
         super(in);
 
         enableResolveObject(true);
 
         this.ts = ts;
         this.cache = cache;
+        this.compact = compact;
         this.failed = false;
         this.enableReplace = true;
         this.placeHoldersUsed = new HashSet<>();
     }
 
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException,
+            ClassNotFoundException {
+        if (!compact) {
+            return super.readClassDescriptor();
+        }
+
+        return readDescriptor();
+    }
+
+    /**
+     * Read the descriptors written by
+     * {@link TypeOutputStream#writeMemberDescriptors()}, checking each against
+     * the local copy of the class.
+     * @throws InvalidClassException if a local class is incompatible.
+     */
+    public void readMemberDescriptors() throws IOException,
+            ClassNotFoundException {
+        int n = readInt();
+        for (int i = 0; i < n; i++) {
+            readDescriptor();
+        }
+    }
+
+    /**
+     * Read a descriptor written by a compact {@code TypeOutputStream} and
+     * return the descriptor of the local copy of the class.
+     * @throws InvalidClassException if the local class has a different
+     *         serialVersionUID or different serializable fields.
+     */
+    protected ObjectStreamClass readDescriptor() throws IOException,
+            ClassNotFoundException {
+        String name = readUTF();
+        long suid = readLong();
+        int layout = readInt();
+
+        ObjectStreamClass desc = ObjectStreamClass.lookupAny(loadClass(name));
+        if (desc == null) {
+            throw new InvalidClassException(name, "not serializable");
+        }
+        if (desc.getSerialVersionUID() != suid) {
+            throw new InvalidClassException(name,
+                                            "local class incompatible: stream "
+                                                    + "classdesc serialVersionUID = "
+                                                    + suid
+                                                    + ", local class serialVersionUID = "
+                                                    + desc.getSerialVersionUID());
+        }
+        if (TypeOutputStream.fieldLayout(desc) != layout) {
+            throw new InvalidClassException(name,
+                                            "local class incompatible: "
+                                                    + "serializable fields differ");
+        }
+        return desc;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+            throws IOException, ClassNotFoundException {
+        if (!compact) {
+            return super.resolveClass(desc);
+        }
+        return loadClass(desc.getName());
+    }
+
+    /**
+     * Load the class named {@code name} with the class loader of the type
+     * system, which can see the classes of the extension.
+     */
+    protected Class<?> loadClass(String name) throws ClassNotFoundException {
+        return Class.forName(name, false, ts.getClass().getClassLoader());
+    }
+
+    /** Does this stream read the compact form? */
+    public boolean compact() {
+        return compact;
+    }
+
     public Set<Object> placeHoldersUsed() {
         return placeHoldersUsed;
     }
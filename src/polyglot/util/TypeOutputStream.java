@@ -26,11 +26,17 @@
 
 package polyglot.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,19 +44,85 @@ import polyglot.main.Report;
 import polyglot.types.TypeObject;
 import polyglot.types.TypeSystem;
 
-/** Output stream for writing type objects. */
+/**
+ * Output stream for writing type objects.
+ * <p>
+ * In compact mode, a class descriptor is written as the name of the class,
+ * its serialVersionUID, and a hash of its serializable fields; the reader
+ * uses the descriptor of its own copy of the class after checking that the
+ * two agree.  As with any descriptor, it is written once per stream and then
+ * referred to by handle.  Equal strings are always written once and then
+ * referred to by handle.
+ * <p>
+ * If members are encoded lazily, the methods, fields, and constructors of a
+ * class are each written to a nested stream, so that they can be decoded
+ * separately on first use.  Objects that
+ * {@link TypeSystem#typeEncoderSharesIdentity(TypeObject)} would then be
+ * decoded more than once if written to more than one stream;
+ * {@link #membersShared()} reports whether that happened.  The descriptors
+ * written to the nested streams are collected, so that the class can write
+ * them with itself by calling {@link #writeMemberDescriptors()}; the reader
+ * can then reject an incompatible class before any member is decoded.
+ */
 public class TypeOutputStream extends ObjectOutputStream {
     protected TypeSystem ts;
     protected Set<? extends TypeObject> roots;
     protected Map<IdentityKey, Object> placeHolders;
+    protected boolean compact;
+    protected Map<String, String> strings;
+    protected boolean lazyMembers;
+
+    /** The stream that created this one to encode members, or null. */
+    protected TypeOutputStream parent;
+    /** The stream each identity-sharing object was written to. */
+    protected Map<IdentityKey, TypeOutputStream> written;
+    protected boolean membersShared;
+    /**
+     * The descriptors written to the nested streams since the last call to
+     * {@link #writeMemberDescriptors()}.
+     */
+    protected Map<String, ObjectStreamClass> memberDescriptors;
 
     public TypeOutputStream(OutputStream out, TypeSystem ts, TypeObject root)
             throws IOException {
+        this(out, ts, root, false);
+    }
+
+    public TypeOutputStream(OutputStream out, TypeSystem ts, TypeObject root,
+            boolean compact) throws IOException {
+        this(out, ts, root, compact, false);
+    }
+
+    public TypeOutputStream(OutputStream out, TypeSystem ts, TypeObject root,
+            boolean compact, boolean lazyMembers) throws IOException {
+        this(out, ts, ts.getTypeEncoderRootSet(root), compact, lazyMembers);
+        this.written = new HashMap<>();
+        this.memberDescriptors = new LinkedHashMap<>();
+    }
+
+    /** Create a nested stream for encoding members. */
+    protected TypeOutputStream(OutputStream out, TypeOutputStream parent)
+            throws IOException {
+        this(out,
+             parent.ts,
+             Collections.<TypeObject> emptySet(),
+             true,
+             false);
+        this.parent = parent;
+        this.written = parent.written;
+    }
+
+    private TypeOutputStream(OutputStream out, TypeSystem ts,
+            Set<? extends TypeObject> roots, boolean compact,
+            boolean lazyMembers) throws IOException {
         super(out);
 
         this.ts = ts;
-        this.roots = ts.getTypeEncoderRootSet(root);
+        this.roots = roots;
         this.placeHolders = new HashMap<>();
+        this.compact = compact;
+        this.strings = new HashMap<>();
+        this.lazyMembers = lazyMembers;
 
         if (Report.should_report(Report.serialize, 2)) {
             Report.report(2, "Began TypeOutputStream with roots: " + roots);
@@ -59,6 +131,75 @@ public class TypeOutputStream extends ObjectOutputStream {
         enableReplaceObject(true);
     }
 
+    /** Does this stream write the compact form? */
+    public boolean compact() {
+        return compact;
+    }
+
+    /** Should the members of the root class be encoded separately? */
+    public boolean lazyMembers() {
+        return lazyMembers;
+    }
+
+    /**
+     * Was an object whose identity matters written to more than one of the
+     * streams for the members?  If so, the members must not be encoded
+     * lazily.
+     */
+    public boolean membersShared() {
+        return membersShared;
+    }
+
+    /**
+     * Encode the list {@code members} on a nested stream and return the
+     * bytes.
+     */
+    public byte[] encodeMembers(List<? extends TypeObject> members)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (TypeOutputStream oos = new TypeOutputStream(baos, this)) {
+            oos.writeObject(new ArrayList<>(members));
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Write the descriptors of the classes in the members encoded since the
+     * last call, to be checked by
+     * {@link TypeInputStream#readMemberDescriptors()}.
+     */
+    public void writeMemberDescriptors() throws IOException {
+        writeInt(memberDescriptors.size());
+        for (ObjectStreamClass desc : memberDescriptors.values()) {
+            writeDescriptor(desc);
+        }
+        memberDescriptors.clear();
+    }
+
+    /**
+     * Hash the serializable fields of the class described by {@code desc}, so
+     * that a reader can tell whether its copy of the class has the same
+     * fields.
+     */
+    public static int fieldLayout(ObjectStreamClass desc) {
+        int h = 0;
+        for (ObjectStreamField f : desc.getFields()) {
+            h = 31 * h + f.getName().hashCode();
+            h =
+                    31 * h
+                            + (f.isPrimitive()
+                                    ? f.getTypeCode()
+                                    : f.getTypeString().hashCode());
+        }
+        return h;
+    }
+
+    protected void writeDescriptor(ObjectStreamClass desc) throws IOException {
+        writeUTF(desc.getName());
+        writeLong(desc.getSerialVersionUID());
+        writeInt(fieldLayout(desc));
+    }
+
     protected Object placeHolder(TypeObject o, boolean useRoots) {
         IdentityKey k = new IdentityKey(o);
         Object p = placeHolders.get(k);
@@ -73,9 +214,32 @@ public class TypeOutputStream extends ObjectOutputStream {
         return p;
     }
 
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc)
+            throws IOException {
+        if (compact) {
+            writeDescriptor(desc);
+            if (parent != null) {
+                parent.memberDescriptors.put(desc.getName(), desc);
+            }
+        }
+        else {
+            super.writeClassDescriptor(desc);
+        }
+    }
+
     @Override
     protected Object replaceObject(Object o) throws IOException {
-        if (o instanceof TypeObject) {
+        if (o instanceof String) {
+            // Share equal strings, such as the names in place holders.
+            String s = strings.get(o);
+            if (s == null) {
+                s = (String) o;
+                strings.put(s, s);
+            }
+            return s;
+        }
+        else if (o instanceof TypeObject) {
             Object r;
 
             if (roots.contains(o)) {
@@ -89,6 +253,14 @@ public class TypeOutputStream extends ObjectOutputStream {
                 r = placeHolder((TypeObject) o, true);
             }
 
+            if (r == o && ts.typeEncoderSharesIdentity((TypeObject) o)) {
+                TypeOutputStream top = parent != null ? parent : this;
+                TypeOutputStream prev = written.put(new IdentityKey(o), this);
+                if (prev != null && prev != this) {
+                    top.membersShared = true;
+                }
+            }
+
             if (Report.should_report(Report.serialize, 2)) {
                 if (r != o) {
                     Report.report(2, "+ Replacing: " + o + " : " + o.getClass()
@@ -27,6 +27,7 @@
 package polyglot.visit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -51,7 +52,6 @@ import polyglot.util.CollectionUtil;
 import polyglot.util.Copy;
 import polyglot.util.InternalCompilerError;
 import polyglot.util.StringUtil;
-import polyglot.visit.FlowGraph.Edge;
 import polyglot.visit.FlowGraph.EdgeKey;
 import polyglot.visit.FlowGraph.Peer;
 
@@ -831,17 +831,15 @@ public class CFGBuilder<FlowItem extends DataFlow.Item> implements
                 Report.report(2, pp.hashCode() + " -> " + pq.hashCode()
                         + " [label=\"" + edgeKey + "\"];");
             }
-            pp.succs.add(new Edge<>(edgeKey, pq));
-            pq.preds.add(new Edge<>(edgeKey, pp));
         }
         else {
             if (Report.should_report(Report.cfg, 2)) {
                 Report.report(2, pq.hashCode() + " -> " + pp.hashCode()
                         + " [label=\"" + edgeKey + "\"];");
             }
-            pq.succs.add(new Edge<>(edgeKey, pp));
-            pp.preds.add(new Edge<>(edgeKey, pq));
         }
+
+        graph.edge(pp, pq, edgeKey);
     }
 
     /**
@@ -907,4 +905,21 @@ public class CFGBuilder<FlowItem extends DataFlow.Item> implements
         return v;
     }
 
+    /**
+     * Return an object identifying the graphs this builder constructs:
+     * builders with equal configurations construct graphs with the same
+     * peers and edges for the same AST.  Subclasses that add options that
+     * affect the graph should include them.
+     *
+     * @see CFGCache
+     */
+    public Object configuration() {
+        return Arrays.<Object> asList(getClass(),
+                                      graph.getClass(),
+                                      skipDeadIfBranches,
+                                      skipDeadLoopBodies,
+                                      errorEdgesToExitNode,
+                                      exceptionEdgesToFinally,
+                                      trackImplicitErrors);
+    }
 }
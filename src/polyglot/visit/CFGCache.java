@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.visit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import polyglot.ast.Term;
+import polyglot.visit.FlowGraph.EdgeKey;
+import polyglot.visit.FlowGraph.Peer;
+import polyglot.visit.FlowGraph.PeerKey;
+
+/**
+ * A cache of control-flow graphs for the code of one job.  The reachability,
+ * exit-path and initialization checkers each build a flow graph for every
+ * method; the structure of the graph depends only on the AST and on the
+ * configuration of the {@code CFGBuilder}, not on the analysis.  The cache
+ * stores that structure as a {@code Skeleton}: the peers, with their paths
+ * to finally blocks, and the labeled edges, without any dataflow items.
+ * Each analysis instantiates its own graph from the skeleton.
+ *
+ * Entries are keyed on the identity of the root of the graph.  A pass that
+ * rewrites a method body produces a new root, so stale entries are never
+ * returned.  To bound the memory held for replaced ASTs, the cache keeps only
+ * the entries used since the job's AST last changed and the changes before.
+ */
+public class CFGCache {
+    /**
+     * The structure of a flow graph: its peers in the order they were
+     * created, and its edges, in the forward direction, in the order they
+     * were added.
+     */
+    public static class Skeleton {
+        protected final List<Term> nodes = new ArrayList<>();
+        protected final List<PeerKey> peerKeys = new ArrayList<>();
+        protected final List<EdgeKey> edgeKeys = new ArrayList<>();
+
+        /** Indices into {@code nodes} of the source and target of each edge. */
+        protected int[] edges = new int[16];
+
+        /** Indices of the peers recorded so far; null once recorded. */
+        protected Map<Peer<?>, Integer> index = new IdentityHashMap<>();
+
+        protected void addPeer(Peer<?> p) {
+            index.put(p, nodes.size());
+            nodes.add(p.node());
+            peerKeys.add(p.peerKey());
+        }
+
+        protected void addEdge(Peer<?> pp, Peer<?> pq, EdgeKey edgeKey) {
+            int n = edgeKeys.size();
+            if (2 * n + 2 > edges.length) {
+                int[] a = new int[2 * edges.length];
+                System.arraycopy(edges, 0, a, 0, edges.length);
+                edges = a;
+            }
+            edges[2 * n] = index.get(pp);
+            edges[2 * n + 1] = index.get(pq);
+            edgeKeys.add(edgeKey);
+        }
+
+        /** Finish recording. */
+        protected void done() {
+            index = null;
+        }
+
+        /**
+         * Add the peers and edges of this skeleton to {@code g}, which must
+         * be empty, in the order they were recorded.
+         */
+        public <FlowItem extends DataFlow.Item> void instantiate(
+                FlowGraph<FlowItem> g) {
+            List<Peer<FlowItem>> peers = new ArrayList<>(nodes.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                peers.add(g.peer(nodes.get(i), peerKeys.get(i)));
+            }
+            for (int i = 0; i < edgeKeys.size(); i++) {
+                g.edge(peers.get(edges[2 * i]),
+                       peers.get(edges[2 * i + 1]),
+                       edgeKeys.get(i));
+            }
+        }
+    }
+
+    protected static class Key {
+        protected final Term root;
+        protected final Object configuration;
+
+        protected Key(Term root, Object configuration) {
+            this.root = root;
+            this.configuration = configuration;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(root) * 31
+                    + configuration.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key k = (Key) o;
+                return root == k.root && configuration.equals(k.configuration);
+            }
+            return false;
+        }
+    }
+
+    /** Entries used since the AST last changed. */
+    protected Map<Key, Skeleton> current = new HashMap<>();
+
+    /** Entries used before the AST last changed. */
+    protected Map<Key, Skeleton> previous = new HashMap<>();
+
+    /**
+     * Return the skeleton of the graph rooted at {@code root} built by a
+     * {@code CFGBuilder} with configuration {@code configuration}, or null.
+     *
+     * @see CFGBuilder#configuration()
+     */
+    public Skeleton get(Term root, Object configuration) {
+        Key k = new Key(root, configuration);
+        Skeleton s = current.get(k);
+        if (s == null) {
+            s = previous.remove(k);
+            if (s != null) current.put(k, s);
+        }
+        return s;
+    }
+
+    /**
+     * Record the skeleton of the graph rooted at {@code root} built by a
+     * {@code CFGBuilder} with configuration {@code configuration}.
+     */
+    public void put(Term root, Object configuration, Skeleton s) {
+        s.done();
+        current.put(new Key(root, configuration), s);
+    }
+
+    /**
+     * Note that the job's AST was replaced.  Entries not used since the
+     * previous change are dropped.
+     */
+    public void astChanged() {
+        if (current.isEmpty() && previous.isEmpty()) return;
+        previous = current;
+        current = new HashMap<>();
+    }
+}
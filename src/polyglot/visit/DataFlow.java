@@ -27,6 +27,7 @@
 package polyglot.visit;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,6 +35,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import polyglot.ast.Binary;
@@ -47,6 +49,7 @@ import polyglot.ast.NodeFactory;
 import polyglot.ast.Term;
 import polyglot.ast.Unary;
 import polyglot.frontend.Job;
+import polyglot.frontend.Stats;
 import polyglot.main.Report;
 import polyglot.types.MemberInstance;
 import polyglot.types.SemanticException;
@@ -593,13 +596,7 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
             if (g != null) {
                 // Build the control flow graph.
                 CFGBuilder<FlowItem> v = createCFGBuilder(ts, g);
-
-                try {
-                    v.visitGraph();
-                }
-                catch (CFGBuildError e) {
-                    throw new SemanticException(e.message(), e.position());
-                }
+                buildGraph(v, g);
 
                 dataflow(g);
 
@@ -612,6 +609,48 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
         }
     }
 
+    /**
+     * Build the flow graph {@code g} using {@code v}.  The structure of the
+     * graph is taken from the job's {@code CFGCache} if another analysis has
+     * built a graph for the same root with the same builder configuration,
+     * and is recorded in the cache otherwise.
+     */
+    protected void buildGraph(CFGBuilder<FlowItem> v, FlowGraph<FlowItem> g)
+            throws SemanticException {
+        // Build the graph directly if it is being dumped.
+        CFGCache cache =
+                job != null && !Report.should_report(Report.cfg, 2)
+                        ? job.cfgCache() : null;
+        Object configuration = null;
+        CFGCache.Skeleton skeleton = null;
+
+        if (cache != null) {
+            configuration = v.configuration();
+            skeleton = cache.get(g.root(), configuration);
+            Stats stats = job.extensionInfo().getStats();
+            if (skeleton != null) {
+                stats.accumPassTimes("CFG cache hits", 1, 1);
+                skeleton.instantiate(g);
+                return;
+            }
+            stats.accumPassTimes("CFG cache misses", 1, 1);
+            skeleton = new CFGCache.Skeleton();
+            g.record(skeleton);
+        }
+
+        try {
+            v.visitGraph();
+        }
+        catch (CFGBuildError e) {
+            throw new SemanticException(e.message(), e.position());
+        }
+        finally {
+            g.record(null);
+        }
+
+        if (cache != null) cache.put(g.root(), configuration, skeleton);
+    }
+
     protected Frame<FlowItem> createFrame(Peer<FlowItem> p, boolean forward,
             FlowGraph<FlowItem> grahp) {
         return new Frame<>(p, forward);
@@ -792,10 +831,191 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
         return count;
     }
 
+    /**
+     * Strategies for solving the dataflow equations of a flow graph.
+     */
+    public static enum Solver {
+        /**
+         * Visit the strongly connected components of the flow graph in
+         * topological order, iterating over each component until it
+         * stabilizes.
+         */
+        SCC("scc"),
+
+        /**
+         * Iterate over all the peers of the flow graph in reverse postorder
+         * until no out item changes.
+         */
+        ROUND_ROBIN("roundrobin"),
+
+        /**
+         * Keep a worklist of the peers whose in items may have changed, and
+         * always evaluate the peer that is earliest in reverse postorder.
+         */
+        WORKLIST("worklist"),
+
+        /**
+         * Solve with each of the other strategies, and check that they
+         * compute the same items; for testing the strategies.
+         */
+        CHECK("check");
+
+        private final String flagName;
+
+        private Solver(String flagName) {
+            this.flagName = flagName;
+        }
+
+        /** The name of the solver given to the -dataflow option. */
+        public String flagName() {
+            return flagName;
+        }
+    }
+
+    /**
+     * The strategy used to solve the dataflow equations, chosen by the
+     * -dataflow option.  Subclasses may override this method to choose a
+     * different strategy; all strategies compute the same solution for
+     * monotone dataflows.
+     */
+    protected Solver solver() {
+        if (job != null) {
+            Solver solver = job.extensionInfo().getOptions().dataflow_solver;
+            if (solver != null) {
+                return solver;
+            }
+        }
+        return Solver.SCC;
+    }
+
+    /**
+     * Counters for solving the dataflow equations of one flow graph.
+     */
+    protected static class SolverCounts {
+        /** The number of peers reachable from the start peers. */
+        public int peers;
+        /** The number of edges leaving those peers. */
+        public int edges;
+        /** The number of times the flow function of a peer was evaluated. */
+        public int iterations;
+        /** The number of confluences of two or more items. */
+        public int confluences;
+
+        @Override
+        public String toString() {
+            return peers + " peers, " + edges + " edges, " + iterations
+                    + " iterations, " + confluences + " confluences";
+        }
+    }
+
     /**
      * Perform the dataflow on flow graph {@code graph}.
      */
     protected void dataflow(FlowGraph<FlowItem> graph) {
+        if (this.detectBackEdges) {
+            // construct a postordering of the peers by visiting each peer in a depth first manner
+            this.postordering = new HashMap<>();
+            int count = 0;
+            Set<Peer<FlowItem>> visited = new HashSet<>();
+            for (Peer<FlowItem> p : graph.startPeers()) {
+                count = postorder(p, count, visited);
+            }
+        }
+
+        SolverCounts counts = new SolverCounts();
+        Solver solver = solver();
+        if (solver == Solver.CHECK) {
+            solveAndCheck(graph, counts);
+        }
+        else {
+            solve(solver, graph, counts);
+        }
+
+        String name = StringUtil.getShortNameComponent(getClass().getName());
+        if (Report.should_report(Report.dataflow, 1)) {
+            Report.report(1, "Done " + name + " (" + solver + ") for "
+                    + graph.root() + ": " + counts);
+        }
+        if (job != null) {
+            Stats stats = job.extensionInfo().getStats();
+            stats.accumPassTimes(name + " dataflow peers",
+                                 counts.peers,
+                                 counts.peers);
+            stats.accumPassTimes(name + " dataflow edges",
+                                 counts.edges,
+                                 counts.edges);
+            stats.accumPassTimes(name + " dataflow iterations",
+                                 counts.iterations,
+                                 counts.iterations);
+            stats.accumPassTimes(name + " dataflow confluences",
+                                 counts.confluences,
+                                 counts.confluences);
+        }
+    }
+
+    /**
+     * Solve the dataflow equations of {@code graph} with {@code solver}.
+     */
+    protected void solve(Solver solver, FlowGraph<FlowItem> graph,
+            SolverCounts counts) {
+        switch (solver) {
+        case ROUND_ROBIN:
+            solveRoundRobin(graph, counts);
+            break;
+        case WORKLIST:
+            solveWorklist(graph, counts);
+            break;
+        default:
+            solveBySCC(graph, counts);
+        }
+    }
+
+    /**
+     * Solve the dataflow equations of {@code graph} with each strategy in
+     * turn, starting over each time, and throw an InternalCompilerError if
+     * the items of a peer differ from those the first strategy computed.
+     * {@code counts} are those of the first strategy.
+     */
+    protected void solveAndCheck(FlowGraph<FlowItem> graph, SolverCounts counts) {
+        Peer<FlowItem>[] peers = reversePostorder(graph);
+        List<FlowItem> inItems = new ArrayList<>(peers.length);
+        List<Map<EdgeKey, FlowItem>> outItems = new ArrayList<>(peers.length);
+        boolean first = true;
+
+        for (Solver solver : Solver.values()) {
+            if (solver == Solver.CHECK) continue;
+
+            for (Peer<FlowItem> p : peers) {
+                p.inItem = null;
+                p.outItems = null;
+            }
+
+            solve(solver, graph, first ? counts : new SolverCounts());
+
+            for (int i = 0; i < peers.length; i++) {
+                Peer<FlowItem> p = peers[i];
+                if (first) {
+                    inItems.add(p.inItem);
+                    outItems.add(p.outItems);
+                }
+                else if (!Objects.equals(inItems.get(i), p.inItem)
+                        || !Objects.equals(outItems.get(i), p.outItems)) {
+                    throw new InternalCompilerError("The " + solver.flagName()
+                            + " solver computed " + p.inItem + " -> "
+                            + p.outItems + " for " + p.node + " instead of "
+                            + inItems.get(i) + " -> " + outItems.get(i),
+                                                    p.node.position());
+                }
+            }
+            first = false;
+        }
+    }
+
+    /**
+     * Solve the dataflow equations of {@code graph} one strongly connected
+     * component at a time.
+     */
+    protected void solveBySCC(FlowGraph<FlowItem> graph, SolverCounts counts) {
         if (Report.should_report(Report.dataflow, 1)) {
             Report.report(1, "Finding strongly connected components");
         }
@@ -803,6 +1023,7 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
         Peer<FlowItem>[] by_scc = pair.part1();
         int[] scc_head = pair.part2();
         int npeers = by_scc.length;
+        countPeers(by_scc, counts);
 
         /* by_scc contains the peers grouped by SCC.
            scc_head marks where the SCCs are. The SCC
@@ -810,16 +1031,6 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
            the beginning of the SCC.
         */
 
-        if (this.detectBackEdges) {
-            // construct a postordering of the peers by visiting each peer in a depth first manner
-            this.postordering = new HashMap<>();
-            int count = 0;
-            Set<Peer<FlowItem>> visited = new HashSet<>();
-            for (Peer<FlowItem> p : graph.startPeers()) {
-                count = postorder(p, count, visited);
-            }
-        }
-
         if (Report.should_report(Report.dataflow, 1)) {
             Report.report(1, "Iterating dataflow equations");
         }
@@ -833,46 +1044,7 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
                 change = false; // just started working on a new SCC
             }
 
-            // get the in items by examining the out items of all
-            // the predecessors of p
-            List<FlowItem> inItems = new ArrayList<>(p.preds.size());
-            List<EdgeKey> inItemKeys = new ArrayList<>(p.preds.size());
-            List<Peer<FlowItem>> inItemPeers = new ArrayList<>(p.preds.size());
-            for (Edge<FlowItem> e : p.preds) {
-                Peer<FlowItem> o = e.getTarget();
-                if (o.outItems != null) {
-                    if (!o.outItems.keySet().contains(e.getKey())) {
-                        throw new InternalCompilerError("There should have "
-                                + "an out Item with edge key " + e.getKey()
-                                + "; instead there were only "
-                                + o.outItems.keySet());
-                    }
-                    FlowItem it = o.outItems.get(e.getKey());
-                    if (it != null) {
-                        inItems.add(it);
-                        inItemKeys.add(e.getKey());
-                        inItemPeers.add(o);
-                    }
-                }
-            }
-
-            // calculate the out item
-            Map<EdgeKey, FlowItem> oldOutItems = p.outItems;
-            p.inItem = this.safeConfluence(inItems, inItemKeys, p, graph);
-            p.outItems = this.flow(inItems, inItemKeys, inItemPeers, graph, p);
-
-            if (!p.succEdgeKeys().equals(p.outItems.keySet())) {
-                // This check is more for developers to ensure that they
-                // have implemented their dataflow correctly. If performance
-                // is an issue, maybe we should remove this check.
-                throw new InternalCompilerError("The flow only defined "
-                        + "outputs for " + p.outItems.keySet() + "; needs to "
-                        + "define outputs for all of: " + p.succEdgeKeys()
-                        + " for node " + p.node, p.node.position());
-            }
-
-            if (oldOutItems != p.outItems
-                    && (oldOutItems == null || !oldOutItems.equals(p.outItems))) {
+            if (evaluate(graph, p, counts)) {
                 // the outItems of p has changed, so we will
                 // loop when we get to the end of the current SCC.
                 change = true;
@@ -885,11 +1057,153 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
                 current++;
             }
         }
-        if (Report.should_report(Report.dataflow, 1)) {
-            Report.report(1, "Done.");
+    }
+
+    /**
+     * Solve the dataflow equations of {@code graph} by sweeping over its
+     * peers in reverse postorder until a sweep changes nothing.
+     */
+    protected void solveRoundRobin(FlowGraph<FlowItem> graph,
+            SolverCounts counts) {
+        Peer<FlowItem>[] order = reversePostorder(graph);
+        countPeers(order, counts);
+
+        boolean change = true;
+        while (change) {
+            change = false;
+            for (Peer<FlowItem> p : order) {
+                if (evaluate(graph, p, counts)) {
+                    change = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Solve the dataflow equations of {@code graph} with a worklist ordered
+     * by the reverse postorder of the peers.  When the out items of a peer
+     * change, only its successors are evaluated again.
+     */
+    protected void solveWorklist(FlowGraph<FlowItem> graph,
+            SolverCounts counts) {
+        Peer<FlowItem>[] order = reversePostorder(graph);
+        countPeers(order, counts);
+
+        Map<Peer<FlowItem>, Integer> index = new HashMap<>();
+        for (int i = 0; i < order.length; i++) {
+            index.put(order[i], i);
+        }
+
+        BitSet worklist = new BitSet(order.length);
+        worklist.set(0, order.length);
+        for (int i = worklist.nextSetBit(0); i >= 0; i =
+                worklist.nextSetBit(0)) {
+            worklist.clear(i);
+            Peer<FlowItem> p = order[i];
+            if (evaluate(graph, p, counts)) {
+                for (Edge<FlowItem> e : p.succs) {
+                    Integer j = index.get(e.getTarget());
+                    if (j != null) worklist.set(j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the peers of {@code graph} that are reachable from its start
+     * peers, in reverse postorder.
+     */
+    protected Peer<FlowItem>[] reversePostorder(FlowGraph<FlowItem> graph) {
+        List<Peer<FlowItem>> postorder = new ArrayList<>();
+        LinkedList<Frame<FlowItem>> stack = new LinkedList<>();
+        Set<Peer<FlowItem>> reachable = new HashSet<>();
+        for (Peer<FlowItem> peer : graph.startPeers()) {
+            if (reachable.add(peer)) {
+                stack.addFirst(createFrame(peer, true, graph));
+                while (!stack.isEmpty()) {
+                    Frame<FlowItem> top = stack.getFirst();
+                    if (top.edges.hasNext()) {
+                        Peer<FlowItem> q = top.edges.next().getTarget();
+                        if (reachable.add(q)) {
+                            stack.addFirst(createFrame(q, true, graph));
+                        }
+                    }
+                    else {
+                        stack.removeFirst();
+                        postorder.add(top.peer);
+                    }
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Peer<FlowItem>[] order = new Peer[postorder.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = postorder.get(order.length - 1 - i);
+        }
+        return order;
+    }
+
+    private void countPeers(Peer<FlowItem>[] peers, SolverCounts counts) {
+        counts.peers = peers.length;
+        for (Peer<FlowItem> p : peers) {
+            counts.edges += p.succs.size();
         }
     }
 
+    /**
+     * Compute the in item and the out items of peer {@code p} from the out
+     * items of its predecessors.
+     *
+     * @return true if the out items of {@code p} changed.
+     */
+    protected boolean evaluate(FlowGraph<FlowItem> graph, Peer<FlowItem> p,
+            SolverCounts counts) {
+        // get the in items by examining the out items of all
+        // the predecessors of p
+        List<FlowItem> inItems = new ArrayList<>(p.preds.size());
+        List<EdgeKey> inItemKeys = new ArrayList<>(p.preds.size());
+        List<Peer<FlowItem>> inItemPeers = new ArrayList<>(p.preds.size());
+        for (Edge<FlowItem> e : p.preds) {
+            Peer<FlowItem> o = e.getTarget();
+            if (o.outItems != null) {
+                if (!o.outItems.keySet().contains(e.getKey())) {
+                    throw new InternalCompilerError("There should have "
+                            + "an out Item with edge key " + e.getKey()
+                            + "; instead there were only "
+                            + o.outItems.keySet());
+                }
+                FlowItem it = o.outItems.get(e.getKey());
+                if (it != null) {
+                    inItems.add(it);
+                    inItemKeys.add(e.getKey());
+                    inItemPeers.add(o);
+                }
+            }
+        }
+
+        counts.iterations++;
+        if (inItems.size() > 1) counts.confluences++;
+
+        // calculate the out item
+        Map<EdgeKey, FlowItem> oldOutItems = p.outItems;
+        p.inItem = this.safeConfluence(inItems, inItemKeys, p, graph);
+        p.outItems = this.flow(inItems, inItemKeys, inItemPeers, graph, p);
+
+        if (!p.succEdgeKeys().equals(p.outItems.keySet())) {
+            // This check is more for developers to ensure that they
+            // have implemented their dataflow correctly. If performance
+            // is an issue, maybe we should remove this check.
+            throw new InternalCompilerError("The flow only defined "
+                    + "outputs for " + p.outItems.keySet() + "; needs to "
+                    + "define outputs for all of: " + p.succEdgeKeys()
+                    + " for node " + p.node, p.node.position());
+        }
+
+        return oldOutItems != p.outItems
+                && (oldOutItems == null || !oldOutItems.equals(p.outItems));
+    }
+
     /**
      * Initialize the {@code FlowGraph} to be used in the dataflow
      * analysis.
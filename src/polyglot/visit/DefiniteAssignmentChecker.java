@@ -27,9 +27,10 @@
 package polyglot.visit;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -96,6 +97,9 @@ public class DefiniteAssignmentChecker extends
 
     protected ClassBodyInfo currCBI = null;
 
+    /** The slots of the variables of the code being analyzed. */
+    protected VarSlots currSlots = null;
+
     /**
      * This class is just a data structure containing relevant information
      * needed for performing initialization checking of a class declaration.
@@ -248,51 +252,210 @@ public class DefiniteAssignmentChecker extends
     }
 
     /**
-     * Dataflow items for this dataflow are maps of VarInstances to counts
-     * of the min and max number of times those variables/fields have
-     * been initialized. These min and max counts are then used to determine
-     * if variables have been initialized before use, and that final variables
-     * are not initialized too many times.
+     * The slots of the variables tracked by the dataflow over one piece of
+     * code.  The assignment status of the variable in slot {@code i} is
+     * kept in bit {@code i} of the bit vectors of a {@code FlowItem}.
+     */
+    protected static class VarSlots {
+        protected final Map<VarInstance, Integer> slots = new HashMap<>();
+        protected final List<VarInstance> vars = new ArrayList<>();
+
+        /** Return the slot of {@code vi}, or -1 if it has none. */
+        public int lookup(VarInstance vi) {
+            Integer i = slots.get(vi);
+            return i == null ? -1 : i;
+        }
+
+        /** Return the slot of {@code vi}, allocating one if needed. */
+        public int slot(VarInstance vi) {
+            Integer i = slots.get(vi);
+            if (i == null) {
+                i = vars.size();
+                slots.put(vi, i);
+                vars.add(vi);
+            }
+            return i;
+        }
+
+        public VarInstance var(int slot) {
+            return vars.get(slot);
+        }
+    }
+
+    /**
+     * Dataflow items for this dataflow map VarInstances to their
+     * AssignmentStatus.  The map is represented by bit vectors indexed by
+     * the slots of the variables: the variables in the map, and those
+     * definitely assigned and definitely unassigned.
      * 
      * This class is immutable.
      */
     protected static class FlowItem extends DataFlow.Item {
-        public Map<VarInstance, AssignmentStatus> assignmentStatus;
+        protected final VarSlots slots;
+        protected final BitSet tracked;
+        protected final BitSet assigned;
+        protected final BitSet unassigned;
         public final boolean normalTermination;
 
-        FlowItem(Map<VarInstance, AssignmentStatus> m) {
-            this.assignmentStatus = Collections.unmodifiableMap(m);
-            this.normalTermination = true;
+        protected FlowItem(VarSlots slots, BitSet tracked, BitSet assigned,
+                BitSet unassigned, boolean normalTermination) {
+            this.slots = slots;
+            this.tracked = tracked;
+            this.assigned = assigned;
+            this.unassigned = unassigned;
+            this.normalTermination = normalTermination;
         }
 
-        FlowItem(Map<VarInstance, AssignmentStatus> m,
+        FlowItem(VarSlots slots,
+                Map<? extends VarInstance, AssignmentStatus> m,
                 boolean canTerminateNormally) {
-            this.assignmentStatus = Collections.unmodifiableMap(m);
-            this.normalTermination = canTerminateNormally;
+            this(slots,
+                 new BitSet(),
+                 new BitSet(),
+                 new BitSet(),
+                 canTerminateNormally);
+            for (Entry<? extends VarInstance, AssignmentStatus> e : m.entrySet()) {
+                int i = slots.slot(e.getKey());
+                tracked.set(i);
+                assigned.set(i, e.getValue().definitelyAssigned);
+                unassigned.set(i, e.getValue().definitelyUnassigned);
+            }
+        }
+
+        /**
+         * Return the assignment status of {@code vi}, or null if
+         * {@code vi} is not in the map.
+         */
+        public AssignmentStatus get(VarInstance vi) {
+            int i = slots == null ? -1 : slots.lookup(vi);
+            if (i < 0 || !tracked.get(i)) return null;
+            return AssignmentStatus.construct(assigned.get(i),
+                                              unassigned.get(i));
+        }
+
+        public boolean contains(VarInstance vi) {
+            int i = slots == null ? -1 : slots.lookup(vi);
+            return i >= 0 && tracked.get(i);
+        }
+
+        /** Return this item with {@code vi} mapped to {@code as}. */
+        public FlowItem set(VarInstance vi, AssignmentStatus as) {
+            int i = slots.slot(vi);
+            BitSet t = (BitSet) tracked.clone();
+            BitSet a = (BitSet) assigned.clone();
+            BitSet u = (BitSet) unassigned.clone();
+            t.set(i);
+            a.set(i, as.definitelyAssigned);
+            u.set(i, as.definitelyUnassigned);
+            return new FlowItem(slots, t, a, u, true);
+        }
+
+        /** Return this item without {@code vi}. */
+        public FlowItem remove(VarInstance vi) {
+            int i = slots.lookup(vi);
+            if (i < 0 || !tracked.get(i)) return this;
+            BitSet t = (BitSet) tracked.clone();
+            BitSet a = (BitSet) assigned.clone();
+            BitSet u = (BitSet) unassigned.clone();
+            t.clear(i);
+            a.clear(i);
+            u.clear(i);
+            return new FlowItem(slots, t, a, u, true);
+        }
+
+        /** Return this item with every variable mapped to {@code as}. */
+        public FlowItem setAll(AssignmentStatus as) {
+            return new FlowItem(slots,
+                                tracked,
+                                as.definitelyAssigned
+                                        ? tracked : new BitSet(),
+                                as.definitelyUnassigned
+                                        ? tracked : new BitSet(),
+                                normalTermination);
+        }
+
+        /** The variables in the map. */
+        public List<VarInstance> vars() {
+            List<VarInstance> l = new ArrayList<>(tracked.cardinality());
+            for (int i = tracked.nextSetBit(0); i >= 0; i =
+                    tracked.nextSetBit(i + 1)) {
+                l.add(slots.var(i));
+            }
+            return l;
+        }
+
+        /** The map from variables to their assignment status. */
+        public Map<VarInstance, AssignmentStatus> assignmentStatus() {
+            Map<VarInstance, AssignmentStatus> m = new LinkedHashMap<>();
+            for (VarInstance vi : vars()) {
+                m.put(vi, get(vi));
+            }
+            return m;
+        }
+
+        /**
+         * Join this item with {@code that}.  A variable in both items gets
+         * the join of its statuses; a variable in only one of them keeps its
+         * status.
+         */
+        public FlowItem join(FlowItem that) {
+            BitSet t = (BitSet) this.tracked.clone();
+            t.or(that.tracked);
+            return new FlowItem(slots,
+                                t,
+                                join(this.assigned,
+                                     this.tracked,
+                                     that.assigned,
+                                     that.tracked),
+                                join(this.unassigned,
+                                     this.tracked,
+                                     that.unassigned,
+                                     that.tracked),
+                                true);
+        }
+
+        /** (b1 & b2) | (b1 & ~t2) | (b2 & ~t1) */
+        private static BitSet join(BitSet b1, BitSet t1, BitSet b2, BitSet t2) {
+            BitSet b = (BitSet) b1.clone();
+            b.and(b2);
+            BitSet only = (BitSet) b1.clone();
+            only.andNot(t2);
+            b.or(only);
+            only = (BitSet) b2.clone();
+            only.andNot(t1);
+            b.or(only);
+            return b;
         }
 
         @Override
         public String toString() {
-            return assignmentStatus.toString();
+            return assignmentStatus().toString();
         }
 
         @Override
         public boolean equals(Object o) {
             if (o instanceof FlowItem) {
-                return this.assignmentStatus.equals(((FlowItem) o).assignmentStatus);
+                FlowItem that = (FlowItem) o;
+                return this.tracked.equals(that.tracked)
+                        && this.assigned.equals(that.assigned)
+                        && this.unassigned.equals(that.unassigned);
             }
             return false;
         }
 
         @Override
         public int hashCode() {
-            return (assignmentStatus.hashCode());
+            return tracked.hashCode() ^ assigned.hashCode() * 31
+                    ^ unassigned.hashCode() * 17;
         }
 
     }
 
-    protected static final FlowItem BOTTOM =
-            new FlowItem(Collections.<VarInstance, AssignmentStatus> emptyMap());
+    protected static final FlowItem BOTTOM = new FlowItem(null,
+                                                          new BitSet(),
+                                                          new BitSet(),
+                                                          new BitSet(),
+                                                          true);
 
     /**
      * Initialize the FlowGraph to be used in the dataflow analysis.
@@ -303,6 +466,7 @@ public class DefiniteAssignmentChecker extends
     @Override
     protected FlowGraph<FlowItem> initGraph(CodeNode code, Term root) {
         currCBI.currCodeDecl = code;
+        currSlots = new VarSlots();
         return new FlowGraph<>(root, forward);
     }
 
@@ -527,6 +691,7 @@ public class DefiniteAssignmentChecker extends
     protected void dataflow(Expr root) throws SemanticException {
         // Build the control flow graph.
         FlowGraph<FlowItem> g = new FlowGraph<>(root, forward);
+        currSlots = new VarSlots();
         CFGBuilder<FlowItem> v = createCFGBuilder(ts, g);
         v.visitGraph();
         dataflow(g);
@@ -547,7 +712,9 @@ public class DefiniteAssignmentChecker extends
     }
 
     private FlowItem createInitDFI() {
-        return new FlowItem(new HashMap<VarInstance, AssignmentStatus>(currCBI.currClassFinalFieldAssStatuses));
+        return new FlowItem(currSlots,
+                            currCBI.currClassFinalFieldAssStatuses,
+                            true);
     }
 
     @Override
@@ -578,7 +745,8 @@ public class DefiniteAssignmentChecker extends
             if (filtered.isEmpty()) {
                 // record the fact that this dataflow item was not produced for a node
                 // that can be reached by normal termination.
-                return new FlowItem(new HashMap<VarInstance, AssignmentStatus>(currCBI.currClassFinalFieldAssStatuses),
+                return new FlowItem(currSlots,
+                                    currCBI.currClassFinalFieldAssStatuses,
                                     false);
             }
             else if (filtered.size() == 1) {
@@ -602,26 +770,24 @@ public class DefiniteAssignmentChecker extends
     public FlowItem confluence(List<FlowItem> inItems, Peer<FlowItem> peer,
             FlowGraph<FlowItem> graph) {
         // Resolve any conflicts pairwise.
-        Map<VarInstance, AssignmentStatus> m = null;
+        FlowItem m = null;
         for (FlowItem itm : inItems) {
             if (itm == BOTTOM) continue;
             if (m == null) {
-                m = new HashMap<>(itm.assignmentStatus);
+                m = itm;
             }
             else {
-                Map<VarInstance, AssignmentStatus> n = itm.assignmentStatus;
-                for (Entry<VarInstance, AssignmentStatus> e : n.entrySet()) {
-                    VarInstance v = e.getKey();
-                    AssignmentStatus as1 = m.get(v);
-                    AssignmentStatus as2 = e.getValue();
-                    m.put(v, AssignmentStatus.join(as1, as2));
-                }
+                m = m.join(itm);
             }
         }
 
         if (m == null) return BOTTOM;
 
-        return new FlowItem(m);
+        if (!m.normalTermination) {
+            m = new FlowItem(m.slots, m.tracked, m.assigned, m.unassigned, true);
+        }
+
+        return m;
     }
 
     @Override
@@ -662,12 +828,8 @@ public class DefiniteAssignmentChecker extends
         if (peer.isEntry()) {
             if (n instanceof LocalDecl) {
                 LocalDecl ld = (LocalDecl) n;
-                if (inItem.assignmentStatus.containsKey(ld.localInstance())) {
-                    Map<VarInstance, AssignmentStatus> newAssStatus =
-                            new HashMap<>(inItem.assignmentStatus);
-
-                    newAssStatus.remove(ld.localInstance());
-                    inItem = new FlowItem(newAssStatus);
+                if (inItem.contains(ld.localInstance())) {
+                    inItem = inItem.remove(ld.localInstance());
                 }
             }
             return itemToMap(inItem, peer.succEdgeKeys());
@@ -762,12 +924,7 @@ public class DefiniteAssignmentChecker extends
             return m;
         }
 
-        Map<VarInstance, AssignmentStatus> assignmentStatus = new HashMap<>();
-        for (VarInstance vi : fi.assignmentStatus.keySet()) {
-            assignmentStatus.put(vi, assStatus);
-        }
-
-        FlowItem newFI = new FlowItem(assignmentStatus, fi.normalTermination);
+        FlowItem newFI = fi.setAll(assStatus);
         Map<EdgeKey, FlowItem> newM = new HashMap<>(m);
         newM.put(ek, newFI);
         return newM;
@@ -779,15 +936,14 @@ public class DefiniteAssignmentChecker extends
      */
     protected Map<EdgeKey, FlowItem> flowFormal(FlowItem inItem,
             FlowGraph<FlowItem> graph, Formal f, Set<EdgeKey> succEdgeKeys) {
-        Map<VarInstance, AssignmentStatus> m =
-                new HashMap<>(inItem.assignmentStatus);
         // a formal argument is always defined.            
-        m.put(f.localInstance().orig(), AssignmentStatus.ASS);
+        FlowItem m =
+                inItem.set(f.localInstance().orig(), AssignmentStatus.ASS);
 
         // record the fact that we have seen the formal declaration
         currCBI.localDeclarations.add(f.localInstance().orig());
 
-        return DataFlow.<FlowItem> itemToMap(new FlowItem(m), succEdgeKeys);
+        return DataFlow.<FlowItem> itemToMap(m, succEdgeKeys);
     }
 
     /**
@@ -796,9 +952,7 @@ public class DefiniteAssignmentChecker extends
      */
     protected Map<EdgeKey, FlowItem> flowLocalDecl(FlowItem inItem,
             FlowGraph<FlowItem> graph, LocalDecl ld, Set<EdgeKey> succEdgeKeys) {
-        Map<VarInstance, AssignmentStatus> m =
-                new HashMap<>(inItem.assignmentStatus);
-        AssignmentStatus assStatus = m.get(ld.localInstance().orig());
+        AssignmentStatus assStatus;
         if (ld.init() != null) {
             // declaration of local var with initialization.
             assStatus = AssignmentStatus.ASS;
@@ -808,7 +962,7 @@ public class DefiniteAssignmentChecker extends
             assStatus = AssignmentStatus.UNASS;
         }
 
-        m.put(ld.localInstance().orig(), assStatus);
+        FlowItem m = inItem.set(ld.localInstance().orig(), assStatus);
 //        }
 //        else {
         // the initCount is not null. We now have a problem. Why is the
@@ -823,7 +977,7 @@ public class DefiniteAssignmentChecker extends
         // record the fact that we have seen a local declaration
         currCBI.localDeclarations.add(ld.localInstance());
 
-        return DataFlow.<FlowItem> itemToMap(new FlowItem(m), succEdgeKeys);
+        return DataFlow.<FlowItem> itemToMap(m, succEdgeKeys);
     }
 
     /**
@@ -833,14 +987,9 @@ public class DefiniteAssignmentChecker extends
     protected Map<EdgeKey, FlowItem> flowLocalAssign(FlowItem inItem,
             FlowGraph<FlowItem> graph, LocalAssign a, Set<EdgeKey> succEdgeKeys) {
         Local l = a.left();
-        Map<VarInstance, AssignmentStatus> m =
-                new HashMap<>(inItem.assignmentStatus);
-        AssignmentStatus initCount = m.get(l.localInstance().orig());
-
-        initCount = AssignmentStatus.ASS;
-
-        m.put(l.localInstance().orig(), initCount);
-        return DataFlow.<FlowItem> itemToMap(new FlowItem(m), succEdgeKeys);
+        FlowItem m =
+                inItem.set(l.localInstance().orig(), AssignmentStatus.ASS);
+        return DataFlow.<FlowItem> itemToMap(m, succEdgeKeys);
     }
 
     /**
@@ -854,14 +1003,11 @@ public class DefiniteAssignmentChecker extends
         if (fi.flags().isFinal() && isFieldsTargetAppropriate(f)) {
             // this field is final and the target for this field is 
             // appropriate for what we are interested in.
-            Map<VarInstance, AssignmentStatus> m =
-                    new HashMap<>(inItem.assignmentStatus);
-            // m.get(fi.orig()) may be null if the field is defined in an
-            // outer class. If so, ignore this assignment.
-            if (m.get(fi.orig()) != null) {
-                m.put(fi.orig(), AssignmentStatus.ASS);
-                return DataFlow.<FlowItem> itemToMap(new FlowItem(m),
-                                                     succEdgeKeys);
+            // inItem.get(fi.orig()) may be null if the field is defined in
+            // an outer class. If so, ignore this assignment.
+            if (inItem.contains(fi.orig())) {
+                FlowItem m = inItem.set(fi.orig(), AssignmentStatus.ASS);
+                return DataFlow.<FlowItem> itemToMap(m, succEdgeKeys);
             }
         }
         return null;
@@ -1021,15 +1167,15 @@ public class DefiniteAssignmentChecker extends
         // We need to copy back the init counts of any fields back into
         // currClassFinalFieldInitCounts, so that the counts are 
         // correct for the next field declaration, initializer, or constructor.
-        for (Entry<VarInstance, AssignmentStatus> e : dfOut.assignmentStatus.entrySet()) {
-            if (e.getKey() instanceof FieldInstance) {
-                FieldInstance fi = (FieldInstance) e.getKey();
+        for (VarInstance vi : dfOut.vars()) {
+            if (vi instanceof FieldInstance) {
+                FieldInstance fi = (FieldInstance) vi;
                 if (fi.flags().isFinal()) {
                     // we don't need to join the init counts, as all
                     // dataflows will go through all of the 
                     // initializers
                     currCBI.currClassFinalFieldAssStatuses.put(fi.orig(),
-                                                               e.getValue());
+                                                               dfOut.get(fi));
                 }
             }
         }
@@ -1059,13 +1205,13 @@ public class DefiniteAssignmentChecker extends
         Set<FieldInstance> s = new HashSet<>();
 
         // go through every final non-static field in dfOut.initStatus
-        for (Entry<VarInstance, AssignmentStatus> e : dfOut.assignmentStatus.entrySet()) {
-            if (e.getKey() instanceof FieldInstance
-                    && ((FieldInstance) e.getKey()).flags().isFinal()
-                    && !((FieldInstance) e.getKey()).flags().isStatic()) {
+        for (VarInstance vi : dfOut.vars()) {
+            if (vi instanceof FieldInstance
+                    && ((FieldInstance) vi).flags().isFinal()
+                    && !((FieldInstance) vi).flags().isStatic()) {
                 // we have a final non-static field                           
-                FieldInstance fi = (FieldInstance) e.getKey();
-                AssignmentStatus initCount = e.getValue();
+                FieldInstance fi = (FieldInstance) vi;
+                AssignmentStatus initCount = dfOut.get(fi);
                 AssignmentStatus origInitCount =
                         currCBI.currClassFinalFieldAssStatuses.get(fi);
                 if (initCount.definitelyAssigned
@@ -1094,15 +1240,15 @@ public class DefiniteAssignmentChecker extends
         // We need to copy back the init counts of any fields back into
         // currClassFinalFieldInitCounts, so that the counts are 
         // correct for the next field declaration, initializer, or constructor.
-        for (Entry<VarInstance, AssignmentStatus> e : dfOut.assignmentStatus.entrySet()) {
-            if (e.getKey() instanceof FieldInstance) {
-                FieldInstance fi = (FieldInstance) e.getKey();
+        for (VarInstance vi : dfOut.vars()) {
+            if (vi instanceof FieldInstance) {
+                FieldInstance fi = (FieldInstance) vi;
                 if (fi.flags().isFinal()) {
                     // we don't need to join the init counts, as all
                     // dataflows will go through all of the 
                     // initializers
                     currCBI.currClassFinalFieldAssStatuses.put(fi.orig(),
-                                                               e.getValue());
+                                                               dfOut.get(fi));
                 }
             }
         }
@@ -1123,8 +1269,7 @@ public class DefiniteAssignmentChecker extends
             if ((currCBI.currCodeDecl instanceof FieldDecl
                     || currCBI.currCodeDecl instanceof ConstructorDecl || currCBI.currCodeDecl instanceof Initializer)
                     && isFieldsTargetAppropriate(f)) {
-                AssignmentStatus initCount =
-                        dfIn.assignmentStatus.get(fi.orig());
+                AssignmentStatus initCount = dfIn.get(fi.orig());
                 if (initCount == null || !initCount.definitelyAssigned) {
                     throw new SemanticException("Final field \""
                                                         + f.name()
@@ -1152,8 +1297,7 @@ public class DefiniteAssignmentChecker extends
             currCBI.outerLocalsUsed.add(l.localInstance().orig());
         }
         else {
-            AssignmentStatus initCount =
-                    dfIn.assignmentStatus.get(l.localInstance().orig());
+            AssignmentStatus initCount = dfIn.get(l.localInstance().orig());
             if (initCount == null || !initCount.definitelyAssigned) {
                 // the local variable may not have been initialized. 
                 // However, we only want to complain if the local is reachable
@@ -1167,7 +1311,7 @@ public class DefiniteAssignmentChecker extends
 
     protected void checkLocalInstanceInit(LocalInstance li, FlowItem dfIn,
             Position pos) throws SemanticException {
-        AssignmentStatus initCount = dfIn.assignmentStatus.get(li.orig());
+        AssignmentStatus initCount = dfIn.get(li.orig());
         if (initCount != null && !initCount.definitelyAssigned) {
             // the local variable may not have been initialized. 
             throw new SemanticException("Local variable \"" + li.name()
@@ -1186,7 +1330,7 @@ public class DefiniteAssignmentChecker extends
                     + "\" cannot be assigned to in an inner class.", pos);
         }
 
-        AssignmentStatus initCount = dfIn.assignmentStatus.get(li.orig());
+        AssignmentStatus initCount = dfIn.get(li.orig());
 
         if (li.flags().isFinal() && initCount != null
                 && !initCount.definitelyUnassigned) {
@@ -1213,8 +1357,7 @@ public class DefiniteAssignmentChecker extends
                 // target of the field is this. 
                 // So a final field in this situation can be 
                 // assigned to at most once.                    
-                AssignmentStatus initCount =
-                        dfIn.assignmentStatus.get(fi.orig());
+                AssignmentStatus initCount = dfIn.get(fi.orig());
                 if (initCount == null) {
                     // This should not happen.
                     throw new InternalCompilerError("Dataflow information not found for field \""
@@ -1267,7 +1410,7 @@ public class DefiniteAssignmentChecker extends
             ClassBody cb, Set<LocalInstance> localsUsed, FlowItem dfIn,
             FlowItem dfOut) throws SemanticException {
         for (LocalInstance li : localsUsed) {
-            AssignmentStatus initCount = dfOut.assignmentStatus.get(li.orig());
+            AssignmentStatus initCount = dfOut.get(li.orig());
             if (!currCBI.localDeclarations.contains(li.orig())) {
                 // the local wasn't defined in this scope.
                 currCBI.outerLocalsUsed.add(li.orig());
@@ -81,6 +81,12 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
      */
     protected final boolean alwaysHaveSuccEdgeKey;
 
+    /**
+     * The skeleton recording the construction of this graph, or null if the
+     * construction is not being recorded.
+     */
+    protected CFGCache.Skeleton recording;
+
     public FlowGraph(Term root, boolean forward) {
         this(root, forward, true);
     }
@@ -214,11 +220,37 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
                                peerKey.entry,
                                this.alwaysHaveSuccEdgeKey);
             pathMap.put(peerKey, p);
+            if (recording != null) recording.addPeer(p);
         }
 
         return p;
     }
 
+    /**
+     * Add an edge labeled {@code edgeKey} from {@code pp} to {@code pq} in
+     * the forward flow graph.  If the flow in this graph is backward, the
+     * edge is reversed.
+     */
+    public void edge(Peer<FlowItem> pp, Peer<FlowItem> pq, EdgeKey edgeKey) {
+        if (forward) {
+            pp.succs.add(new Edge<>(edgeKey, pq));
+            pq.preds.add(new Edge<>(edgeKey, pp));
+        }
+        else {
+            pq.succs.add(new Edge<>(edgeKey, pp));
+            pp.preds.add(new Edge<>(edgeKey, pq));
+        }
+        if (recording != null) recording.addEdge(pp, pq, edgeKey);
+    }
+
+    /**
+     * Record the peers and edges subsequently added to this graph in
+     * {@code skeleton}, or stop recording if {@code skeleton} is null.
+     */
+    public void record(CFGCache.Skeleton skeleton) {
+        this.recording = skeleton;
+    }
+
     /**
      * This class provides an identifying label for edges in the flow graph.
      * Thus, the condition of an if statement will have at least two edges
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.visit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import polyglot.ast.Node;
+import polyglot.util.InternalCompilerError;
+
+/**
+ * A visitor that runs a sequence of visitors in a single traversal of the
+ * AST.  At each node, the visitors are entered in order, the children are
+ * visited by all of them, and the visitors leave the node in order, each
+ * receiving the node as rewritten by the visitors before it.  This saves a
+ * traversal and a rebuild of the tree for every visitor but the first.
+ *
+ * The result is the same as running the visitors one after another only if
+ * the visitors are compatible: a visitor must not depend on how a later
+ * visitor rewrites the children of a node, nor on how an earlier visitor
+ * rewrites an ancestor or the node itself before it is left, and the nodes
+ * a visitor creates must not need rewriting by the visitors after it.
+ * The {@code old} node passed to {@code leave} is the node before any
+ * visitor rewrote it.
+ *
+ * If a visitor overrides the traversal of a node, that node is not fused:
+ * the visitors before it visit the node together, and it and the visitors
+ * after it then visit the result one after another.  The {@code override}
+ * methods of the visitors are called more than once for such a node, so
+ * they must not have side effects.
+ */
+public class FusedVisitor extends NodeVisitor {
+    protected NodeVisitor[] visitors;
+
+    public FusedVisitor(NodeVisitor... visitors) {
+        this(Arrays.asList(visitors));
+    }
+
+    public FusedVisitor(List<? extends NodeVisitor> visitors) {
+        super(visitors.get(0).lang());
+        this.visitors = visitors.toArray(new NodeVisitor[visitors.size()]);
+    }
+
+    /** The visitors run by this visitor, in order. */
+    public List<NodeVisitor> visitors() {
+        return Collections.unmodifiableList(Arrays.asList(visitors));
+    }
+
+    /** Return a copy of this visitor running {@code visitors}. */
+    protected FusedVisitor visitors(NodeVisitor[] visitors) {
+        FusedVisitor v = (FusedVisitor) copy();
+        v.visitors = visitors;
+        return v;
+    }
+
+    @Override
+    public NodeVisitor begin() {
+        // Drop the visitors that have nothing to do.
+        List<NodeVisitor> l = new ArrayList<>(visitors.length);
+        for (NodeVisitor v : visitors) {
+            NodeVisitor v_ = v.begin();
+            if (v_ != null) l.add(v_);
+        }
+        if (l.isEmpty()) return null;
+        return visitors(l.toArray(new NodeVisitor[l.size()]));
+    }
+
+    @Override
+    public void finish(Node ast) {
+        for (NodeVisitor v : visitors) {
+            v.finish(ast);
+        }
+    }
+
+    @Override
+    public Node override(Node parent, Node n) {
+        for (int i = 0; i < visitors.length; i++) {
+            Node m = visitors[i].override(parent, n);
+            if (m == null) continue;
+
+            if (i > 0) {
+                // Let the visitors before i visit n first.
+                m = visitors(Arrays.copyOf(visitors, i)).visitEdgeNoOverride(parent,
+                                                                            n);
+                m = visitors[i].visitEdge(parent, m);
+            }
+            for (int j = i + 1; j < visitors.length; j++) {
+                m = visitors[j].visitEdge(parent, m);
+            }
+            return m;
+        }
+        return null;
+    }
+
+    @Override
+    public NodeVisitor enter(Node parent, Node n) {
+        NodeVisitor[] vs = null;
+        for (int i = 0; i < visitors.length; i++) {
+            NodeVisitor v_ = visitors[i].enter(parent, n);
+            if (v_ == null) {
+                throw new InternalCompilerError(visitors[i]
+                        + ".enter() returned null.");
+            }
+            if (v_ != visitors[i] && vs == null) {
+                vs = visitors.clone();
+            }
+            if (vs != null) vs[i] = v_;
+        }
+        return vs == null ? this : visitors(vs);
+    }
+
+    @Override
+    public Node leave(Node parent, Node old, Node n, NodeVisitor v) {
+        FusedVisitor fv = (FusedVisitor) v;
+        for (int i = 0; i < visitors.length; i++) {
+            n = visitors[i].leave(parent, old, n, fv.visitors[i]);
+            if (n == null) {
+                throw new InternalCompilerError(visitors[i]
+                        + ".leave() returned null.");
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (NodeVisitor v : visitors) {
+            if (sb.length() > 0) sb.append("+");
+            sb.append(v);
+        }
+        return sb.toString();
+    }
+}
@@ -232,7 +232,8 @@ public class Translator extends PrettyPrinter implements Copy<Translator> {
             else of = tf.outputFileObject(pkg, filename, sf.source());
 
             String opfPath = of.getName();
-            if (!opfPath.endsWith("$")) outputFiles.add(of);
+            boolean compiled = !opfPath.endsWith("$");
+            if (compiled) outputFiles.add(of);
             try (CodeWriter w = tf.outputCodeWriter(of, outputWidth)) {
                 writeHeader(sf, w);
 
@@ -250,6 +251,7 @@ public class Translator extends PrettyPrinter implements Copy<Translator> {
                             "I/O error while translating: " + e.getMessage());
                 return false;
             }
+            if (compiled) job.compiler().outputWritten(of);
         }
         return true;
     }
@@ -0,0 +1,14 @@
+import lazy.Lib;
+
+public class LazyMembers1 extends Lib {
+    LazyMembers1() {
+        super("one");
+    }
+
+    int total() throws java.io.IOException {
+        Lib l = Lib.copy(new Lib());
+        l.add(Lib.LIMIT - count());
+        Lib.Entry e = new Lib.Entry(this);
+        return l.count() + e.owner.name.length();
+    }
+}
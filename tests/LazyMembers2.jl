@@ -0,0 +1,9 @@
+import lazy.Lib;
+
+public class LazyMembers2 {
+    void m(Lib l) {
+        l.add("one");
+        l.count = Lib.LIMIT;
+        new Lib(1);
+    }
+}
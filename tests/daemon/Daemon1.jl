@@ -0,0 +1,5 @@
+public class Daemon1 {
+    int f() {
+        return 1;
+    }
+}
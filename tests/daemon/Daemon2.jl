@@ -0,0 +1,5 @@
+public class Daemon2 {
+    void m() {
+exit 0;
+    }
+}
@@ -0,0 +1,11 @@
+import java.util.*;
+
+public class A {
+    int f(B b) {
+        return b.g();
+    }
+
+    int size(Vector v) {
+        return v.size();
+    }
+}
@@ -0,0 +1,5 @@
+public class B {
+    int g() {
+        return 1;
+    }
+}
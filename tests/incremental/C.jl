@@ -0,0 +1,5 @@
+public class C {
+    int h() {
+        return 3;
+    }
+}
@@ -0,0 +1,5 @@
+public class Vector {
+    int size() {
+        return 0;
+    }
+}
@@ -0,0 +1,38 @@
+package lazy;
+
+public class Lib {
+    public static final int LIMIT = 10;
+    public String name;
+    protected int count;
+
+    public Lib() {
+        this("lib");
+    }
+
+    public Lib(String name) {
+        this.name = name;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public void add(int n) throws java.io.IOException {
+        if (count + n > LIMIT) throw new java.io.IOException();
+        count += n;
+    }
+
+    public static Lib copy(Lib l) {
+        Lib c = new Lib(l.name);
+        c.count = l.count;
+        return c;
+    }
+
+    public static class Entry {
+        public Lib owner;
+
+        public Entry(Lib owner) {
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.pth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import polyglot.frontend.Compiler;
+import polyglot.main.Options;
+import polyglot.main.UsageError;
+import polyglot.util.ErrorInfo;
+import polyglot.util.ErrorQueue;
+
+/**
+ * Checks run by a test extension, an extension named in a pth script to test
+ * something other than its own translation.  The extension runs its checks
+ * from {@code initCompiler}, before the files it is given are compiled, and a
+ * failed check is reported as an internal error of that compilation, so the
+ * script entry fails.  Since the checks may run compilations of their own,
+ * the global options are restored after them.
+ */
+public class ExtensionCheck {
+    /** The name of the test, prefixed to the failure messages. */
+    protected final String name;
+    protected ErrorQueue eq;
+
+    public ExtensionCheck(String name) {
+        this.name = name;
+    }
+
+    /** Run the checks, reporting failures to the error queue of compiler. */
+    public void run(Compiler compiler) {
+        eq = compiler.errorQueue();
+        Options global = Options.global;
+        try {
+            check();
+        }
+        catch (IOException | InterruptedException | UsageError e) {
+            fail("unexpected " + e);
+        }
+        finally {
+            Options.global = global;
+        }
+    }
+
+    /**
+     * Run the checks.  This does nothing, for tests that only check the
+     * compilation of the files they are given.
+     */
+    protected void check() throws IOException, InterruptedException,
+            UsageError {
+    }
+
+    public void fail(String message) {
+        eq.enqueue(ErrorInfo.INTERNAL_ERROR, name + ": " + message);
+    }
+
+    /** Delete {@code f}, with everything under it if it is a directory. */
+    public static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File c : files) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+
+    /** Delete the Java files directly in {@code dir}. */
+    public static void deleteOutputs(File dir) {
+        for (File f : dir.listFiles()) {
+            if (f.getName().endsWith(".java")) f.delete();
+        }
+    }
+
+    public static void copy(File from, File to) throws IOException {
+        Files.copy(from.toPath(), to.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static void write(File f, String contents) throws IOException {
+        Files.write(f.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.pth.test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import polyglot.frontend.Compiler;
+import polyglot.frontend.JLExtensionInfo;
+import polyglot.pth.ExtensionCheck;
+import polyglot.util.CodeWriter;
+import polyglot.util.OptimalCodeWriter;
+
+/**
+ * Stress test of {@link OptimalCodeWriter} used by several threads at once.
+ * The test formats {@code OUTPUTS} random outputs, one writer each, first one
+ * after the other and then in parallel on {@code THREADS} threads, and checks
+ * that each output is the same both times.
+ */
+public class CodeWriterStressTest extends JLExtensionInfo {
+    protected static final int OUTPUTS = 1000;
+    protected static final int THREADS = 8;
+    /** The maximum depth of the nested blocks of an output. */
+    protected static final int MAX_DEPTH = 4;
+
+    @Override
+    public void initCompiler(Compiler compiler) {
+        super.initCompiler(compiler);
+        new Check().run(compiler);
+    }
+
+    protected static class Check extends ExtensionCheck {
+        protected Check() {
+            super("Code writer stress test");
+        }
+
+        @Override
+        protected void check() throws IOException, InterruptedException {
+            List<String> expected = new ArrayList<>(OUTPUTS);
+            for (int i = 0; i < OUTPUTS; i++) {
+                expected.add(format(i));
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            try {
+                List<Future<String>> results = new ArrayList<>(OUTPUTS);
+                for (int i = 0; i < OUTPUTS; i++) {
+                    final int seed = i;
+                    results.add(pool.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws IOException {
+                            return format(seed);
+                        }
+                    }));
+                }
+
+                for (int i = 0; i < OUTPUTS; i++) {
+                    String s;
+                    try {
+                        s = results.get(i).get();
+                    }
+                    catch (ExecutionException e) {
+                        fail("formatting output " + i + " in parallel threw "
+                                + e.getCause());
+                        continue;
+                    }
+                    if (!s.equals(expected.get(i))) {
+                        fail("output " + i + " formatted in parallel differs:\n"
+                                + s + "\ninstead of:\n" + expected.get(i));
+                    }
+                }
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+
+        /**
+         * Format the random output generated from {@code seed}, with a random
+         * width and, for half of the outputs, a small lookahead.
+         */
+        protected static String format(int seed) throws IOException {
+            Random r = new Random(seed);
+            StringWriter sw = new StringWriter();
+            OptimalCodeWriter w = new OptimalCodeWriter(sw, 20 + r.nextInt(60));
+            if (r.nextBoolean()) w.setLookahead(1 + r.nextInt(64));
+            for (int n = 1 + r.nextInt(4); n > 0; n--) {
+                w.begin(0);
+                block(w, r, 0);
+                w.end();
+                w.newline();
+            }
+            w.flush();
+            return sw.toString();
+        }
+
+        /** Output the random contents of a block at depth {@code depth}. */
+        protected static void block(CodeWriter w, Random r, int depth) {
+            for (int n = 1 + r.nextInt(6); n > 0; n--) {
+                switch (r.nextInt(depth < MAX_DEPTH ? 6 : 4)) {
+                case 0:
+                    w.allowBreak(r.nextInt(4), r.nextInt(3), " ", 1);
+                    break;
+                case 1:
+                    w.unifiedBreak(r.nextInt(4), r.nextInt(3), " ", 1);
+                    break;
+                case 2:
+                    if (r.nextInt(4) == 0) w.newline(r.nextInt(4), 1);
+                    w.write(word(r));
+                    break;
+                case 3:
+                    w.write(word(r));
+                    break;
+                default:
+                    w.begin(r.nextInt(4));
+                    block(w, r, depth + 1);
+                    w.end();
+                    break;
+                }
+            }
+        }
+
+        protected static String word(Random r) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = 1 + r.nextInt(10); n > 0; n--) {
+                sb.append((char) ('a' + r.nextInt(26)));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.pth.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import polyglot.frontend.Compiler;
+import polyglot.frontend.JLExtensionInfo;
+import polyglot.main.Daemon;
+import polyglot.pth.ExtensionCheck;
+
+/**
+ * Tests {@link Daemon}.  The test starts a daemon and sends it requests from
+ * the directory {@code daemon}, relative to the directory the tests are run
+ * in, checking the exit codes and output.
+ */
+public class DaemonTest extends JLExtensionInfo {
+    protected static final String OUTPUT_DIRECTORY = "daemon-out";
+    protected static final String TOKEN_FILE = "daemon-token";
+
+    @Override
+    public void initCompiler(Compiler compiler) {
+        super.initCompiler(compiler);
+        new Check().run(compiler);
+    }
+
+    protected static class Check extends ExtensionCheck {
+        protected Check() {
+            super("Daemon test");
+        }
+
+        @Override
+        protected void check() throws IOException, InterruptedException {
+            run(new File("daemon").getAbsoluteFile());
+        }
+
+        protected void run(File dir) throws IOException, InterruptedException {
+            final Daemon daemon = new Daemon(0, new File(dir, TOKEN_FILE));
+            String token = Daemon.readToken(daemon.tokenFile());
+            Thread t = new Thread("daemon test") {
+                @Override
+                public void run() {
+                    try {
+                        daemon.serve();
+                    }
+                    catch (IOException e) {
+                        fail("daemon stopped: " + e.getMessage());
+                    }
+                }
+            };
+            t.start();
+
+            try {
+                int port = daemon.port();
+                File out = new File(dir, OUTPUT_DIRECTORY);
+
+                // Relative names are resolved against the client's directory.
+                String s = compile(port, token, dir, 0, "-c", "-d",
+                                   OUTPUT_DIRECTORY, "Daemon1.jl");
+                if (!new File(out, "Daemon1.java").isFile()) {
+                    fail("Daemon1.java not written to " + out + ": " + s);
+                }
+
+                // Output that looks like the end of a response is just output.
+                s = compile(port, token, dir, 1, "-c", "-d", OUTPUT_DIRECTORY,
+                            "Daemon2.jl");
+                if (!s.contains("\nexit 0;")) {
+                    fail("unexpected output for Daemon2.jl: " + s);
+                }
+
+                // Usage errors are sent to the client.
+                s = compile(port, token, dir, 1, "-nosuchflag", "Daemon1.jl");
+                if (!s.contains("-nosuchflag")) {
+                    fail("unexpected output for a bad flag: " + s);
+                }
+
+                // Bad requests are answered and do not stop the daemon.
+                badRequest(port, token, new byte[] { 'Q' });
+                badRequest(port, token, new byte[] { Daemon.COMPILE, 0, 0, 0,
+                        1, '.', (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                        (byte) 0xff });
+
+                // So are requests without the token.
+                badRequest(port, "", new byte[] { Daemon.STOP });
+                badRequest(port, token.replace(token.charAt(0), '-'),
+                           new byte[] { Daemon.STOP });
+
+                // Later compilations start from the types kept by earlier ones.
+                compile(port, token, dir, 0, "-c", "-d", OUTPUT_DIRECTORY,
+                        "Daemon1.jl");
+
+                delete(out);
+            }
+            finally {
+                Daemon.stop(daemon.port(), token);
+                t.join();
+            }
+            if (daemon.tokenFile().exists()) {
+                fail("token file " + daemon.tokenFile() + " left behind");
+            }
+        }
+
+        /**
+         * Compile {@code args} in the directory {@code dir}, checking for the
+         * exit code {@code exitCode}, and return the output.
+         */
+        protected String compile(int port, String token, File dir, int exitCode,
+                String... args) throws IOException {
+            List<String> l = Arrays.asList(args);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(bytes, true, "UTF-8");
+            int code = Daemon.send(port, token, dir, l, out);
+            String s = bytes.toString("UTF-8");
+            if (code != exitCode) {
+                fail("compiling " + l + " exited with " + code + " instead of "
+                        + exitCode + ": " + s);
+            }
+            return s;
+        }
+
+        /**
+         * Send the malformed request {@code request}, preceded by the token
+         * {@code token}.
+         */
+        protected void badRequest(int port, String token, byte[] request)
+                throws IOException {
+            InetAddress host = InetAddress.getLoopbackAddress();
+            try (Socket socket = new Socket(host, port)) {
+                DataOutputStream out =
+                        new DataOutputStream(socket.getOutputStream());
+                byte[] b = token.getBytes("UTF-8");
+                out.writeInt(b.length);
+                out.write(b);
+                out.write(request);
+                out.flush();
+                socket.shutdownOutput();
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                int code =
+                        Daemon.readResponse(socket, new PrintStream(bytes,
+                                                                    true,
+                                                                    "UTF-8"));
+                if (code != Daemon.BAD_REQUEST) {
+                    fail("bad request " + token + " "
+                            + Arrays.toString(request) + " exited with "
+                            + code + ": " + bytes);
+                }
+            }
+        }
+    }
+}
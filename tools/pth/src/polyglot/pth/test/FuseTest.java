@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.pth.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import polyglot.ext.jl5.JL5ExtensionInfo;
+import polyglot.frontend.Compiler;
+import polyglot.main.OptFlag;
+import polyglot.main.OptFlag.Arg;
+import polyglot.main.Options;
+import polyglot.main.UsageError;
+import polyglot.pth.ExtensionCheck;
+import polyglot.util.ErrorInfo;
+import polyglot.util.SilentErrorQueue;
+
+/**
+ * Tests the fusing of the JL5 rewriting passes.  The test translates the
+ * files given to the extension twice more with {@code -c} into directories of
+ * its own, once with the passes fused and once with {@code -nofuse}, and
+ * checks that both produce the same diagnostics and the same Java files.
+ * Numbers in the names of capture variables are ignored, since they depend on
+ * how many were created before.
+ */
+public class FuseTest extends JL5ExtensionInfo {
+    /** Flags set differently for the two translations. */
+    protected static final Set<String> REPLACED_FLAGS = new HashSet<>();
+    static {
+        REPLACED_FLAGS.add("-d");
+        REPLACED_FLAGS.add("-D");
+        REPLACED_FLAGS.add("-c");
+        REPLACED_FLAGS.add("-nofuse");
+    }
+
+    protected static boolean containsAny(Set<String> ids, Set<String> flags) {
+        for (String id : ids) {
+            if (flags.contains(id)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void initCompiler(Compiler compiler) {
+        super.initCompiler(compiler);
+        new Check().run(compiler);
+    }
+
+    protected class Check extends ExtensionCheck {
+        protected Check() {
+            super("Fuse test");
+        }
+
+        @Override
+        protected void check() throws IOException, UsageError {
+            File dir = Files.createTempDirectory("polyglot-fusetest").toFile();
+            try {
+                File fused = new File(dir, "fused");
+                File unfused = new File(dir, "nofuse");
+                List<String> fusedErrors = translate(fused, false);
+                List<String> unfusedErrors = translate(unfused, true);
+
+                if (!fusedErrors.equals(unfusedErrors)) {
+                    fail("diagnostics differ: " + fusedErrors + " with the "
+                            + "passes fused, " + unfusedErrors
+                            + " with -nofuse");
+                }
+                compare(fused, unfused);
+            }
+            finally {
+                delete(dir);
+            }
+        }
+
+        /**
+         * Translate the source files of this compilation into {@code dir}, with
+         * the passes fused unless {@code nofuse}, and return the diagnostics.
+         */
+        @SuppressWarnings("unchecked")
+        protected List<String> translate(File dir, boolean nofuse)
+                throws IOException, UsageError {
+            Files.createDirectories(dir.toPath());
+            JL5ExtensionInfo ext = new JL5ExtensionInfo();
+            Options options = ext.getOptions();
+            Set<OptFlag<?>> flags = options.flags();
+
+            List<Arg<?>> args = new ArrayList<>();
+            for (Arg<?> arg : getOptions().arguments()) {
+                if (arg.flag() == null
+                        || !containsAny(arg.flag().ids(), REPLACED_FLAGS)) {
+                    args.add(arg);
+                }
+            }
+            OptFlag<File> d = (OptFlag<File>) OptFlag.lookupFlag("-d", flags);
+            args.add(d.createArg(0, dir));
+            OptFlag<Boolean> c =
+                    (OptFlag<Boolean>) OptFlag.lookupFlag("-c", flags);
+            args.add(c.createArg(0, true));
+            if (nofuse) {
+                OptFlag<Boolean> f =
+                        (OptFlag<Boolean>) OptFlag.lookupFlag("-nofuse", flags);
+                args.add(f.createArg(0, true));
+            }
+
+            Set<String> source = new LinkedHashSet<>();
+            Options.global = options;
+            options.processArguments(args, source);
+
+            SilentErrorQueue errors =
+                    new SilentErrorQueue(100, compilerName());
+            try {
+                new Compiler(ext, errors).compileFiles(source);
+            }
+            finally {
+                ext.extFileManager().close();
+            }
+
+            List<String> result = new ArrayList<>();
+            for (ErrorInfo e : errors) {
+                result.add(e.getErrorString() + ": " + e.getMessage());
+            }
+            return result;
+        }
+
+        /**
+         * Compare the Java files written to {@code fused} and
+         * {@code unfused}.
+         */
+        protected void compare(File fused, File unfused) throws IOException {
+            Map<String, String> a =
+                    javaFiles(fused, "", new TreeMap<String, String>());
+            Map<String, String> b =
+                    javaFiles(unfused, "", new TreeMap<String, String>());
+            if (!a.keySet().equals(b.keySet())) {
+                fail("files differ: " + a.keySet() + " with the passes fused, "
+                        + b.keySet() + " with -nofuse");
+                return;
+            }
+            for (String name : a.keySet()) {
+                if (!a.get(name).equals(b.get(name))) {
+                    fail(name + " differs with -nofuse");
+                }
+            }
+        }
+
+        /**
+         * Add the Java files under {@code dir} to {@code files}, mapping their
+         * names, prefixed with {@code prefix}, to their normalized contents.
+         */
+        protected Map<String, String> javaFiles(File dir, String prefix,
+                Map<String, String> files) throws IOException {
+            File[] children = dir.listFiles();
+            if (children == null) return files;
+            for (File f : children) {
+                String name = prefix + f.getName();
+                if (f.isDirectory()) {
+                    javaFiles(f, name + "/", files);
+                }
+                else if (name.endsWith(".java")) {
+                    String s =
+                            new String(Files.readAllBytes(f.toPath()),
+                                       StandardCharsets.UTF_8);
+                    files.put(name,
+                              s.replaceAll("capture\\$\\d+", "capture\\$"));
+                }
+            }
+            return files;
+        }
+    }
+}
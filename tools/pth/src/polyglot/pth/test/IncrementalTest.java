@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.pth.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import polyglot.frontend.Compiler;
+import polyglot.frontend.JLExtensionInfo;
+import polyglot.main.Main;
+import polyglot.pth.ExtensionCheck;
+import polyglot.util.ErrorInfo;
+import polyglot.util.SilentErrorQueue;
+
+/**
+ * Tests incremental compilation with {@code -incremental}.  Sources from the
+ * directory {@code incremental}, relative to the directory the tests are run
+ * in, are copied to a scratch directory and compiled several times, editing,
+ * adding, and changing the classpath in between.  After each compilation, the
+ * test checks which sources were translated.
+ */
+public class IncrementalTest extends JLExtensionInfo {
+    protected static final String SCRATCH_DIRECTORY = "incremental-out";
+
+    @Override
+    public void initCompiler(Compiler compiler) {
+        super.initCompiler(compiler);
+        new Check().run(compiler);
+    }
+
+    protected static class Check extends ExtensionCheck {
+        protected Check() {
+            super("Incremental test");
+        }
+
+        @Override
+        protected void check() throws IOException {
+            File scratch = new File(SCRATCH_DIRECTORY).getAbsoluteFile();
+            try {
+                run(new File("incremental").getAbsoluteFile(), scratch);
+            }
+            finally {
+                delete(scratch);
+            }
+        }
+
+        protected void run(File dir, File scratch) throws IOException {
+            delete(scratch);
+            File src = new File(scratch, "src");
+            File classes = new File(scratch, "classes");
+            File lib = new File(scratch, "lib");
+            src.mkdirs();
+            classes.mkdirs();
+            lib.mkdirs();
+
+            for (String name : new String[] { "A.jl", "B.jl", "C.jl" }) {
+                copy(new File(dir, name), new File(src, name));
+            }
+
+            String cp = classes.getPath();
+            compile(scratch, cp, "A B C");
+
+            // Nothing changed.
+            compile(scratch, cp, "");
+
+            // A uses B.
+            write(new File(src, "B.jl"), "public class B {\n"
+                    + "    int g() {\n" + "        return 2;\n" + "    }\n"
+                    + "}\n");
+            compile(scratch, cp, "A B");
+
+            // A found Vector in java.util; now it is in the same package.
+            copy(new File(dir, "Vector.jl"), new File(src, "Vector.jl"));
+            compile(scratch, cp, "A Vector");
+
+            // A new classpath entry could hide any class.
+            cp = cp + File.pathSeparator + lib.getPath();
+            compile(scratch, cp, "A B C Vector");
+
+            // A no longer type checks, so it must be compiled again.
+            write(new File(src, "B.jl"), "public class B {\n"
+                    + "    String g() {\n" + "        return \"\";\n"
+                    + "    }\n" + "}\n");
+            SilentErrorQueue errors = compile(scratch, cp, null);
+            boolean found = false;
+            for (ErrorInfo e : errors) {
+                if (e.getPosition() != null
+                        && new File(e.getPosition().file()).getName()
+                                                           .equals("A.jl")) {
+                    found = true;
+                }
+            }
+            if (!found) {
+                fail("no error reported for A.jl after changing B.jl: "
+                        + messages(errors));
+            }
+        }
+
+        /**
+         * Compile every source in {@code scratch}/src with the classpath
+         * {@code cp}, and check that exactly the sources named in
+         * {@code expected} were translated.  If {@code expected} is null, the
+         * compilation must fail.  Return the errors reported.
+         */
+        protected SilentErrorQueue compile(File scratch, String cp,
+                String expected) {
+            File src = new File(scratch, "src");
+            File classes = new File(scratch, "classes");
+            deleteOutputs(classes);
+
+            List<String> args = new ArrayList<>();
+            args.addAll(Arrays.asList("-d", classes.getPath(), "-cp", cp,
+                                      "-sourcepath", src.getPath(),
+                                      "-incremental",
+                                      new File(scratch, "index").getPath()));
+            String[] names = src.list();
+            Arrays.sort(names);
+            for (String name : names) {
+                args.add(new File(src, name).getPath());
+            }
+
+            SilentErrorQueue errors = new SilentErrorQueue(100, "incremental");
+            boolean failed = false;
+            try {
+                new Main().start(args.toArray(new String[args.size()]),
+                                 new JLExtensionInfo(),
+                                 errors);
+            }
+            catch (Main.TerminationException e) {
+                failed = true;
+            }
+
+            if (expected == null) {
+                if (!failed) fail("compiling " + args + " did not fail");
+                return errors;
+            }
+            if (failed) {
+                fail("compiling " + args + " failed: " + messages(errors));
+                return errors;
+            }
+
+            Set<String> translated = translated(classes);
+            Set<String> want = new TreeSet<>();
+            if (!expected.isEmpty()) {
+                want.addAll(Arrays.asList(expected.split(" ")));
+            }
+            if (!translated.equals(want)) {
+                fail("compiling " + args + " translated " + translated
+                        + " instead of " + want);
+            }
+            return errors;
+        }
+
+        protected static List<String> messages(SilentErrorQueue errors) {
+            List<String> result = new ArrayList<>();
+            for (ErrorInfo e : errors) {
+                result.add(e.getPosition() + ": " + e.getMessage());
+            }
+            return result;
+        }
+
+        /** Return the names of the classes translated to {@code dir}. */
+        protected static Set<String> translated(File dir) {
+            Set<String> result = new TreeSet<>();
+            for (String name : dir.list()) {
+                if (name.endsWith(".java")) {
+                    result.add(name.substring(0, name.length() - 5));
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.pth.test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.FileObject;
+
+import polyglot.frontend.Compiler;
+import polyglot.frontend.JLExtensionInfo;
+import polyglot.frontend.TargetFactory;
+import polyglot.pth.ExtensionCheck;
+import polyglot.util.CodeWriter;
+import polyglot.util.OptimalCodeWriter;
+
+/**
+ * Tests the streaming output of {@link OptimalCodeWriter}.  This extension
+ * records what the translator writes to each output file, formats it twice,
+ * once with a lookahead of 1, so that every completed block that starts a
+ * line is output as soon as possible, and once fully buffered, and checks
+ * that both outputs are the same.  When the buffered output cannot obey the
+ * margins, the writer gives up formatting all of it, while the streaming
+ * writer only gives up on the blocks that do not fit, so the outputs are
+ * only compared if formatting the buffered output succeeds.  The buffered
+ * output is written to the output file.
+ */
+public class LookaheadTest extends JLExtensionInfo {
+    protected final ExtensionCheck check =
+            new ExtensionCheck("Lookahead test");
+
+    @Override
+    public void initCompiler(Compiler compiler) {
+        super.initCompiler(compiler);
+        check.run(compiler);
+    }
+
+    @Override
+    public TargetFactory targetFactory() {
+        if (target_factory == null) {
+            target_factory =
+                    new TargetFactory(extFileManager(),
+                                      getOptions().source_output,
+                                      getOptions().output_ext,
+                                      getOptions().output_stdout) {
+                        @Override
+                        public CodeWriter outputCodeWriter(FileObject f,
+                                int width) throws IOException {
+                            return new RecordingCodeWriter(f.getName(),
+                                                           outputWriter(f),
+                                                           width);
+                        }
+                    };
+        }
+        return target_factory;
+    }
+
+    /** A call to a code writer. */
+    protected static abstract class Call {
+        protected abstract void replay(CodeWriter w) throws IOException;
+    }
+
+    /**
+     * A code writer recording the calls made to it, and formatting them when
+     * it is closed.
+     */
+    protected class RecordingCodeWriter extends CodeWriter {
+        protected final String name;
+        protected final Writer out;
+        protected final int width;
+        protected final List<Call> calls = new ArrayList<>();
+        /** Whether formatting the calls replayed so far succeeded. */
+        protected boolean formatted;
+
+        protected RecordingCodeWriter(String name, Writer out, int width) {
+            this.name = name;
+            this.out = out;
+            this.width = width;
+        }
+
+        @Override
+        public void write(final String s) {
+            calls.add(new Call() {
+                @Override
+                protected void replay(CodeWriter w) {
+                    w.write(s);
+                }
+            });
+        }
+
+        @Override
+        public void write(final String s, final int length) {
+            calls.add(new Call() {
+                @Override
+                protected void replay(CodeWriter w) {
+                    w.write(s, length);
+                }
+            });
+        }
+
+        @Override
+        public void begin(final int n) {
+            calls.add(new Call() {
+                @Override
+                protected void replay(CodeWriter w) {
+                    w.begin(n);
+                }
+            });
+        }
+
+        @Override
+        public void end() {
+            calls.add(new Call() {
+                @Override
+                protected void replay(CodeWriter w) {
+                    w.end();
+                }
+            });
+        }
+
+        @Override
+        public void allowBreak(final int n, final int level, final String alt,
+                final int altlen) {
+            calls.add(new Call() {
+                @Override
+                protected void replay(CodeWriter w) {
+                    w.allowBreak(n, level, alt, altlen);
+                }
+            });
+        }
+
+        @Override
+        public void unifiedBreak(final int n, final int level,
+                final String alt, final int altlen) {
+            calls.add(new Call() {
+                @Override
+                protected void replay(CodeWriter w) {
+                    w.unifiedBreak(n, level, alt, altlen);
+                }
+            });
+        }
+
+        @Override
+        public void newline(final int n, final int level) {
+            calls.add(new Call() {
+                @Override
+                protected void replay(CodeWriter w) {
+                    w.newline(n, level);
+                }
+            });
+        }
+
+        @Override
+        public boolean flush() throws IOException {
+            return flush(true);
+        }
+
+        @Override
+        public boolean flush(final boolean format) throws IOException {
+            calls.add(new Call() {
+                @Override
+                protected void replay(CodeWriter w) throws IOException {
+                    formatted &= w.flush(format);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            String streamed = format(1);
+            String buffered = format(0);
+            if (formatted && !streamed.equals(buffered)) {
+                check.fail(name + " formatted with a lookahead of 1:\n"
+                        + streamed + "\ninstead of:\n" + buffered);
+            }
+            try {
+                out.write(buffered);
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Format the recorded calls with the lookahead {@code lookahead}, or
+         * fully buffered if {@code lookahead} is 0, setting
+         * {@code formatted}.
+         */
+        protected String format(int lookahead) throws IOException {
+            StringWriter sw = new StringWriter();
+            OptimalCodeWriter w = new OptimalCodeWriter(sw, width);
+            w.setLookahead(lookahead);
+            formatted = true;
+            for (Call c : calls) {
+                c.replay(w);
+            }
+            formatted &= w.flush();
+            w.close();
+            return sw.toString();
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + calls.size() + " calls";
+        }
+    }
+}